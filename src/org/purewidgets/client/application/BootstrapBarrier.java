@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package org.purewidgets.client.application;
+
+import java.util.HashSet;
+
+import org.purewidgets.shared.logging.Log;
+
+/**
+ * A join barrier for the concurrent tasks of the application bootstrap. Each task is registered
+ * with {@link #await(String)} before it is started, and marked as done with
+ * {@link #arrive(String)}. When every registered task is done, the barrier runs its action once.
+ *
+ * The time each task took, and the total time, are logged.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class BootstrapBarrier {
+
+	/**
+	 * The tasks that are not done yet.
+	 */
+	private HashSet<String> pending;
+
+	/**
+	 * The action to run when every task is done.
+	 */
+	private Runnable action;
+
+	/**
+	 * Whether the action already ran.
+	 */
+	private boolean joined;
+
+	/**
+	 * The time, in milliseconds, when the barrier was created.
+	 */
+	private long startTime;
+
+	/**
+	 * Creates a new BootstrapBarrier.
+	 *
+	 * @param action The action to run when every task is done.
+	 */
+	public BootstrapBarrier(Runnable action) {
+		this.pending = new HashSet<String>();
+		this.action = action;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Registers a task the barrier must wait for.
+	 *
+	 * @param task The task name.
+	 */
+	public void await(String task) {
+		if ( this.joined ) {
+			Log.warn(this, "Task '" + task + "' registered after the bootstrap completed.");
+			return;
+		}
+		this.pending.add(task);
+	}
+
+	/**
+	 * Marks a task as done, running the action if it was the last one.
+	 *
+	 * @param task The task name.
+	 */
+	public void arrive(String task) {
+		if ( !this.pending.remove(task) ) {
+			return;
+		}
+		Log.debug(this, "Bootstrap task '" + task + "' done in " + this.getElapsed() + " ms.");
+
+		if ( this.pending.isEmpty() && !this.joined ) {
+			this.joined = true;
+			Log.info(this, "Bootstrap completed in " + this.getElapsed() + " ms.");
+			this.action.run();
+		}
+	}
+
+	private long getElapsed() {
+		return System.currentTimeMillis() - this.startTime;
+	}
+}
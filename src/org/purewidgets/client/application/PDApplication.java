@@ -87,6 +87,21 @@ public class PDApplication  {
 	 * be used as default
 	 */
 	private static final String DEFAULT_PLACE_ID = "DefaultPlace";
+	
+	/**
+	 * The LocalStorage item that holds the interaction manager url used in the last run.
+	 */
+	private static final String INTERACTION_MANAGER_URL_ITEM = "PDApplication-interactionManagerUrl";
+	
+	/**
+	 * The bootstrap task that loads the parameters from the ServerStorage.
+	 */
+	private static final String PARAMETERS_TASK = "parameters";
+	
+	/**
+	 * The bootstrap task that loads the Application from the interaction manager.
+	 */
+	private static final String APPLICATION_TASK = "application";
 
 	/**
 	 * The place id.
@@ -124,11 +139,21 @@ public class PDApplication  {
 	 */
 	private InteractionManagerService interactionManager;
 
+	/**
+	 * The url of the interaction manager the InteractionManagerService was created for.
+	 */
+	private String interactionManagerUrl;
+
 	/**
 	 * The current application data fetched from the interaction manager.
 	 */
 	private Application application;
 	
+	/**
+	 * Joins the bootstrap tasks, notifying the listener when all are done.
+	 */
+	private BootstrapBarrier bootstrap;
+	
 	
 	/**
 	 * The current PDApplication.
@@ -154,6 +179,19 @@ public class PDApplication  {
 
 		this.remoteStorage = new ServerStorage(placeId+"-"+applicationId);
 		
+		/*
+		 * The parameters and the Application are loaded concurrently. If the interaction 
+		 * manager url is known before the parameters are loaded, the WidgetManager is started 
+		 * (and starts fetching input) at the same time too.
+		 */
+		this.bootstrap = new BootstrapBarrier(new Runnable() {
+			@Override
+			public void run() {
+				PDApplication.this.listener.onPDApplicationLoaded(PDApplication.this);
+			}
+		});
+		this.bootstrap.await(PARAMETERS_TASK);
+		this.bootstrap.await(APPLICATION_TASK);
 		
 		this.remoteStorage.getAll(new AsyncCallback<Map<String, String>>() {
 
@@ -168,6 +206,11 @@ public class PDApplication  {
 				}
 			});
 		
+		String knownInteractionManagerUrl = this.getKnownInteractionManagerUrl();
+		if ( null != knownInteractionManagerUrl ) {
+			this.startInteractionManager(knownInteractionManagerUrl);
+		}
+		
 		org.purewidgets.client.Resources.INSTANCE.css().ensureInjected();
 	}
 
@@ -450,8 +493,54 @@ public class PDApplication  {
 		
 		String interactionManagerUrl = this.getParameterString(Constants.INTERACTION_MANAGER_URL_PARAMETER_NAME, Constants.INTERACTIONMANAGER_ADDRESS);
 		
+		if ( null == this.interactionManager ) {
+			this.startInteractionManager(interactionManagerUrl);
+		} else if ( null != result && !interactionManagerUrl.equals(this.interactionManagerUrl) ) {
+			
+			/*
+			 * The interaction manager changed since the last run: the WidgetManager was started 
+			 * with the wrong one. If the parameters could not be loaded, the url is just the 
+			 * default, so we keep the one we started with.
+			 */
+			Log.warn(this, "Interaction manager changed to " + interactionManagerUrl + ". Reloading.");
+			this.localStorage.setString(INTERACTION_MANAGER_URL_ITEM, interactionManagerUrl);
+			Window.Location.reload();
+			return;
+		}
+		
+		this.bootstrap.arrive(PARAMETERS_TASK);
+	}
+
+	/**
+	 * Gets the interaction manager url, if it can be known before the parameters are loaded
+	 * from the ServerStorage: either from the URL, or the one used in the last run.
+	 * 
+	 * @return The interaction manager url, or null if it is not known.
+	 */
+	private String getKnownInteractionManagerUrl() {
+		String urlValue = com.google.gwt.user.client.Window.Location.getParameter(Constants.INTERACTION_MANAGER_URL_PARAMETER_NAME);
+		if ( null != urlValue ) {
+			return urlValue;
+		}
+		
+		String lastValue = this.localStorage.getString(INTERACTION_MANAGER_URL_ITEM);
+		if ( null != lastValue && lastValue.length() > 0 ) {
+			return lastValue;
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates the InteractionManagerService and the WidgetManager, and loads the Application.
+	 * 
+	 * @param interactionManagerUrl The url of the interaction manager.
+	 */
+	private void startInteractionManager(String interactionManagerUrl) {
 		Log.info(this, "Using interaction manager: " + interactionManagerUrl);	
 		
+		this.interactionManagerUrl = interactionManagerUrl;
+		this.localStorage.setString(INTERACTION_MANAGER_URL_ITEM, interactionManagerUrl);
+		
 		InteractionManagerService serverCommunicator = new InteractionManagerService(interactionManagerUrl, this.localStorage);
 		this.interactionManager = serverCommunicator;
 		
@@ -488,14 +577,14 @@ public class PDApplication  {
 			public void onFailure(Throwable exception) {
 				Log.debug(PDApplication.class.getName(), "Could not get Application");
 				PDApplication.this.application = new Application(placeId, applicationId);
-				PDApplication.this.listener.onPDApplicationLoaded(PDApplication.this);	
+				PDApplication.this.bootstrap.arrive(APPLICATION_TASK);
 			}
 
 			@Override
 			public void onSuccess(Application application) {
 				Log.debug(PDApplication.class.getName(), "Received application: " + application);
 				PDApplication.this.application = application;
-				PDApplication.this.listener.onPDApplicationLoaded(PDApplication.this);
+				PDApplication.this.bootstrap.arrive(APPLICATION_TASK);
 				
 			}
 			
@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.Random;
+
+/**
+ * The default InputPollingPolicy.
+ *
+ * After a failed request the interval doubles, up to a maximum, and it goes back to normal as
+ * soon as a request succeeds. While there are no failures, the interval depends on the recent
+ * activity: it is shorter while input is arriving and longer when the display has been idle for a
+ * while. Every interval is randomly spread by a jitter factor, so that displays that failed
+ * together do not retry together. Polling is paused while the input channel is healthy.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class AdaptiveInputPollingPolicy implements InputPollingPolicy {
+
+	/**
+	 * The default interval between input requests (milliseconds).
+	 */
+	public static final int DEFAULT_INTERVAL = 10000;
+
+	/**
+	 * The default interval between input requests while input is arriving (milliseconds).
+	 */
+	public static final int DEFAULT_ACTIVE_INTERVAL = 3000;
+
+	/**
+	 * The default interval between input requests when the display is idle (milliseconds).
+	 */
+	public static final int DEFAULT_IDLE_INTERVAL = 30000;
+
+	/**
+	 * The default maximum interval after failed requests (milliseconds).
+	 */
+	public static final int DEFAULT_MAX_INTERVAL = 5*60*1000;
+
+	/**
+	 * The default time since the last input during which the display is considered active
+	 * (milliseconds).
+	 */
+	public static final long DEFAULT_ACTIVITY_WINDOW = 60*1000;
+
+	/**
+	 * The default time since the last input after which the display is considered idle
+	 * (milliseconds).
+	 */
+	public static final long DEFAULT_IDLE_AFTER = 10*60*1000;
+
+	/**
+	 * The default jitter factor: intervals are spread by up to this fraction, up or down.
+	 */
+	public static final double DEFAULT_JITTER = 0.2;
+
+	private int interval;
+
+	private int activeInterval;
+
+	private int idleInterval;
+
+	private int maxInterval;
+
+	private long activityWindow;
+
+	private long idleAfter;
+
+	private double jitter;
+
+	private Random random;
+
+	/**
+	 * The number of consecutive failed requests.
+	 */
+	private int failures;
+
+	/**
+	 * The time of the last input, or -1 if there was no input yet.
+	 */
+	private long lastInputTime;
+
+	/**
+	 * The time the policy was created.
+	 */
+	private long creationTime;
+
+	/**
+	 * Whether the input channel is healthy.
+	 */
+	private boolean channelHealthy;
+
+	/**
+	 * Creates a new AdaptiveInputPollingPolicy with the default parameters.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	public AdaptiveInputPollingPolicy(long now) {
+		this(now, DEFAULT_INTERVAL, DEFAULT_ACTIVE_INTERVAL, DEFAULT_IDLE_INTERVAL, DEFAULT_MAX_INTERVAL,
+				DEFAULT_ACTIVITY_WINDOW, DEFAULT_IDLE_AFTER, DEFAULT_JITTER, new Random());
+	}
+
+	/**
+	 * Creates a new AdaptiveInputPollingPolicy.
+	 *
+	 * @param now The current time, in milliseconds.
+	 * @param interval The interval between requests (milliseconds).
+	 * @param activeInterval The interval between requests while input is arriving (milliseconds).
+	 * @param idleInterval The interval between requests when the display is idle (milliseconds).
+	 * @param maxInterval The maximum interval (milliseconds).
+	 * @param activityWindow The time since the last input during which the display is considered
+	 * active (milliseconds).
+	 * @param idleAfter The time since the last input after which the display is considered idle
+	 * (milliseconds).
+	 * @param jitter The fraction by which intervals are randomly spread, up or down.
+	 * @param random The random number generator used for the jitter.
+	 */
+	public AdaptiveInputPollingPolicy(long now, int interval, int activeInterval, int idleInterval, int maxInterval,
+			long activityWindow, long idleAfter, double jitter, Random random) {
+		this.creationTime = now;
+		this.lastInputTime = -1;
+		this.interval = interval;
+		this.activeInterval = activeInterval;
+		this.idleInterval = idleInterval;
+		this.maxInterval = maxInterval;
+		this.activityWindow = activityWindow;
+		this.idleAfter = idleAfter;
+		this.jitter = jitter;
+		this.random = random;
+	}
+
+	@Override
+	public void onRequestSuccess(long now, int inputCount) {
+		this.failures = 0;
+		if ( inputCount > 0 ) {
+			this.lastInputTime = now;
+		}
+	}
+
+	@Override
+	public void onRequestFailure(long now) {
+		this.failures++;
+	}
+
+	@Override
+	public void onChannelInput(long now, int inputCount) {
+		if ( inputCount > 0 ) {
+			this.lastInputTime = now;
+		}
+	}
+
+	@Override
+	public void setChannelHealthy(boolean healthy) {
+		this.channelHealthy = healthy;
+	}
+
+	@Override
+	public boolean isPaused() {
+		return this.channelHealthy;
+	}
+
+	@Override
+	public int getNextInterval(long now) {
+		double next;
+		if ( this.failures > 0 ) {
+			/*
+			 * Capped exponential backoff. Stop doubling once the cap is reached, so that the
+			 * value never overflows.
+			 */
+			next = this.interval;
+			for ( int i = 0; i < this.failures && next < this.maxInterval; i++ ) {
+				next *= 2;
+			}
+			next = Math.min(next, this.maxInterval);
+		} else if ( -1 != this.lastInputTime && now - this.lastInputTime <= this.activityWindow ) {
+			next = this.activeInterval;
+		} else if ( now - Math.max(this.creationTime, this.lastInputTime) >= this.idleAfter ) {
+			next = this.idleInterval;
+		} else {
+			next = this.interval;
+		}
+
+		next *= 1 - this.jitter + 2 * this.jitter * this.random.nextDouble();
+		return (int) Math.max(1, Math.min(this.maxInterval, Math.round(next)));
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+
+import org.purewidgets.shared.im.WidgetInput;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * An InputTransport that receives input through an App Engine Channel.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class ChannelInputTransport implements InputTransport {
+
+	private InteractionManagerService service;
+
+	/**
+	 * Incremented every time the transport is opened or closed, so that callbacks from a
+	 * previous channel are ignored.
+	 */
+	private int generation;
+
+	/**
+	 * Creates a new ChannelInputTransport.
+	 *
+	 * @param service The InteractionManagerService used to create the channel.
+	 */
+	public ChannelInputTransport(InteractionManagerService service) {
+		this.service = service;
+	}
+
+	@Override
+	public String getName() {
+		return "channel";
+	}
+
+	@Override
+	public void open(String placeId, String applicationId, String callingApplicationId,
+			final AsyncCallback<ArrayList<WidgetInput>> listener) {
+		final int openGeneration = ++this.generation;
+
+		this.service.createChannel(placeId, applicationId, callingApplicationId, new AsyncCallback<ArrayList<WidgetInput>>() {
+
+			@Override
+			public void onFailure(Throwable caught) {
+				if ( openGeneration == ChannelInputTransport.this.generation ) {
+					/*
+					 * A channel fails only once
+					 */
+					ChannelInputTransport.this.close();
+					listener.onFailure(caught);
+				}
+			}
+
+			@Override
+			public void onSuccess(ArrayList<WidgetInput> result) {
+				if ( openGeneration == ChannelInputTransport.this.generation ) {
+					listener.onSuccess(result);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		this.generation++;
+		this.service.closeChannel();
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+
+import org.purewidgets.shared.im.WidgetInput;
+import org.purewidgets.shared.logging.Log;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * An InputTransport that selects the first of a list of transports that works. The transports
+ * are tried in order: when one fails, the next one is opened. The listener is notified of a
+ * failure only when every transport has failed.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class FailoverInputTransport implements InputTransport {
+
+	private InputTransport[] transports;
+
+	/**
+	 * The index of the transport in use.
+	 */
+	private int current;
+
+	/**
+	 * Incremented every time the transport is opened or closed, so that callbacks from
+	 * transports used before are ignored.
+	 */
+	private int generation;
+
+	/**
+	 * Creates a new FailoverInputTransport.
+	 *
+	 * @param transports The transports, in order of preference.
+	 */
+	public FailoverInputTransport(InputTransport... transports) {
+		this.transports = transports;
+	}
+
+	@Override
+	public String getName() {
+		if ( this.current < this.transports.length ) {
+			return this.transports[this.current].getName();
+		}
+		return "none";
+	}
+
+	@Override
+	public void open(String placeId, String applicationId, String callingApplicationId,
+			AsyncCallback<ArrayList<WidgetInput>> listener) {
+		this.current = 0;
+		this.generation++;
+		this.openCurrent(this.generation, placeId, applicationId, callingApplicationId, listener);
+	}
+
+	@Override
+	public void close() {
+		this.generation++;
+		if ( this.current < this.transports.length ) {
+			this.transports[this.current].close();
+		}
+	}
+
+	private void openCurrent(final int openGeneration, final String placeId, final String applicationId,
+			final String callingApplicationId, final AsyncCallback<ArrayList<WidgetInput>> listener) {
+		final InputTransport transport = this.transports[this.current];
+		Log.debug(this, "Receiving input through " + transport.getName());
+
+		transport.open(placeId, applicationId, callingApplicationId, new AsyncCallback<ArrayList<WidgetInput>>() {
+
+			@Override
+			public void onFailure(Throwable caught) {
+				if ( openGeneration != FailoverInputTransport.this.generation ) {
+					return;
+				}
+				Log.warn(FailoverInputTransport.this, "Input transport " + transport.getName() + " failed.", caught);
+				FailoverInputTransport.this.current++;
+				if ( FailoverInputTransport.this.current < FailoverInputTransport.this.transports.length ) {
+					FailoverInputTransport.this.openCurrent(openGeneration, placeId, applicationId, callingApplicationId, listener);
+				} else {
+					listener.onFailure(caught);
+				}
+			}
+
+			@Override
+			public void onSuccess(ArrayList<WidgetInput> result) {
+				if ( openGeneration == FailoverInputTransport.this.generation ) {
+					listener.onSuccess(result);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+/**
+ * Decides when the WidgetManager asks the interaction manager for input.
+ *
+ * The policy is told about the outcome of every input request, about input received by
+ * any means, and about the state of the input channel, and computes the delay until the next
+ * request. All methods receive the current time from the caller, so a policy can be driven by
+ * a virtual clock.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public interface InputPollingPolicy {
+
+	/**
+	 * Called when an input request succeeds.
+	 *
+	 * @param now The current time, in milliseconds.
+	 * @param inputCount The number of inputs received.
+	 */
+	public void onRequestSuccess(long now, int inputCount);
+
+	/**
+	 * Called when an input request fails.
+	 *
+	 * @param now The current time, in milliseconds.
+	 */
+	public void onRequestFailure(long now);
+
+	/**
+	 * Called when input is received through the input channel.
+	 *
+	 * @param now The current time, in milliseconds.
+	 * @param inputCount The number of inputs received.
+	 */
+	public void onChannelInput(long now, int inputCount);
+
+	/**
+	 * Called when the input channel becomes healthy (it delivered input) or unhealthy (it
+	 * failed or closed).
+	 *
+	 * @param healthy true if the channel is healthy.
+	 */
+	public void setChannelHealthy(boolean healthy);
+
+	/**
+	 * Checks if polling should be paused. While paused, no input requests are scheduled.
+	 *
+	 * @return true if polling should be paused.
+	 */
+	public boolean isPaused();
+
+	/**
+	 * Gets the delay until the next input request.
+	 *
+	 * @param now The current time, in milliseconds.
+	 * @return The delay, in milliseconds.
+	 */
+	public int getNextInterval(long now);
+}
@@ -0,0 +1,153 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+/**
+ * Tracks the sequence numbers of the input lists pushed to an application, to detect duplicated
+ * and missing lists.
+ *
+ * The tracker keeps the highest sequence number up to which every list was received (the
+ * contiguous sequence), and the lists received above it. Lists at or below the contiguous
+ * sequence are duplicates. Numbers missing between the contiguous sequence and the highest
+ * received one are gaps, which should be fetched from the interaction manager; each gap is
+ * reported only once, until it is either backfilled or its backfill fails.
+ *
+ * A jump of more than <code>maxGap</code> numbers, forward or backward (e.g., if the interaction
+ * manager restarted its numbering), is not backfilled: the tracker restarts from the new number,
+ * and any missing input must be recovered by a regular input request.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class InputSequenceTracker {
+
+	/**
+	 * The highest sequence number up to which every list was received, or -1 if no list was
+	 * received yet.
+	 */
+	private long contiguous;
+
+	/**
+	 * The sequence numbers received above the contiguous sequence.
+	 */
+	private TreeSet<Long> received;
+
+	/**
+	 * The missing sequence numbers already reported as gaps.
+	 */
+	private TreeSet<Long> requested;
+
+	private int maxGap;
+
+	/**
+	 * Creates a new InputSequenceTracker.
+	 *
+	 * @param maxGap The maximum number of missing lists that is backfilled.
+	 */
+	public InputSequenceTracker(int maxGap) {
+		this.contiguous = -1;
+		this.received = new TreeSet<Long>();
+		this.requested = new TreeSet<Long>();
+		this.maxGap = maxGap;
+	}
+
+	/**
+	 * Records a received list.
+	 *
+	 * @param sequence The sequence number of the list.
+	 * @return true if the list is new, false if it was already received.
+	 */
+	public boolean accept(long sequence) {
+		if ( -1 == this.contiguous || Math.abs(sequence - this.contiguous) > this.maxGap + 1 ) {
+			this.restart(sequence);
+			return true;
+		}
+		if ( sequence <= this.contiguous || this.received.contains(sequence) ) {
+			return false;
+		}
+		this.requested.remove(sequence);
+		this.received.add(sequence);
+		this.advance();
+		return true;
+	}
+
+	/**
+	 * Gets the gaps that were not reported yet, and marks them as reported.
+	 *
+	 * @return The gaps, as {first, last} sequence number pairs, in order.
+	 */
+	public ArrayList<long[]> takeGaps() {
+		ArrayList<long[]> gaps = new ArrayList<long[]>();
+		if ( this.received.isEmpty() ) {
+			return gaps;
+		}
+
+		long[] gap = null;
+		for ( long sequence = this.contiguous + 1; sequence < this.received.last(); sequence++ ) {
+			if ( this.received.contains(sequence) || this.requested.contains(sequence) ) {
+				gap = null;
+				continue;
+			}
+			this.requested.add(sequence);
+			if ( null == gap ) {
+				gap = new long[] {sequence, sequence};
+				gaps.add(gap);
+			} else {
+				gap[1] = sequence;
+			}
+		}
+		return gaps;
+	}
+
+	/**
+	 * Records that the lists of a gap were fetched.
+	 *
+	 * @param first The first sequence number of the gap.
+	 * @param last The last sequence number of the gap.
+	 */
+	public void backfilled(long first, long last) {
+		for ( long sequence = Math.max(first, this.contiguous + 1); sequence <= last; sequence++ ) {
+			this.requested.remove(sequence);
+			this.received.add(sequence);
+		}
+		this.advance();
+	}
+
+	/**
+	 * Records that the lists of a gap could not be fetched, so that the gap is reported again.
+	 *
+	 * @param first The first sequence number of the gap.
+	 * @param last The last sequence number of the gap.
+	 */
+	public void backfillFailed(long first, long last) {
+		for ( long sequence = first; sequence <= last; sequence++ ) {
+			this.requested.remove(sequence);
+		}
+	}
+
+	/**
+	 * Gets the highest sequence number up to which every list was received.
+	 *
+	 * @return The contiguous sequence number, or -1 if no list was received yet.
+	 */
+	public long getContiguous() {
+		return this.contiguous;
+	}
+
+	private void restart(long sequence) {
+		this.contiguous = sequence;
+		this.received.clear();
+		this.requested.clear();
+	}
+
+	private void advance() {
+		while ( !this.received.isEmpty() && this.received.first() == this.contiguous + 1 ) {
+			this.contiguous = this.received.first();
+			this.received.remove(this.contiguous);
+		}
+	}
+}
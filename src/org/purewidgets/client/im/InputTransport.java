@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+
+import org.purewidgets.shared.im.WidgetInput;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * A means of receiving widget input pushed by the interaction manager, as soon as it is
+ * available, instead of periodically asking for it.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public interface InputTransport {
+
+	/**
+	 * Gets the name of this transport, for logging.
+	 *
+	 * @return The name of this transport.
+	 */
+	public String getName();
+
+	/**
+	 * Starts receiving input for an application.
+	 *
+	 * @param placeId The place id of the application.
+	 * @param applicationId The application id of the application.
+	 * @param callingApplicationId The application id of the application that is making the request.
+	 * @param listener The listener notified (onSuccess) of the input received, and (onFailure) when
+	 * the transport stops working. After a failure, no more input is delivered, unless the 
+	 * transport recovers by itself: then it notifies the listener (onSuccess) again, possibly of an
+	 * empty input list.
+	 */
+	public void open(String placeId, String applicationId, String callingApplicationId,
+			AsyncCallback<ArrayList<WidgetInput>> listener);
+
+	/**
+	 * Stops receiving input. The listener is not notified after the transport is closed.
+	 */
+	public void close();
+}
@@ -4,6 +4,7 @@
 package org.purewidgets.client.im;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import org.purewidgets.client.http.HttpService;
 import org.purewidgets.client.http.HttpServiceAsync;
@@ -13,6 +14,8 @@ import org.purewidgets.client.im.json.ChannelTokenJson;
 import org.purewidgets.client.im.json.InputResponseJson;
 import org.purewidgets.client.im.json.PlaceJson;
 import org.purewidgets.client.im.json.PlaceListJson;
+import org.purewidgets.client.im.json.WidgetDeltaJson;
+import org.purewidgets.client.im.json.WidgetDeltaListJson;
 import org.purewidgets.client.im.json.WidgetInputJson;
 import org.purewidgets.client.im.json.WidgetInputListJson;
 import org.purewidgets.client.im.json.WidgetJson;
@@ -24,12 +27,14 @@ import org.purewidgets.shared.im.ApplicationState;
 import org.purewidgets.shared.im.Place;
 import org.purewidgets.shared.im.UrlHelper;
 import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.im.WidgetDelta;
 import org.purewidgets.shared.im.WidgetInput;
 import org.purewidgets.shared.logging.Log;
 
 import com.google.gwt.appengine.channel.client.Channel;
 import com.google.gwt.appengine.channel.client.ChannelFactory;
 import com.google.gwt.appengine.channel.client.ChannelFactory.ChannelCreatedCallback;
+import com.google.gwt.appengine.channel.client.Socket;
 import com.google.gwt.appengine.channel.client.SocketError;
 import com.google.gwt.appengine.channel.client.SocketListener;
 import com.google.gwt.core.client.GWT;
@@ -47,6 +52,17 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
 public class InteractionManagerService {
 
 
+	/**
+	 * The maximum length of the urls used to delete widgets. 
+	 */
+	public static final int MAX_URL_LENGTH = 2000;
+	
+	/**
+	 * The maximum number of missed input messages that are fetched by sequence number. Larger 
+	 * gaps are recovered by the regular input requests.
+	 */
+	public static final int MAX_BACKFILL = 100;
+	
 	/**
 	 * An Http service proxy to talk to the interaction manager server.
 	 */
@@ -65,6 +81,17 @@ public class InteractionManagerService {
 	 */
 	private LocalStorage localStorage;
 	
+	/**
+	 * The socket of the open channel, or null if there is none.
+	 */
+	private Socket channelSocket;
+	
+	/**
+	 * The trackers of the sequence numbers of the input pushed to each application, by 
+	 * "placeId/applicationId".
+	 */
+	private HashMap<String, InputSequenceTracker> inputSequenceTrackers;
+	
 	/**
 	 * Creates a new InteractionManagerService that uses the interaction manager specified by the 
 	 * <code>interactionServerUrl</code> and the specified application's LocalStorage.
@@ -76,6 +103,8 @@ public class InteractionManagerService {
 		
 		this.localStorage = localStorage;
 		
+		this.inputSequenceTrackers = new HashMap<String, InputSequenceTracker>();
+		
 		this.urlHelper = new UrlHelper(interactionServerUrl);
 		
 		interactionService = GWT.create(HttpService.class);
@@ -164,10 +193,12 @@ public class InteractionManagerService {
 		widgetListJson.setWidgetsFromArrayList(widgetJsonList);
 		
 		
-		Log.debugFinest(this, "Sending " + widgetListJson.toJsonString() + " to server");
+		String json = widgetListJson.toJsonString();
+		Log.debug(this, "Sending " + widgets.size() + " whole widgets (" + json.length() + " bytes) to server");
+		Log.debugFinest(this, "Sending " + json + " to server");
 
 		try {
-			this.interactionService.post(widgetListJson.toJsonString(),
+			this.interactionService.post(json,
 					this.urlHelper.getWidgetsUrl(placeId, applicationId, callingApplicationId),
 					new AsyncCallback<String>() {
 
@@ -208,6 +239,79 @@ public class InteractionManagerService {
 	}
 
 	
+	/**
+	 * Updates existing widgets of the specified application by sending only their changes. Each delta
+	 * is applied by the server only if the server's version of the widget is the delta's base version;
+	 * if any delta does not match, the request fails and the widgets should be sent whole with
+	 * {@link #addWidgetToServer(String, String, String, ArrayList, AsyncCallback)}. The updated 
+	 * widgets are returned back in the callback.
+	 * 
+	 * @param placeId The place id of the application whose widgets will be updated.
+	 * @param applicationId The application id of the application whose widgets will be updated.
+	 * @param callingApplicationId The application id of the application that is making the request.
+	 * @param deltas The changes to the widgets.
+	 * @param callback The callback instance to notify when the response comes back.
+	 */
+	public void updateWidgetsOnServer(String placeId, String applicationId, String callingApplicationId, 
+			ArrayList<WidgetDelta> deltas, final AsyncCallback<ArrayList<Widget>> callback) {
+		
+		Log.debug(this, "Updating widgets on " + placeId + " : " + applicationId);
+		
+		ArrayList<WidgetDeltaJson> deltaJsonList = new ArrayList<WidgetDeltaJson>();
+		for ( WidgetDelta delta : deltas ) {
+			deltaJsonList.add(WidgetDeltaJson.create(delta));
+		}
+		
+		WidgetDeltaListJson deltaListJson = GenericJson.getNew();
+		deltaListJson.setPlaceId(placeId);
+		deltaListJson.setApplicationId(applicationId);
+		deltaListJson.setDeltasFromArrayList(deltaJsonList);
+		
+		String json = deltaListJson.toJsonString();
+		Log.debug(this, "Sending " + deltas.size() + " widget deltas (" + json.length() + " bytes) to server");
+		Log.debugFinest(this, "Sending " + json + " to server");
+
+		try {
+			this.interactionService.post(json,
+					this.urlHelper.getWidgetDeltasUrl(placeId, applicationId, callingApplicationId),
+					new AsyncCallback<String>() {
+
+						@Override
+						public void onFailure(Throwable caught) {
+							Log.warn(InteractionManagerService.this, "Error updating widgets on server.", caught);
+							if ( null != callback ) {
+								callback.onFailure(caught);
+							} else {
+								Log.warn(InteractionManagerService.this, "No callback to notify.");
+							}
+						}
+
+						@Override
+						public void onSuccess(String result) {
+							Log.debug(InteractionManagerService.this, "Got response to update of widgets.");
+							Log.debugFinest(InteractionManagerService.this, result);
+							
+							if ( null != callback ) {
+								WidgetListJson widgetListJson = GenericJson.fromJson(result);
+								ArrayList<Widget> widgetList = widgetListJson.getWidgets();
+								callback.onSuccess(widgetList);
+							} else {
+								Log.warn(InteractionManagerService.this, "No callback to notify.");
+							}
+						}
+
+					});
+		} catch (Exception e) {
+			Log.warn(InteractionManagerService.this, "Error updating widgets on server.", e);
+			
+			if ( null != callback ) {
+				callback.onFailure(e);
+			} else {
+				Log.warn(InteractionManagerService.this, "No callback to notify.");
+			}
+		}
+	}
+	
 	/**
 	 * Asks for input to the specified application. 
 	 * 
@@ -220,12 +324,47 @@ public class InteractionManagerService {
 	public void getInputFromServer(String placeId, String applicationId, String callingApplicationId, String from,
 			final AsyncCallback<ArrayList<WidgetInput>> callback) {
 		Log.debug(this, "Asking for input for " + placeId + " : " + applicationId);
+		this.getInput(urlHelper.getApplicationInputUrl(placeId, applicationId, callingApplicationId, from), 
+				callback);
+	}
+	
+	/**
+	 * Gets the widget input for an application that is more recent than the specified timestamp,
+	 * asking the server to hold the request until there is new input or the wait time expires.
+	 * 
+	 * @param placeId The place id of the application.
+	 * @param applicationId The application id of the application.
+	 * @param callingApplicationId The application id of the application that is making the request.
+	 * @param from The timestamp of the most recent input already received.
+	 * @param wait The maximum time, in seconds, the server should hold the request.
+	 * @param callback The callback instance to notify when the response comes back.
+	 */
+	public void waitForInputFromServer(String placeId, String applicationId, String callingApplicationId, String from,
+			int wait, final AsyncCallback<ArrayList<WidgetInput>> callback) {
+		Log.debugFinest(this, "Waiting for input for " + placeId + " : " + applicationId);
+		this.getInput(urlHelper.getApplicationInputUrl(placeId, applicationId, callingApplicationId, from, wait), 
+				callback);
+	}
+	
+	/**
+	 * Gets the widget input for every application of a place that is more recent than the 
+	 * specified timestamp, asking the server to hold the request until there is new input or the
+	 * wait time expires. The application of each input is in its application id.
+	 * 
+	 * @param placeId The place id.
+	 * @param callingApplicationId The application id of the application that is making the request.
+	 * @param from The timestamp of the most recent input already received.
+	 * @param wait The maximum time, in seconds, the server should hold the request.
+	 * @param callback The callback instance to notify when the response comes back.
+	 */
+	public void waitForPlaceInputFromServer(String placeId, String callingApplicationId, String from,
+			int wait, final AsyncCallback<ArrayList<WidgetInput>> callback) {
+		Log.debugFinest(this, "Waiting for input for place " + placeId);
+		this.getInput(urlHelper.getPlaceInputUrl(placeId, callingApplicationId, from, wait), callback);
+	}
+	
+	private void getInput(String url, final AsyncCallback<ArrayList<WidgetInput>> callback) {
 		try {
-			
-			
-			String url = urlHelper.getApplicationInputUrl(placeId, applicationId, callingApplicationId, 
-					from);
-			
 			interactionService.get(url, new AsyncCallback<String>() {
 				@Override
 				public void onFailure(Throwable caught) {
@@ -265,6 +404,9 @@ public class InteractionManagerService {
 	/**
 	 * Deletes a list of widgets from the specified application. The deleted widgets are returned back in the callback.
 	 * 
+	 * The widget ids are split over as many requests as needed to keep urls under {@link #MAX_URL_LENGTH}
+	 * characters, and the requests are sent concurrently.
+	 * 
 	 * @param placeId The place id of the application from which the widgets will be deleted.
 	 * @param applicationId The application id of the application from which the widgets will be deleted.
 	 * @param callingApplicationId The application id of the application that is making the request.
@@ -276,69 +418,72 @@ public class InteractionManagerService {
 		Log.debug(this, "Removing  widgets from " + placeId + " : " + applicationId);
 		
 		/*
-		 * Create the URL for the DELETE method. Widget ids are passed on the 
-		 * 'widget' url parameter
+		 * Create the URLs for the DELETE method. Widget ids are passed on the 
+		 * 'widgets' url parameter, split over as many urls as needed.
 		 */
-		StringBuilder widgetsUrlParam = new StringBuilder();
-		widgetsUrlParam.append( this.urlHelper.getWidgetsUrl(placeId, applicationId, callingApplicationId) ).append("&widgets=");
+		ArrayList<String> widgetIds = new ArrayList<String>();
+		for ( Widget w : widgets ) {
+			widgetIds.add(this.getWidgetIdUrlEscaped(w));
+		}
+		final ArrayList<String> urls = this.urlHelper.getWidgetsDeleteUrls(placeId, applicationId, 
+				callingApplicationId, widgetIds, MAX_URL_LENGTH);
 		
-		for ( int i = 0; i < widgets.size(); i++) {
-			Widget w = widgets.get(i); 
-			
-			/*
-			 * Make sure we don't use Urls with more than 255 characters...
-			 */
-			if ( (widgetsUrlParam.length() + this.getWidgetIdUrlEscaped(w).length()) > 255 ) {
-				widgetsUrlParam.deleteCharAt(widgetsUrlParam.length()-1);
-				break;
-			}
-			widgetsUrlParam.append(this.getWidgetIdUrlEscaped(w));
-			
-			if ( i < (widgets.size()-1) ) {
-				widgetsUrlParam.append(",");
+		if ( urls.size() == 0 ) {
+			if ( null != callback ) {
+				callback.onSuccess(new ArrayList<Widget>());
 			}
+			return;
 		}
 		
-		Log.debugFinest(this, "Sending " + widgetsUrlParam + " to server");
+		/*
+		 * Send all the chunks at once, and notify the callback when all of them have completed.
+		 * If some of the chunks fail, the widgets deleted by the others are still reported.
+		 */
+		final ArrayList<Widget> deleted = new ArrayList<Widget>();
+		final int [] pending = { urls.size() };
+		final Throwable [] failure = { null };
 		
-		try {
-			interactionService.delete(
-					widgetsUrlParam.toString(),
-					new AsyncCallback<String>() {
-
-						@Override
-						public void onFailure(Throwable caught) {
-							Log.warn(InteractionManagerService.this, "Error deleting widgets from server.", caught);
-							
-							if ( null != callback ) {
-								callback.onFailure(caught);
-							} else {
-								Log.warn(InteractionManagerService.this, "No callback to notify.");
-							}
+		for ( String url : urls ) {
+			Log.debugFinest(this, "Sending " + url + " to server");
+			
+			AsyncCallback<String> chunkCallback = new AsyncCallback<String>() {
 
-						}
+				@Override
+				public void onFailure(Throwable caught) {
+					Log.warn(InteractionManagerService.this, "Error deleting widgets from server.", caught);
+					failure[0] = caught;
+					this.done();
+				}
 
-						@Override
-						public void onSuccess(String result) {
-							Log.debug(InteractionManagerService.this, "Got response to widget deletion.");
-							Log.debugFinest(InteractionManagerService.this, result);
-							if ( null != callback ) {
-								WidgetListJson widgetListJson = GenericJson.fromJson(result);
-								ArrayList<Widget> widgetList = widgetListJson.getWidgets();
-								callback.onSuccess(widgetList);
-							} else {
-								Log.warn(InteractionManagerService.this, "No callback to notify.");
-							}
-						}
+				@Override
+				public void onSuccess(String result) {
+					Log.debug(InteractionManagerService.this, "Got response to widget deletion.");
+					Log.debugFinest(InteractionManagerService.this, result);
+					WidgetListJson widgetListJson = GenericJson.fromJson(result);
+					deleted.addAll(widgetListJson.getWidgets());
+					this.done();
+				}
+				
+				private void done() {
+					pending[0]--;
+					if ( pending[0] > 0 ) {
+						return;
+					}
+					if ( null == callback ) {
+						Log.warn(InteractionManagerService.this, "No callback to notify.");
+					} else if ( null != failure[0] && deleted.size() == 0 ) {
+						callback.onFailure(failure[0]);
+					} else {
+						callback.onSuccess(deleted);
+					}
+				}
 
-					});
-		} catch (Exception e) {
-			Log.warn(InteractionManagerService.this, "Error deleting widgets from server.", e);
+			};
 			
-			if ( null != callback ) {
-				callback.onFailure(e);
-			} else {
-				Log.warn(InteractionManagerService.this, "No callback to notify.");
+			try {
+				interactionService.delete(url, chunkCallback);
+			} catch (Exception e) {
+				chunkCallback.onFailure(e);
 			}
 		}
 	}
@@ -765,18 +910,63 @@ public class InteractionManagerService {
 			this.getChannelToken(placeId, applicationId, callingApplicationId, listener);
 		} else {
 			if ( null != token && token.length() > 0 ) { 
-				this.openChannel(token, listener);
+				this.openChannel(placeId, applicationId, callingApplicationId, token, listener);
 			} else {
 				this.getChannelToken(placeId, applicationId, callingApplicationId, listener);
 			}
 		} 
 	}
 	
-	private void openChannel(String token, final AsyncCallback<ArrayList<WidgetInput>> listener) {	
+	/**
+	 * Opens a means of receiving input pushed by the interaction manager. The input is received
+	 * through a {@link SharedInputTransport}, so that only one of the browser contexts running 
+	 * applications of the same place receives input from the interaction manager, and passes it
+	 * on to the others.
+	 * 
+	 * @param placeId The place id of the application.
+	 * @param applicationId The application id of the application.
+	 * @param callingApplicationId The application id of the application that is making the request.
+	 * @param from The timestamp of the most recent input already received.
+	 * @param listener The listener for WidgetInput directed at the specified application.
+	 * @return The transport, which can be used to stop receiving input.
+	 */
+	public InputTransport openInputTransport(String placeId, String applicationId, String callingApplicationId, 
+			String from, AsyncCallback<ArrayList<WidgetInput>> listener) {
+		InputTransport transport = new SharedInputTransport(this, from);
+		transport.open(placeId, applicationId, callingApplicationId, listener);
+		return transport;
+	}
+	
+	/**
+	 * Creates the best available means of receiving input pushed by the interaction manager: the 
+	 * App Engine channel and, if it fails, long polling. The transport's listener is notified of 
+	 * a failure only if none of them works.
+	 * 
+	 * @param from The timestamp of the most recent input already received.
+	 * @return The transport, not yet opened.
+	 */
+	public InputTransport createInputTransport(String from) {
+		return new FailoverInputTransport(new ChannelInputTransport(this), 
+				new LongPollInputTransport(this, from));
+	}
+	
+	/**
+	 * Closes the channel opened by {@link #createChannel(String, String, String, AsyncCallback)}, 
+	 * if it is open.
+	 */
+	public void closeChannel() {
+		if ( null != this.channelSocket ) {
+			this.channelSocket.close();
+			this.channelSocket = null;
+		}
+	}
+	
+	private void openChannel(final String placeId, final String applicationId, final String callingApplicationId,
+			String token, final AsyncCallback<ArrayList<WidgetInput>> listener) {	
 		ChannelFactory.createChannel(token, new ChannelCreatedCallback() {
 			  @Override
 			  public void onChannelCreated(Channel channel) {
-			    channel.open(new SocketListener() {
+			    InteractionManagerService.this.channelSocket = channel.open(new SocketListener() {
 
 					@Override
 					public void onOpen() {
@@ -790,6 +980,19 @@ public class InteractionManagerService {
 						Log.debugFinest(InteractionManagerService.this, message);
 						if ( null != listener ) {
 							WidgetInputListJson widgetInputListJson = GenericJson.fromJson(message);
+							
+							if ( widgetInputListJson.hasSequence() ) {
+								InputSequenceTracker tracker = InteractionManagerService.this.getInputSequenceTracker(placeId, applicationId);
+								if ( !tracker.accept((long) widgetInputListJson.getSequence()) ) {
+									Log.debug(InteractionManagerService.this, "Ignoring duplicated input message " + (long) widgetInputListJson.getSequence());
+									return;
+								}
+								for ( long[] gap : tracker.takeGaps() ) {
+									InteractionManagerService.this.backfillInput(placeId, applicationId, callingApplicationId, 
+											gap[0], gap[1], tracker, listener);
+								}
+							}
+							
 							ArrayList<WidgetInput> widgetInputs = widgetInputListJson.getInputs();
 							listener.onSuccess(widgetInputs);
 						} else {
@@ -824,6 +1027,46 @@ public class InteractionManagerService {
 
 	
 	
+	/**
+	 * Gets the tracker of the sequence numbers of the input pushed to an application. Trackers 
+	 * survive channel reconnections, so that messages missed while reconnecting are backfilled.
+	 */
+	private InputSequenceTracker getInputSequenceTracker(String placeId, String applicationId) {
+		String key = placeId + "/" + applicationId;
+		InputSequenceTracker tracker = this.inputSequenceTrackers.get(key);
+		if ( null == tracker ) {
+			tracker = new InputSequenceTracker(MAX_BACKFILL);
+			this.inputSequenceTrackers.put(key, tracker);
+		}
+		return tracker;
+	}
+	
+	/**
+	 * Fetches the input pushed through the channel in a range of sequence numbers that was not 
+	 * received, and delivers it to the listener.
+	 */
+	private void backfillInput(String placeId, String applicationId, String callingApplicationId, 
+			final long first, final long last, final InputSequenceTracker tracker, 
+			final AsyncCallback<ArrayList<WidgetInput>> listener) {
+		Log.debug(this, "Backfilling input messages " + first + " to " + last);
+		this.getInput(this.urlHelper.getApplicationInputSequenceUrl(placeId, applicationId, callingApplicationId, first, last), 
+				new AsyncCallback<ArrayList<WidgetInput>>() {
+
+					@Override
+					public void onFailure(Throwable caught) {
+						tracker.backfillFailed(first, last);
+					}
+
+					@Override
+					public void onSuccess(ArrayList<WidgetInput> result) {
+						tracker.backfilled(first, last);
+						if ( result.size() > 0 ) {
+							listener.onSuccess(result);
+						}
+					}
+				});
+	}
+	
 	/**
 	 * Asks the server for a channel token. 
 	 * 
@@ -861,7 +1104,8 @@ public class InteractionManagerService {
 							InteractionManagerService.this.localStorage.setString("ChannelTokenTimestamp", System.currentTimeMillis()+"");
 							Log.debug(this, "Channel token: " + channelTokenJson.getToken());
 							
-							InteractionManagerService.this.openChannel(channelTokenJson.getToken(), listener);
+							InteractionManagerService.this.openChannel(placeId, applicationId, callingApplicationId, 
+									channelTokenJson.getToken(), listener);
 							
 						}
 					});
@@ -0,0 +1,224 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+
+import org.purewidgets.shared.im.WidgetInput;
+import org.purewidgets.shared.logging.Log;
+
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * An InputTransport that uses long polling: an input request is always pending on the
+ * interaction manager, which holds it until there is new input or the wait time expires, and a new
+ * request is made as soon as the previous one returns. Input is delivered as soon as the
+ * interaction manager has it, with a single pending request per display.
+ *
+ * The transport can also receive the input of every application of a place, with a single
+ * pending request, for a context that delivers input to several applications.
+ *
+ * Failed requests are retried, with an increasing delay, a few times before the transport
+ * gives up. The transport also gives up if the interaction manager repeatedly answers empty
+ * requests immediately, because then it does not support long polling and the transport would
+ * just be polling as fast as it could.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class LongPollInputTransport implements InputTransport {
+
+	/**
+	 * The maximum time, in seconds, the interaction manager is asked to hold each request. It
+	 * must be lower than the read timeout of the http service.
+	 */
+	public static final int WAIT = 20;
+
+	/**
+	 * The number of consecutive failed requests after which the transport gives up.
+	 */
+	private static final int MAX_FAILURES = 3;
+
+	/**
+	 * The delay before retrying the first failed request (milliseconds). It doubles with each
+	 * consecutive failure.
+	 */
+	private static final int RETRY_DELAY = 1000;
+
+	/**
+	 * Empty responses that arrive sooner than this (milliseconds) were not held by the server.
+	 */
+	private static final int MIN_HOLD_TIME = 1000;
+
+	/**
+	 * The number of consecutive empty responses that were not held after which the transport
+	 * gives up.
+	 */
+	private static final int MAX_UNHELD_RESPONSES = 3;
+
+	private InteractionManagerService service;
+
+	private String placeId;
+
+	private String applicationId;
+
+	private String callingApplicationId;
+
+	private AsyncCallback<ArrayList<WidgetInput>> listener;
+
+	/**
+	 * Whether the transport receives the input of the whole place.
+	 */
+	private boolean placeInput;
+
+	/**
+	 * The timestamp of the most recent input received.
+	 */
+	private long from;
+
+	/**
+	 * Incremented every time the transport is opened or closed, so that responses to requests
+	 * made before are ignored.
+	 */
+	private int generation;
+
+	private int failures;
+
+	private int unheldResponses;
+
+	private Timer retryTimer;
+
+	/**
+	 * Creates a new LongPollInputTransport.
+	 *
+	 * @param service The InteractionManagerService used to ask for input.
+	 * @param from The timestamp of the most recent input already received.
+	 */
+	public LongPollInputTransport(InteractionManagerService service, String from) {
+		this(service, from, false);
+	}
+
+	/**
+	 * Creates a new LongPollInputTransport.
+	 *
+	 * @param service The InteractionManagerService used to ask for input.
+	 * @param from The timestamp of the most recent input already received.
+	 * @param placeInput Whether to receive the input of every application of the place, instead
+	 * of the one the transport is opened for. The application of each input is in its application
+	 * id.
+	 */
+	public LongPollInputTransport(InteractionManagerService service, String from, boolean placeInput) {
+		this.service = service;
+		this.placeInput = placeInput;
+		this.from = toLong(from);
+		this.retryTimer = new Timer() {
+			@Override
+			public void run() {
+				LongPollInputTransport.this.request(LongPollInputTransport.this.generation);
+			}
+		};
+	}
+
+	@Override
+	public String getName() {
+		return this.placeInput ? "place long polling" : "long polling";
+	}
+
+	@Override
+	public void open(String placeId, String applicationId, String callingApplicationId,
+			AsyncCallback<ArrayList<WidgetInput>> listener) {
+		this.placeId = placeId;
+		this.applicationId = applicationId;
+		this.callingApplicationId = callingApplicationId;
+		this.listener = listener;
+		this.failures = 0;
+		this.unheldResponses = 0;
+		this.request(++this.generation);
+	}
+
+	@Override
+	public void close() {
+		this.generation++;
+		this.retryTimer.cancel();
+	}
+
+	private void request(final int requestGeneration) {
+		final long start = System.currentTimeMillis();
+
+		AsyncCallback<ArrayList<WidgetInput>> callback = new AsyncCallback<ArrayList<WidgetInput>>() {
+
+			@Override
+			public void onFailure(Throwable caught) {
+				if ( requestGeneration != LongPollInputTransport.this.generation ) {
+					return;
+				}
+				LongPollInputTransport.this.failures++;
+				if ( LongPollInputTransport.this.failures >= MAX_FAILURES ) {
+					LongPollInputTransport.this.fail(caught);
+					return;
+				}
+				int delay = RETRY_DELAY << (LongPollInputTransport.this.failures - 1);
+				Log.debug(LongPollInputTransport.this, "Input request failed. Retrying in " + delay + " ms.");
+				LongPollInputTransport.this.retryTimer.schedule(delay);
+			}
+
+			@Override
+			public void onSuccess(ArrayList<WidgetInput> result) {
+				if ( requestGeneration != LongPollInputTransport.this.generation ) {
+					return;
+				}
+				LongPollInputTransport.this.failures = 0;
+
+				if ( result.isEmpty() ) {
+					if ( System.currentTimeMillis() - start < MIN_HOLD_TIME ) {
+						LongPollInputTransport.this.unheldResponses++;
+						if ( LongPollInputTransport.this.unheldResponses >= MAX_UNHELD_RESPONSES ) {
+							LongPollInputTransport.this.fail(new Exception("The interaction manager does not hold input requests"));
+							return;
+						}
+					} else {
+						LongPollInputTransport.this.unheldResponses = 0;
+					}
+				} else {
+					LongPollInputTransport.this.unheldResponses = 0;
+					for ( WidgetInput widgetInput : result ) {
+						LongPollInputTransport.this.from = Math.max(LongPollInputTransport.this.from,
+								toLong(widgetInput.getTimeStamp()));
+					}
+					LongPollInputTransport.this.listener.onSuccess(result);
+				}
+
+				/*
+				 * The listener may have closed the transport
+				 */
+				if ( requestGeneration == LongPollInputTransport.this.generation ) {
+					LongPollInputTransport.this.request(requestGeneration);
+				}
+			}
+		};
+
+		if ( this.placeInput ) {
+			this.service.waitForPlaceInputFromServer(this.placeId, this.callingApplicationId, "" + this.from, WAIT,
+					callback);
+		} else {
+			this.service.waitForInputFromServer(this.placeId, this.applicationId, this.callingApplicationId,
+					"" + this.from, WAIT, callback);
+		}
+	}
+
+	private void fail(Throwable caught) {
+		Log.warn(this, "Long polling stopped.", caught);
+		this.close();
+		this.listener.onFailure(caught);
+	}
+
+	private static long toLong(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.purewidgets.shared.im.WidgetInput;
+
+/**
+ * Remembers the most recently processed widget input, so that input delivered more than once
+ * (e.g., by a poll and by the channel) triggers only one event.
+ *
+ * The window is a ring buffer bounded both by the number of inputs and by their age: an input is
+ * forgotten when more than <code>maxSize</code> newer inputs were added, or when it was added
+ * more than <code>maxAge</code> milliseconds ago. Lookups use a hash map, so they take constant time.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class ProcessedInputWindow {
+
+	/**
+	 * The inputs in the window. Removed inputs leave a null slot.
+	 */
+	private WidgetInput[] inputs;
+
+	/**
+	 * The time each input was added.
+	 */
+	private long[] times;
+
+	/**
+	 * The index of the oldest slot.
+	 */
+	private int head;
+
+	/**
+	 * The number of used slots (including removed ones).
+	 */
+	private int size;
+
+	/**
+	 * The maximum time, in milliseconds, an input is kept.
+	 */
+	private long maxAge;
+
+	/**
+	 * The number of slots holding each input.
+	 */
+	private HashMap<WidgetInput, Integer> counts;
+
+	/**
+	 * Creates a new ProcessedInputWindow.
+	 *
+	 * @param maxSize The maximum number of inputs kept.
+	 * @param maxAge The maximum time, in milliseconds, an input is kept.
+	 */
+	public ProcessedInputWindow(int maxSize, long maxAge) {
+		this.inputs = new WidgetInput[Math.max(1, maxSize)];
+		this.times = new long[this.inputs.length];
+		this.maxAge = maxAge;
+		this.counts = new HashMap<WidgetInput, Integer>();
+	}
+
+	/**
+	 * Adds an input to the window, forgetting the oldest input if the window is full.
+	 *
+	 * @param input The input to add.
+	 */
+	public void add(WidgetInput input) {
+		long now = System.currentTimeMillis();
+		this.expire(now);
+		if ( this.size == this.inputs.length ) {
+			this.evictOldest();
+		}
+		int slot = (this.head + this.size) % this.inputs.length;
+		this.inputs[slot] = input;
+		this.times[slot] = now;
+		this.size++;
+
+		Integer count = this.counts.get(input);
+		this.counts.put(input, null == count ? 1 : count + 1);
+	}
+
+	/**
+	 * Checks if an input is in the window.
+	 *
+	 * @param input The input to check.
+	 * @return true if an input equal to the specified one is in the window.
+	 */
+	public boolean contains(WidgetInput input) {
+		this.expire(System.currentTimeMillis());
+		return this.counts.containsKey(input);
+	}
+
+	/**
+	 * Removes inputs from the window.
+	 *
+	 * @param toRemove The inputs to remove.
+	 */
+	public void removeAll(Collection<WidgetInput> toRemove) {
+		boolean removed = false;
+		for ( WidgetInput input : toRemove ) {
+			if ( null != this.counts.remove(input) ) {
+				removed = true;
+			}
+		}
+		if ( !removed ) {
+			return;
+		}
+
+		/*
+		 * Clear the slots of the removed inputs, so that they are not counted when evicted
+		 */
+		for ( int i = 0; i < this.size; i++ ) {
+			int slot = (this.head + i) % this.inputs.length;
+			if ( null != this.inputs[slot] && !this.counts.containsKey(this.inputs[slot]) ) {
+				this.inputs[slot] = null;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of inputs in the window.
+	 *
+	 * @return The number of inputs in the window.
+	 */
+	public int size() {
+		int total = 0;
+		for ( Integer count : this.counts.values() ) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Forgets the inputs added before <code>maxAge</code>.
+	 */
+	private void expire(long now) {
+		while ( this.size > 0 && now - this.times[this.head] > this.maxAge ) {
+			this.evictOldest();
+		}
+	}
+
+	private void evictOldest() {
+		WidgetInput input = this.inputs[this.head];
+		if ( null != input ) {
+			Integer count = this.counts.get(input);
+			if ( null != count ) {
+				if ( count > 1 ) {
+					this.counts.put(input, count - 1);
+				} else {
+					this.counts.remove(input);
+				}
+			}
+			this.inputs[this.head] = null;
+		}
+		this.head = (this.head + 1) % this.inputs.length;
+		this.size--;
+	}
+}
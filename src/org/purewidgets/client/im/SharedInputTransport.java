@@ -0,0 +1,636 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.purewidgets.client.im.json.WidgetInputJson;
+import org.purewidgets.client.im.json.WidgetInputListJson;
+import org.purewidgets.client.json.GenericJson;
+import org.purewidgets.client.storage.LocalStorage;
+import org.purewidgets.client.storage.LocalStorageListener;
+import org.purewidgets.shared.im.WidgetInput;
+import org.purewidgets.shared.logging.Log;
+
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.Window.ClosingEvent;
+import com.google.gwt.user.client.Window.ClosingHandler;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * An InputTransport shared by all the browser contexts (windows, tabs, or frames of the same
+ * origin) running applications of the same place, so that only one of them receives input from
+ * the interaction manager.
+ *
+ * The contexts coordinate through the local storage, whose changes other contexts are notified
+ * of:
+ * <ul>
+ * <li>Every context periodically writes a member item with its application id and the timestamp
+ * of the most recent input it received.</li>
+ * <li>One context, the leader, holds a lease in the leader item and renews it periodically. It
+ * opens the best transport available for its own application, and a single long poll for the
+ * input of the whole place, which it splits among the applications of the other live members.
+ * It writes the input received in an item per application, from which the other contexts of
+ * that application take it.</li>
+ * <li>The leader also writes, in a status item per application, whether it has a working
+ * transport for it.</li>
+ * <li>When the lease is not renewed (e.g., the leader was closed), the other contexts claim it:
+ * each writes its own lease and, after a short delay, the one whose lease is still there
+ * becomes the leader.</li>
+ * </ul>
+ * The listener is notified of an empty input list when input is being received for its
+ * application, and of a failure when the leader has no working transport for it, so that it can
+ * poll instead. The leader reopens failed transports after an increasing delay, and the listener
+ * is notified of an empty input list again when they work.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class SharedInputTransport implements InputTransport {
+
+	/**
+	 * The interval, in milliseconds, at which members and the leader renew their items.
+	 */
+	private static final int HEARTBEAT_INTERVAL = 2000;
+
+	/**
+	 * The time, in milliseconds, after which a member or the leader that did not renew its item
+	 * is considered gone.
+	 */
+	private static final int LEASE = 3 * HEARTBEAT_INTERVAL;
+
+	/**
+	 * The time, in milliseconds, a context waits after claiming the lease before checking if it
+	 * won it.
+	 */
+	private static final int CLAIM_DELAY = 250;
+
+	/**
+	 * The maximum delay, in milliseconds, before a failed transport is reopened. The delay starts
+	 * at the heartbeat interval and doubles with each consecutive failure.
+	 */
+	private static final int MAX_RETRY_DELAY = 60000;
+
+	/**
+	 * The time, in milliseconds, a reopened transport must stay open without failing, if it does
+	 * not receive input, to be considered working again.
+	 */
+	private static final int RECOVERY_TIME = 5 * LEASE;
+
+	/**
+	 * The local storage item that holds the leader lease, as "time:contextId".
+	 */
+	private static final String LEADER_ITEM = "leader";
+
+	/**
+	 * The prefix of the local storage items that hold the members, as "time:from:applicationId".
+	 */
+	private static final String MEMBER_ITEM = "member-";
+
+	/**
+	 * The prefix of the local storage items that hold the input of each application, as
+	 * "contextId:batch:json".
+	 */
+	private static final String INPUT_ITEM = "input-";
+
+	/**
+	 * The prefix of the local storage items that hold whether the leader has a working transport
+	 * for each application.
+	 */
+	private static final String STATUS_ITEM = "status-";
+
+	private static final String STATUS_UP = "up";
+
+	private static final String STATUS_DOWN = "down";
+
+	private InteractionManagerService service;
+
+	/**
+	 * The unique id of this browser context.
+	 */
+	private String contextId;
+
+	/**
+	 * The timestamp of the most recent input received by this context.
+	 */
+	private String from;
+
+	private String placeId;
+
+	private String applicationId;
+
+	private AsyncCallback<ArrayList<WidgetInput>> listener;
+
+	/**
+	 * The local storage shared by the contexts of the place.
+	 */
+	private LocalStorage storage;
+
+	private boolean open;
+
+	private boolean leader;
+
+	/**
+	 * Whether the listener was last notified that input is being received (true) or that it is
+	 * not (false), or null if it was not notified yet.
+	 */
+	private Boolean healthy;
+
+	/**
+	 * The number of input lists written by this context, to make every write a change.
+	 */
+	private int batches;
+
+	/**
+	 * The transport opened by the leader for its own application.
+	 */
+	private InputTransport applicationTransport;
+
+	/**
+	 * The transport opened by the leader for the input of the place, for the other applications.
+	 */
+	private InputTransport placeTransport;
+
+	/**
+	 * The applications the place transport was opened for.
+	 */
+	private HashSet<String> placeApplications;
+
+	/**
+	 * The timestamp of the most recent input the leader delivered to each of the other
+	 * applications.
+	 */
+	private HashMap<String, Long> cursors;
+
+	private TransportBackoff applicationBackoff;
+
+	private TransportBackoff placeBackoff;
+
+	private Timer heartbeatTimer;
+
+	private Timer claimTimer;
+
+	private boolean claiming;
+
+	/**
+	 * Creates a new SharedInputTransport.
+	 *
+	 * @param service The InteractionManagerService used to open the transports.
+	 * @param from The timestamp of the most recent input already received.
+	 */
+	public SharedInputTransport(InteractionManagerService service, String from) {
+		this.service = service;
+		this.from = from;
+		this.contextId = Long.toString(System.currentTimeMillis(), 36)
+				+ Integer.toString(new Random().nextInt(Integer.MAX_VALUE), 36);
+		this.placeApplications = new HashSet<String>();
+		this.cursors = new HashMap<String, Long>();
+		this.applicationBackoff = new TransportBackoff(HEARTBEAT_INTERVAL, MAX_RETRY_DELAY, RECOVERY_TIME);
+		this.placeBackoff = new TransportBackoff(HEARTBEAT_INTERVAL, MAX_RETRY_DELAY, RECOVERY_TIME);
+
+		this.heartbeatTimer = new Timer() {
+			@Override
+			public void run() {
+				SharedInputTransport.this.heartbeat();
+			}
+		};
+		this.claimTimer = new Timer() {
+			@Override
+			public void run() {
+				SharedInputTransport.this.claiming = false;
+				SharedInputTransport.this.checkClaim();
+			}
+		};
+	}
+
+	@Override
+	public String getName() {
+		return this.leader ? "shared input (leader)" : "shared input";
+	}
+
+	@Override
+	public void open(String placeId, String applicationId, String callingApplicationId,
+			AsyncCallback<ArrayList<WidgetInput>> listener) {
+		this.placeId = placeId;
+		this.applicationId = applicationId;
+		this.listener = listener;
+
+		if ( null == this.storage ) {
+			this.storage = new LocalStorage("PuReWidgets-" + placeId + "-sharedinput");
+			this.storage.addListener(new LocalStorageListener() {
+				@Override
+				public void onItemChanged(String item, String newValue) {
+					SharedInputTransport.this.onItemChanged(item, newValue);
+				}
+			});
+			Window.addWindowClosingHandler(new ClosingHandler() {
+				@Override
+				public void onWindowClosing(ClosingEvent event) {
+					SharedInputTransport.this.close();
+				}
+			});
+		}
+
+		this.open = true;
+		this.heartbeat();
+		this.heartbeatTimer.scheduleRepeating(HEARTBEAT_INTERVAL);
+	}
+
+	@Override
+	public void close() {
+		if ( !this.open ) {
+			return;
+		}
+		this.open = false;
+		this.healthy = null;
+		this.heartbeatTimer.cancel();
+		this.claimTimer.cancel();
+		this.claiming = false;
+
+		this.storage.removeItem(MEMBER_ITEM + this.contextId);
+		if ( this.leader ) {
+			this.resign();
+			this.storage.removeItem(LEADER_ITEM);
+		}
+	}
+
+	private void heartbeat() {
+		long now = System.currentTimeMillis();
+		this.storage.setString(MEMBER_ITEM + this.contextId, now + ":" + this.from + ":" + this.applicationId);
+
+		String leaseHolder = this.getLeaseHolder(now);
+		if ( this.leader ) {
+			if ( this.contextId.equals(leaseHolder) ) {
+				this.storage.setString(LEADER_ITEM, now + ":" + this.contextId);
+				this.updateTransports(now);
+			} else {
+				Log.warn(this, "Lost the input lease to another context.");
+				this.resign();
+			}
+		} else if ( null == leaseHolder ) {
+			this.claim();
+		} else {
+			this.followLeader();
+		}
+	}
+
+	/**
+	 * Writes this context's lease, and checks if it won it after a short delay.
+	 */
+	private void claim() {
+		if ( this.claiming ) {
+			return;
+		}
+		this.claiming = true;
+		this.storage.setString(LEADER_ITEM, System.currentTimeMillis() + ":" + this.contextId);
+		this.claimTimer.schedule(CLAIM_DELAY);
+	}
+
+	private void checkClaim() {
+		if ( !this.open || this.leader ) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if ( this.contextId.equals(this.getLeaseHolder(now)) ) {
+			Log.info(this, "Receiving input for the place's applications.");
+			this.leader = true;
+			this.applicationBackoff = new TransportBackoff(HEARTBEAT_INTERVAL, MAX_RETRY_DELAY, RECOVERY_TIME);
+			this.placeBackoff = new TransportBackoff(HEARTBEAT_INTERVAL, MAX_RETRY_DELAY, RECOVERY_TIME);
+			this.updateTransports(now);
+		} else {
+			this.followLeader();
+		}
+	}
+
+	/**
+	 * Stops receiving input for the place's applications.
+	 */
+	private void resign() {
+		this.leader = false;
+		if ( null != this.applicationTransport ) {
+			this.applicationTransport.close();
+			this.applicationTransport = null;
+		}
+		this.closePlaceTransport();
+		this.cursors.clear();
+	}
+
+	/**
+	 * Notifies the listener of whether the leader has a working transport for this context's
+	 * application.
+	 */
+	private void followLeader() {
+		this.setHealthy(!STATUS_DOWN.equals(this.storage.getString(STATUS_ITEM + this.applicationId)));
+	}
+
+	/**
+	 * Notifies the listener when input starts or stops being received.
+	 */
+	private void setHealthy(boolean healthy) {
+		if ( null != this.healthy && this.healthy.booleanValue() == healthy ) {
+			return;
+		}
+		this.healthy = Boolean.valueOf(healthy);
+		if ( healthy ) {
+			this.listener.onSuccess(new ArrayList<WidgetInput>());
+		} else {
+			this.listener.onFailure(new Exception("No input transport is working for application "
+					+ this.applicationId));
+		}
+	}
+
+	/**
+	 * Opens the transports that are not open and are due to be retried, closes the place
+	 * transport if no other application has members, and publishes the status of each
+	 * application. Members that are gone are removed.
+	 */
+	private void updateTransports(long now) {
+		HashMap<String, String> applications = new HashMap<String, String>();
+
+		for ( String item : this.storage.getItems(MEMBER_ITEM) ) {
+			String value = this.storage.getString(item);
+			int timeEnd = value.indexOf(':');
+			int fromEnd = value.indexOf(':', timeEnd + 1);
+			if ( -1 == timeEnd || -1 == fromEnd || now - toLong(value.substring(0, timeEnd)) > LEASE ) {
+				this.storage.removeItem(item);
+				continue;
+			}
+			String memberFrom = value.substring(timeEnd + 1, fromEnd);
+			String memberApplicationId = value.substring(fromEnd + 1);
+			if ( memberApplicationId.equals(this.applicationId) ) {
+				continue;
+			}
+			if ( !applications.containsKey(memberApplicationId)
+					|| toLong(memberFrom) > toLong(applications.get(memberApplicationId)) ) {
+				applications.put(memberApplicationId, memberFrom);
+			}
+		}
+
+		if ( null == this.applicationTransport && this.applicationBackoff.isDue(now) ) {
+			this.openApplicationTransport(now);
+		}
+
+		this.cursors.keySet().retainAll(applications.keySet());
+		for ( Map.Entry<String, String> entry : applications.entrySet() ) {
+			if ( !this.cursors.containsKey(entry.getKey()) ) {
+				this.cursors.put(entry.getKey(), Long.valueOf(toLong(entry.getValue())));
+			}
+		}
+		if ( applications.isEmpty() ) {
+			this.closePlaceTransport();
+		} else if ( null != this.placeTransport && !this.placeApplications.containsAll(applications.keySet()) ) {
+			/*
+			 * Reopen from the cursor of the new application, so that its input is not skipped
+			 */
+			this.closePlaceTransport();
+		}
+		if ( !applications.isEmpty() && null == this.placeTransport && this.placeBackoff.isDue(now) ) {
+			this.openPlaceTransport(now);
+		}
+
+		this.publishStatus(now);
+	}
+
+	/**
+	 * Writes the status of each application, removing the status of applications without
+	 * members, and notifies this context's listener.
+	 */
+	private void publishStatus(long now) {
+		boolean applicationUp = null != this.applicationTransport && this.applicationBackoff.isWorking(now);
+		boolean placeUp = null != this.placeTransport && this.placeBackoff.isWorking(now);
+
+		this.setStatus(this.applicationId, applicationUp);
+		for ( String item : this.storage.getItems(STATUS_ITEM) ) {
+			String statusApplicationId = item.substring(STATUS_ITEM.length());
+			if ( !statusApplicationId.equals(this.applicationId) && !this.cursors.containsKey(statusApplicationId) ) {
+				this.storage.removeItem(item);
+			}
+		}
+		for ( String statusApplicationId : this.cursors.keySet() ) {
+			this.setStatus(statusApplicationId, placeUp);
+		}
+		this.setHealthy(applicationUp);
+	}
+
+	private void setStatus(String statusApplicationId, boolean up) {
+		String status = up ? STATUS_UP : STATUS_DOWN;
+		if ( !status.equals(this.storage.getString(STATUS_ITEM + statusApplicationId)) ) {
+			this.storage.setString(STATUS_ITEM + statusApplicationId, status);
+		}
+	}
+
+	private void openApplicationTransport(long now) {
+		Log.debug(this, "Opening input transport for application " + this.applicationId);
+
+		/*
+		 * A page can hold only one channel, which is used for this context's own application
+		 */
+		final InputTransport transport = this.service.createInputTransport(this.from);
+		this.applicationTransport = transport;
+		this.applicationBackoff.opened(now);
+
+		transport.open(this.placeId, this.applicationId, this.applicationId,
+				new AsyncCallback<ArrayList<WidgetInput>>() {
+
+					@Override
+					public void onFailure(Throwable caught) {
+						if ( transport != SharedInputTransport.this.applicationTransport ) {
+							return;
+						}
+						long now = System.currentTimeMillis();
+						SharedInputTransport.this.applicationTransport = null;
+						SharedInputTransport.this.applicationBackoff.failed(now);
+						Log.warn(SharedInputTransport.this, "Input transport for application "
+								+ SharedInputTransport.this.applicationId + " failed. Reopening in "
+								+ SharedInputTransport.this.applicationBackoff.getDelay(now) + " ms.", caught);
+						SharedInputTransport.this.publishStatus(now);
+					}
+
+					@Override
+					public void onSuccess(ArrayList<WidgetInput> result) {
+						if ( transport != SharedInputTransport.this.applicationTransport || result.isEmpty() ) {
+							return;
+						}
+						SharedInputTransport.this.applicationBackoff.delivered();
+						SharedInputTransport.this.broadcast(SharedInputTransport.this.applicationId, result);
+					}
+				});
+	}
+
+	private void openPlaceTransport(long now) {
+		long placeFrom = Long.MAX_VALUE;
+		for ( Long cursor : this.cursors.values() ) {
+			placeFrom = Math.min(placeFrom, cursor.longValue());
+		}
+		Log.debug(this, "Opening place input transport for applications " + this.cursors.keySet());
+
+		final InputTransport transport = new LongPollInputTransport(this.service, Long.toString(placeFrom), true);
+		this.placeTransport = transport;
+		this.placeApplications = new HashSet<String>(this.cursors.keySet());
+		this.placeBackoff.opened(now);
+
+		transport.open(this.placeId, null, this.applicationId, new AsyncCallback<ArrayList<WidgetInput>>() {
+
+			@Override
+			public void onFailure(Throwable caught) {
+				if ( transport != SharedInputTransport.this.placeTransport ) {
+					return;
+				}
+				long now = System.currentTimeMillis();
+				SharedInputTransport.this.placeTransport = null;
+				SharedInputTransport.this.placeBackoff.failed(now);
+				Log.warn(SharedInputTransport.this, "Place input transport failed. Reopening in "
+						+ SharedInputTransport.this.placeBackoff.getDelay(now) + " ms.", caught);
+				SharedInputTransport.this.publishStatus(now);
+			}
+
+			@Override
+			public void onSuccess(ArrayList<WidgetInput> result) {
+				if ( transport != SharedInputTransport.this.placeTransport || result.isEmpty() ) {
+					return;
+				}
+				SharedInputTransport.this.placeBackoff.delivered();
+				SharedInputTransport.this.splitPlaceInput(result);
+			}
+		});
+	}
+
+	private void closePlaceTransport() {
+		if ( null != this.placeTransport ) {
+			Log.debug(this, "Closing place input transport.");
+			this.placeTransport.close();
+			this.placeTransport = null;
+		}
+	}
+
+	/**
+	 * Broadcasts the input of the place to each of the other applications, skipping the input
+	 * they already received.
+	 */
+	private void splitPlaceInput(ArrayList<WidgetInput> inputList) {
+		HashMap<String, ArrayList<WidgetInput>> inputs = new HashMap<String, ArrayList<WidgetInput>>();
+		int unknown = 0;
+		for ( WidgetInput widgetInput : inputList ) {
+			String inputApplicationId = widgetInput.getApplicationId();
+			if ( null == inputApplicationId ) {
+				unknown++;
+				continue;
+			}
+			Long cursor = this.cursors.get(inputApplicationId);
+			long timeStamp = toLong(widgetInput.getTimeStamp());
+			if ( null == cursor || timeStamp <= cursor.longValue() ) {
+				continue;
+			}
+			ArrayList<WidgetInput> applicationInputs = inputs.get(inputApplicationId);
+			if ( null == applicationInputs ) {
+				applicationInputs = new ArrayList<WidgetInput>();
+				inputs.put(inputApplicationId, applicationInputs);
+			}
+			applicationInputs.add(widgetInput);
+		}
+		if ( unknown > 0 ) {
+			Log.warn(this, "Discarded " + unknown + " place inputs without application id.");
+		}
+
+		for ( Map.Entry<String, ArrayList<WidgetInput>> entry : inputs.entrySet() ) {
+			long cursor = this.cursors.get(entry.getKey()).longValue();
+			for ( WidgetInput widgetInput : entry.getValue() ) {
+				cursor = Math.max(cursor, toLong(widgetInput.getTimeStamp()));
+			}
+			this.cursors.put(entry.getKey(), Long.valueOf(cursor));
+			this.broadcast(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Writes the input for the other contexts of the application, and delivers it in this one.
+	 */
+	private void broadcast(String inputApplicationId, ArrayList<WidgetInput> inputList) {
+		if ( inputList.isEmpty() ) {
+			return;
+		}
+
+		ArrayList<WidgetInputJson> inputJsons = new ArrayList<WidgetInputJson>();
+		for ( WidgetInput widgetInput : inputList ) {
+			inputJsons.add(WidgetInputJson.create(widgetInput));
+		}
+		WidgetInputListJson inputListJson = GenericJson.getNew();
+		inputListJson.setInputsFromArrayList(inputJsons);
+
+		this.batches++;
+		this.storage.setString(INPUT_ITEM + inputApplicationId,
+				this.contextId + ":" + this.batches + ":" + inputListJson.toJsonString());
+
+		if ( inputApplicationId.equals(this.applicationId) ) {
+			this.deliver(inputList);
+		}
+	}
+
+	private void onItemChanged(String item, String newValue) {
+		if ( !this.open ) {
+			return;
+		}
+
+		if ( LEADER_ITEM.equals(item) ) {
+			if ( null == newValue ) {
+				if ( !this.leader ) {
+					this.claim();
+				}
+			} else if ( this.leader && !newValue.endsWith(":" + this.contextId) ) {
+				Log.warn(this, "Another context claimed the input lease.");
+				this.resign();
+			}
+
+		} else if ( (STATUS_ITEM + this.applicationId).equals(item) && !this.leader ) {
+			if ( null != this.getLeaseHolder(System.currentTimeMillis()) ) {
+				this.followLeader();
+			}
+
+		} else if ( (INPUT_ITEM + this.applicationId).equals(item) && null != newValue && !this.leader ) {
+			int contextEnd = newValue.indexOf(':');
+			int batchEnd = newValue.indexOf(':', contextEnd + 1);
+			if ( -1 == contextEnd || -1 == batchEnd ) {
+				return;
+			}
+			WidgetInputListJson inputListJson = GenericJson.fromJson(newValue.substring(batchEnd + 1));
+			this.deliver(inputListJson.getInputs());
+		}
+	}
+
+	private void deliver(ArrayList<WidgetInput> inputList) {
+		for ( WidgetInput widgetInput : inputList ) {
+			if ( toLong(widgetInput.getTimeStamp()) > toLong(this.from) ) {
+				this.from = widgetInput.getTimeStamp();
+			}
+		}
+		this.listener.onSuccess(inputList);
+	}
+
+	/**
+	 * Gets the context holding a valid lease.
+	 *
+	 * @return The context id, or null if the lease expired or there is none.
+	 */
+	private String getLeaseHolder(long now) {
+		String value = this.storage.getString(LEADER_ITEM);
+		int timeEnd = null == value ? -1 : value.indexOf(':');
+		if ( -1 == timeEnd || now - toLong(value.substring(0, timeEnd)) > LEASE ) {
+			return null;
+		}
+		return value.substring(timeEnd + 1);
+	}
+
+	private static long toLong(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+}
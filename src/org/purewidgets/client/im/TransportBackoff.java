@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+/**
+ * The reopening delay of an input transport that failed.
+ *
+ * The delay starts at an initial value and doubles with each consecutive failure, up to a maximum.
+ * The failures are forgotten once the transport, after being reopened, receives input or stays
+ * open for a recovery time without failing.
+ *
+ * Times are passed in by the caller, in milliseconds.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class TransportBackoff {
+
+	private long initialDelay;
+
+	private long maxDelay;
+
+	private long recoveryTime;
+
+	/**
+	 * The number of consecutive failures.
+	 */
+	private int failures;
+
+	/**
+	 * The time after which the transport may be reopened.
+	 */
+	private long retryAt;
+
+	/**
+	 * The time the transport was last opened.
+	 */
+	private long openedAt;
+
+	/**
+	 * Whether the transport received input since it was last opened.
+	 */
+	private boolean delivered;
+
+	/**
+	 * Creates a new TransportBackoff.
+	 *
+	 * @param initialDelay The delay after the first failure.
+	 * @param maxDelay The maximum delay.
+	 * @param recoveryTime The time a reopened transport must stay open, if it does not receive
+	 * input, to be considered working again.
+	 */
+	public TransportBackoff(long initialDelay, long maxDelay, long recoveryTime) {
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.recoveryTime = recoveryTime;
+	}
+
+	/**
+	 * Checks if the transport may be reopened.
+	 *
+	 * @param now The current time.
+	 * @return true if the delay after the last failure has passed.
+	 */
+	public boolean isDue(long now) {
+		return now >= this.retryAt;
+	}
+
+	/**
+	 * Records that the transport was opened.
+	 *
+	 * @param now The current time.
+	 */
+	public void opened(long now) {
+		this.openedAt = now;
+		this.delivered = false;
+	}
+
+	/**
+	 * Records that the transport received input.
+	 */
+	public void delivered() {
+		this.delivered = true;
+	}
+
+	/**
+	 * Records that the transport failed, doubling the delay before it is reopened.
+	 *
+	 * @param now The current time.
+	 */
+	public void failed(long now) {
+		this.failures++;
+		long delay = this.initialDelay << Math.min(this.failures - 1, 16);
+		this.retryAt = now + Math.min(this.maxDelay, delay);
+	}
+
+	/**
+	 * Gets the time left before the transport may be reopened.
+	 *
+	 * @param now The current time.
+	 * @return The time left, or 0 if the transport may be reopened.
+	 */
+	public long getDelay(long now) {
+		return Math.max(0, this.retryAt - now);
+	}
+
+	/**
+	 * Checks if the transport is working: if it never failed, or if, after being reopened, it
+	 * received input or stayed open long enough. Then the delay is reset.
+	 *
+	 * @param now The current time.
+	 * @return true if the transport is working.
+	 */
+	public boolean isWorking(long now) {
+		if ( this.failures > 0 && (this.delivered || now - this.openedAt >= this.recoveryTime) ) {
+			this.failures = 0;
+		}
+		return 0 == this.failures;
+	}
+}
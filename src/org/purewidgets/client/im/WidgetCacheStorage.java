@@ -0,0 +1,217 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import org.purewidgets.client.im.json.WidgetJson;
+import org.purewidgets.client.json.GenericJson;
+import org.purewidgets.client.storage.LocalStorage;
+import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.logging.Log;
+
+import com.google.gwt.user.client.Timer;
+
+/**
+ * Persists the WidgetManager's widget cache in the local storage, one key per widget.
+ *
+ * Changes are not written immediately: they are collected and written together by
+ * {@link #flush()}, which is called at the end of each server response and, if not called
+ * before, on the next timer tick. Only the widgets that changed since the last flush are
+ * written, and the list of widget ids is written only if it changed.
+ *
+ * Only the widget ids are read on load; each widget is decoded when it is first requested.
+ * Caches saved by previous versions as a single list are migrated on load.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class WidgetCacheStorage {
+
+	/**
+	 * The local storage key prefix.
+	 */
+	private String name;
+
+	private LocalStorage localStorage;
+
+	/**
+	 * The ids of the cached widgets, in the order they were added.
+	 */
+	private LinkedHashSet<String> ids;
+
+	/**
+	 * Whether the ids changed since the last flush.
+	 */
+	private boolean idsChanged;
+
+	/**
+	 * The widgets changed since the last flush, by widget id. A null widget means it was removed.
+	 */
+	private LinkedHashMap<String, Widget> pending;
+
+	/**
+	 * The fingerprints of the pending widgets, by widget id.
+	 */
+	private HashMap<String, Integer> pendingFingerprints;
+
+	/**
+	 * Flushes the pending changes on the next tick.
+	 */
+	private Timer flushTimer;
+
+	private boolean flushScheduled;
+
+	/**
+	 * Creates a new WidgetCacheStorage.
+	 *
+	 * @param localStorage The local storage.
+	 * @param name The local storage key prefix.
+	 */
+	public WidgetCacheStorage(LocalStorage localStorage, String name) {
+		this.localStorage = localStorage;
+		this.name = name;
+		this.ids = new LinkedHashSet<String>();
+		this.pending = new LinkedHashMap<String, Widget>();
+		this.pendingFingerprints = new HashMap<String, Integer>();
+		this.flushTimer = new Timer() {
+			@Override
+			public void run() {
+				WidgetCacheStorage.this.flushScheduled = false;
+				WidgetCacheStorage.this.flush();
+			}
+		};
+	}
+
+	/**
+	 * Loads the ids of the cached widgets. The widgets themselves are not decoded: use
+	 * {@link #get(String)} to decode a widget when it is needed.
+	 *
+	 * @return The ids of the cached widgets, in the order they were added.
+	 */
+	public ArrayList<String> loadIds() {
+
+		/*
+		 * Migrate a cache saved as a single list
+		 */
+		ArrayList<String> legacy = this.localStorage.loadList(this.name);
+		if ( legacy.size() > 0 ) {
+			Log.debug(this, "Migrating widget cache with " + legacy.size() + " widgets.");
+			for ( String widgetSerialized : legacy ) {
+				WidgetJson widgetJson = GenericJson.fromJson(widgetSerialized);
+				this.ids.add(widgetJson.getWidgetId());
+				this.localStorage.setString(this.getWidgetKey(widgetJson.getWidgetId()), widgetSerialized);
+			}
+			this.localStorage.saveList(this.getIdsKey(), new ArrayList<String>(this.ids));
+			this.localStorage.removeItem(this.name);
+		} else {
+			this.ids.addAll(this.localStorage.loadList(this.getIdsKey()));
+		}
+		return new ArrayList<String>(this.ids);
+	}
+
+	/**
+	 * Decodes a cached widget from the local storage.
+	 *
+	 * Widgets put since the last flush are not returned until they are flushed, so this should
+	 * be used only for widgets that were cached before {@link #loadIds()} was called.
+	 *
+	 * @param widgetId The widget id.
+	 * @return The cached widget, or null if it is not stored.
+	 */
+	public WidgetJson get(String widgetId) {
+		String widgetSerialized = this.localStorage.getString(this.getWidgetKey(widgetId));
+		if ( null == widgetSerialized || widgetSerialized.length() == 0 ) {
+			Log.warn(this, "Cached widget '" + widgetId + "' is missing.");
+			if ( this.ids.remove(widgetId) ) {
+				this.idsChanged = true;
+				this.scheduleFlush();
+			}
+			return null;
+		}
+		return GenericJson.fromJson(widgetSerialized);
+	}
+
+	/**
+	 * Adds or replaces a widget in the cache.
+	 *
+	 * @param widget The widget.
+	 * @param fingerprint The fingerprint to store with the widget, or null.
+	 */
+	public void put(Widget widget, Integer fingerprint) {
+		if ( this.ids.add(widget.getWidgetId()) ) {
+			this.idsChanged = true;
+		}
+		this.pending.put(widget.getWidgetId(), widget);
+		this.pendingFingerprints.put(widget.getWidgetId(), fingerprint);
+		this.scheduleFlush();
+	}
+
+	/**
+	 * Removes a widget from the cache.
+	 *
+	 * @param widgetId The widget id.
+	 */
+	public void remove(String widgetId) {
+		if ( this.ids.remove(widgetId) ) {
+			this.idsChanged = true;
+		}
+		this.pending.put(widgetId, null);
+		this.pendingFingerprints.remove(widgetId);
+		this.scheduleFlush();
+	}
+
+	/**
+	 * Writes the pending changes to the local storage.
+	 */
+	public void flush() {
+		if ( this.flushScheduled ) {
+			this.flushTimer.cancel();
+			this.flushScheduled = false;
+		}
+		if ( this.pending.isEmpty() && !this.idsChanged ) {
+			return;
+		}
+
+		for ( Map.Entry<String, Widget> entry : this.pending.entrySet() ) {
+			if ( null == entry.getValue() ) {
+				this.localStorage.removeItem(this.getWidgetKey(entry.getKey()));
+			} else {
+				WidgetJson widgetJson = WidgetJson.create(entry.getValue());
+				Integer fingerprint = this.pendingFingerprints.get(entry.getKey());
+				if ( null != fingerprint ) {
+					widgetJson.setFingerprint(fingerprint);
+				}
+				this.localStorage.setString(this.getWidgetKey(entry.getKey()), widgetJson.toJsonString());
+			}
+		}
+		Log.debug(this, "Saved " + this.pending.size() + " widget cache changes.");
+		this.pending.clear();
+		this.pendingFingerprints.clear();
+
+		if ( this.idsChanged ) {
+			this.localStorage.saveList(this.getIdsKey(), new ArrayList<String>(this.ids));
+			this.idsChanged = false;
+		}
+	}
+
+	private void scheduleFlush() {
+		if ( !this.flushScheduled ) {
+			this.flushScheduled = true;
+			this.flushTimer.schedule(1);
+		}
+	}
+
+	private String getIdsKey() {
+		return this.name + "-ids";
+	}
+
+	private String getWidgetKey(String widgetId) {
+		return this.name + "-widget-" + widgetId;
+	}
+}
@@ -4,14 +4,19 @@
 package org.purewidgets.client.im;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 import org.purewidgets.client.application.PDApplication;
 import org.purewidgets.client.im.json.WidgetJson;
 import org.purewidgets.client.json.GenericJson;
 import org.purewidgets.client.storage.LocalStorage;
+import org.purewidgets.shared.exceptions.HttpServerException;
 import org.purewidgets.shared.im.InputEventHelper;
 import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.im.WidgetDelta;
+import org.purewidgets.shared.im.WidgetIndex;
 import org.purewidgets.shared.im.WidgetInput;
 import org.purewidgets.shared.im.WidgetOption;
 import org.purewidgets.shared.logging.Log;
@@ -46,18 +51,11 @@ public class WidgetManager {
 	}
 
 	/**
-	 * The interval between input requests (milliseconds).
+	 * Decides when to ask the interaction manager for input.
 	 * If a synchronous channel cannot be created, the WidgetManager will periodically
 	 * ask the interaction manager for input.
 	 */
-	private static final int INPUT_REQUEST_INTERVAL = 10000;
-
-	/**
-	 * The current interval between input requests to the interaction manager.
-	 * 
-	 * If a previous request failed, the WidgetManager will double the waiting period.
-	 */
-	private int currentInputRequestInterval;
+	private InputPollingPolicy inputPollingPolicy;
 	
 	/**
 	 * The localstorage parameter name for storing the last input timestamp.
@@ -76,12 +74,43 @@ public class WidgetManager {
 	 */
 	private int currentWidgetRequestInterval;
 	
+	/**
+	 * The widget request interval when the current widget requests were sent. 
+	 * 
+	 * A failure doubles this interval, not the current one, so that the interval is doubled only 
+	 * once even if several requests sent together fail.
+	 */
+	private int sentWidgetRequestInterval;
+	
+	/**
+	 * Whether a widget request sent together with the current ones failed.
+	 */
+	private boolean widgetRequestFailed;
+	
 	
 	/**
 	 * The synchronization delay
 	 */
 	private static final int SYNC_DELAY = 5000;
 	
+	/**
+	 * The localstorage item that holds the time the interaction manager was found not to support
+	 * widget deltas.
+	 */
+	private static final String DELTAS_UNSUPPORTED_ITEM = "WidgetManager-deltasUnsupported";
+	
+	/**
+	 * The time, in milliseconds, after which widget deltas are tried again on an interaction 
+	 * manager that did not support them.
+	 */
+	private static final long DELTAS_RETRY_PERIOD = 24*60*60*1000;
+	
+	/**
+	 * The HTTP status the interaction manager answers with when a delta does not apply to its
+	 * version of a widget.
+	 */
+	private static final int HTTP_CONFLICT = 409;
+	
 	/**
 	 * The singleton reference. 
 	 */
@@ -118,10 +147,20 @@ public class WidgetManager {
 	
 
 	/**
-	 * Keeps a list of the most recently processed input. Used to make sure we
+	 * The maximum number of processed inputs remembered.
+	 */
+	public static final int PROCESSED_INPUT_WINDOW_SIZE = 1000;
+	
+	/**
+	 * The maximum time, in milliseconds, a processed input is remembered.
+	 */
+	public static final long PROCESSED_INPUT_WINDOW_AGE = 10*60*1000;
+	
+	/**
+	 * Keeps the most recently processed input. Used to make sure we
 	 * don't trigger the same input event more than once.
 	 */
-	private ArrayList<WidgetInput> processedInput;
+	private ProcessedInputWindow processedInput;
 
 	/**
 	 * List of input which could not be matched to a widget. The WM will try to match it later when
@@ -142,19 +181,67 @@ public class WidgetManager {
 	/**
 	 * List of widgets scheduled to be added to the server
 	 */
-	private ArrayList<Widget> toAddWidgetPool;
+	private WidgetRegistry toAddWidgetPool;
 
 	/**
 	 * List of widgets scheduled to be added to the server
 	 */
-	private ArrayList<Widget> toDeleteWidgetPool;
+	private WidgetRegistry toDeleteWidgetPool;
 
-	private ArrayList<Widget> widgetCache;
+	private WidgetRegistry widgetCache;
+	
+	/**
+	 * Persists the widget cache in the local storage.
+	 */
+	private WidgetCacheStorage widgetCacheStorage;
+	
+	/**
+	 * The content fingerprints of the widgets in the widget cache, taken when they were cached.
+	 */
+	private HashMap<String, Integer> widgetCacheFingerprints;
+	
+	/**
+	 * The ids of the widgets in the local storage cache that were not decoded yet. They are
+	 * decoded, and added to the widget cache, when first needed.
+	 */
+	private HashSet<String> undecodedCacheIds;
+	
+	/**
+	 * The ids of the cached widgets that were not registered by the application yet. If input 
+	 * arrives for one of them, the cached widget is registered so that the input is not taken
+	 * as targeting a stale widget.
+	 */
+	private HashSet<String> unregisteredCacheIds;
+	
+	/**
+	 * The time, in milliseconds, when this WidgetManager was created.
+	 */
+	private long startTime;
+	
+	/**
+	 * Whether input was already dispatched to the widgets.
+	 */
+	private boolean inputDispatched;
+	
+	/**
+	 * The ids of the widgets whose deltas were rejected by the server, and that must be sent whole.
+	 */
+	private HashSet<String> wholeUploadRequired;
+	
+	/**
+	 * The time the interaction manager was found not to support widget deltas, or 0 if it does.
+	 */
+	private long deltasUnsupportedTime;
 	
 	/**
 	 * The registered widgets.
 	 */
-	private ArrayList<Widget> widgetList;
+	private WidgetRegistry widgetList;
+	
+	/**
+	 * The index of the registered widgets by widget id, used to dispatch input.
+	 */
+	private WidgetIndex widgetIndex;
 
 	/**
 	 * Creates a new WidgetManager for the specified application, and with the given LocalStorage, and InteractionManager.
@@ -162,20 +249,31 @@ public class WidgetManager {
 	private WidgetManager(String placeId, String applicationId, LocalStorage localStorage,
 			InteractionManagerService interactionManager) {
 
+		this.startTime = System.currentTimeMillis();
 		this.placeId = placeId;
 		this.applicationId = applicationId;
 		this.localStorage = localStorage;
 		
-		this.widgetCache = new ArrayList<Widget>();
-		this.widgetList = new ArrayList<Widget>();
+		this.widgetCache = new WidgetRegistry();
+		this.widgetCacheStorage = new WidgetCacheStorage(localStorage, "WidgetManager-widgetcache");
+		this.widgetCacheFingerprints = new HashMap<String, Integer>();
+		this.undecodedCacheIds = new HashSet<String>();
+		this.unregisteredCacheIds = new HashSet<String>();
+		this.wholeUploadRequired = new HashSet<String>();
+		String deltasUnsupported = this.localStorage.getString(DELTAS_UNSUPPORTED_ITEM);
+		if ( null != deltasUnsupported ) {
+			this.deltasUnsupportedTime = this.toLong(deltasUnsupported);
+		}
+		this.widgetList = new WidgetRegistry();
+		this.widgetIndex = new WidgetIndex();
 		this.loadWidgetCacheFromLocalStorage();
 		
-		this.toAddWidgetPool = new ArrayList<Widget>();
-		this.toDeleteWidgetPool = new ArrayList<Widget>();
+		this.toAddWidgetPool = new WidgetRegistry();
+		this.toDeleteWidgetPool = new WidgetRegistry();
 		this.loadToDeleteWidgetPoolFromLocalStorage();
 		
 		
-		this.processedInput = new ArrayList<WidgetInput>();
+		this.processedInput = new ProcessedInputWindow(PROCESSED_INPUT_WINDOW_SIZE, PROCESSED_INPUT_WINDOW_AGE);
 		this.unprocessedInput = new ArrayList<WidgetInput>();
 		this.communicator = interactionManager;
 		this.timerInput = new Timer() {
@@ -184,21 +282,23 @@ public class WidgetManager {
 				periodicallyAskForInputFromServer();
 			}
 		};
-		this.currentInputRequestInterval = INPUT_REQUEST_INTERVAL;
+		this.inputPollingPolicy = new AdaptiveInputPollingPolicy(System.currentTimeMillis());
 
-		this.communicator.createChannel(this.placeId, this.applicationId, this.applicationId,
-				new AsyncCallback<ArrayList<WidgetInput>>() {
+		this.communicator.openInputTransport(this.placeId, this.applicationId, this.applicationId,
+				this.getLastTimeStampAsString(), new AsyncCallback<ArrayList<WidgetInput>>() {
 
 					@Override
 					public void onFailure(Throwable caught) {
 						Log.debug(WidgetManager.this,
-								"Could not create input channel. Going to use polling instead", caught);
-						WidgetManager.this.timerInput
-								.schedule(WidgetManager.this.currentInputRequestInterval);
+								"Could not open an input transport. Going to use polling instead", caught);
+						WidgetManager.this.inputPollingPolicy.setChannelHealthy(false);
+						WidgetManager.this.scheduleInputRequest();
 					}
 
 					@Override
 					public void onSuccess(ArrayList<WidgetInput> result) {
+						WidgetManager.this.inputPollingPolicy.setChannelHealthy(true);
+						WidgetManager.this.inputPollingPolicy.onChannelInput(System.currentTimeMillis(), result.size());
 						WidgetManager.this.onWidgetInput(result);
 
 					}
@@ -259,23 +359,19 @@ public class WidgetManager {
 		/*
 		 * Register the widget locally
 		 */
-		int index = indexOf(this.widgetList, widget);
-		if (-1 == index) {
-			this.widgetList.add(widget);
+		this.unregisteredCacheIds.remove(widget.getWidgetId());
+		Widget replaced = this.widgetList.put(widget);
+		if (null == replaced) {
+			this.widgetIndex.add(widget);
 		} else {
 			Log.warn(this, "Widget '" + widget.getWidgetId()
-                    + "' already exists in widget list, replacing entry " + index + ".");
-			this.widgetList.set(index, widget);
+                    + "' already exists in widget list, replacing entry.");
+			this.widgetIndex.replace(replaced, widget);
 		}
 
-		index = indexOf(this.toAddWidgetPool, widget);
-		if (-1 == index) {
-			this.toAddWidgetPool.add(widget);
-		} else {
+		if (null != this.toAddWidgetPool.put(widget)) {
 			Log.warn(this, "Widget '" + widget.getWidgetId()
-					+ "' already exists in to add widget list, replacing entry " + index + ".");
-
-			this.toAddWidgetPool.set(index, widget);
+					+ "' already exists in to add widget list, replacing entry.");
 		}
 
 		this.nextWidgetAction = NextWidgetAction.ADD;
@@ -326,22 +422,19 @@ public class WidgetManager {
 		/*
 		 * Register the widget locally
 		 */
-		int index = indexOf(this.widgetList, widget);
-		if (-1 == index) {
+		this.unregisteredCacheIds.remove(widget.getWidgetId());
+		Widget removed = this.widgetList.remove(widget.getWidgetId());
+		if (null == removed) {
 			Log.warn(this, "Widget '" + widget.getWidgetId() + "' does not exist in widget list.");
 		} else {
-			this.widgetList.remove(index);
+			this.widgetIndex.remove(removed);
 		}
 
-		index = indexOf(this.toDeleteWidgetPool, widget);
-		if (-1 == index) {
-			this.toDeleteWidgetPool.add(widget);
+		if (null == this.toDeleteWidgetPool.put(widget)) {
 			this.saveToDeleteWidgetPoolToLocalStorage();
 		} else {
 			Log.warn(this, "Widget '" + widget.getWidgetId()
-					+ "' already exists in to delete widget list, replacing entry " + index + ".");
-
-			this.toDeleteWidgetPool.set(index, widget);
+					+ "' already exists in to delete widget list, replacing entry.");
 		}
 
 		this.nextWidgetAction = NextWidgetAction.DELETE;
@@ -351,10 +444,6 @@ public class WidgetManager {
 
 	private void addToProcessedInput(WidgetInput wi) {
 		this.processedInput.add(wi);
-
-		if (this.processedInput.size() > 50) {
-			this.processedInput.remove(0);
-		}
 	}
 
 	private void firstInputFromServer() {
@@ -396,38 +485,82 @@ public class WidgetManager {
 		}
 	}
 
-	private int indexOf(ArrayList<Widget> list, Widget widget) {
-		for (Widget w : list) {
-			if (w.getWidgetId().equals(widget.getWidgetId())) {
-				return list.indexOf(w);
-			}
-		}
-		return -1;
-	}
-
 	private boolean isProcessed(WidgetInput wi) {
-		if (this.processedInput.contains(wi)) {
-			return true;
-		}
-		return false;
+		return this.processedInput.contains(wi);
 	}
 
 	private void loadToDeleteWidgetPoolFromLocalStorage() {
 		ArrayList<String> widgetsSerialized = this.localStorage.loadList("WidgetManager-deletePool");
 		for ( String widgetSerialized : widgetsSerialized ) {
 			WidgetJson widgetJson = GenericJson.fromJson(widgetSerialized);
-			this.toDeleteWidgetPool.add( widgetJson.getWidget() );
+			
+			/*
+			 * Deleting a widget only needs its id, so the widget is not fully converted
+			 */
+			this.toDeleteWidgetPool.put( new Widget(widgetJson.getWidgetId(), "", "", null) );
 		}
 	}
 	
+	/**
+	 * Loads the ids of the cached widgets. The widgets are decoded only when first needed, by
+	 * {@link #getCachedWidget(String)}.
+	 */
 	private void loadWidgetCacheFromLocalStorage() {
-		ArrayList<String> widgetsSerialized = this.localStorage.loadList("WidgetManager-widgetcache");
-		for ( String widgetSerialized : widgetsSerialized ) {
-			WidgetJson widgetJson = GenericJson.fromJson(widgetSerialized);
-			Widget w = widgetJson.getWidget();
-			this.widgetCache.add( w );
-			this.widgetList.add( w );
-			
+		long start = System.currentTimeMillis();
+		for ( String widgetId : this.widgetCacheStorage.loadIds() ) {
+			this.undecodedCacheIds.add(widgetId);
+			this.unregisteredCacheIds.add(widgetId);
+		}
+		Log.debug(this, "Loaded widget cache index with " + this.undecodedCacheIds.size() + " widgets in " 
+				+ (System.currentTimeMillis() - start) + " ms.");
+	}
+	
+	/**
+	 * Gets a widget from the widget cache, decoding it from the local storage if it was not 
+	 * decoded yet.
+	 * 
+	 * @param widgetId The widget id.
+	 * @return The cached widget, or null if it is not cached.
+	 */
+	private Widget getCachedWidget(String widgetId) {
+		if ( this.undecodedCacheIds.remove(widgetId) ) {
+			WidgetJson widgetJson = this.widgetCacheStorage.get(widgetId);
+			if ( null != widgetJson ) {
+				Widget w = widgetJson.getWidget();
+				this.widgetCache.put( w );
+				this.widgetCacheFingerprints.put( w.getWidgetId(), 
+						widgetJson.hasFingerprint() ? widgetJson.getFingerprint() : w.getFingerprint() );
+			}
+		}
+		return this.widgetCache.get(widgetId);
+	}
+	
+	/**
+	 * Gets the fingerprint a widget had when it was cached.
+	 * 
+	 * @param widgetId The widget id.
+	 * @return The fingerprint, or null if the widget is not cached.
+	 */
+	private Integer getCachedFingerprint(String widgetId) {
+		this.getCachedWidget(widgetId);
+		return this.widgetCacheFingerprints.get(widgetId);
+	}
+	
+	/**
+	 * Registers the cached widgets targeted by the input that were not registered by the
+	 * application yet, as if they had been restored at startup.
+	 * 
+	 * @param inputList The input.
+	 */
+	private void registerCachedWidgets(ArrayList<WidgetInput> inputList) {
+		for ( WidgetInput widgetInput : inputList ) {
+			if ( this.unregisteredCacheIds.remove(widgetInput.getWidgetId()) ) {
+				Widget w = this.getCachedWidget(widgetInput.getWidgetId());
+				if ( null != w && null == this.widgetList.put(w) ) {
+					Log.debug(this, "Registering cached widget: " + w.getWidgetId());
+					this.widgetIndex.add(w);
+				}
+			}
 		}
 	}
 
@@ -437,65 +570,57 @@ public class WidgetManager {
 		/*
 		 * Save to cache
 		 */
-		int index = this.indexOf(this.widgetCache, widgetFromServer);
-		if ( -1 == index ) {
+		this.undecodedCacheIds.remove(widgetFromServer.getWidgetId());
+		if ( null == this.widgetCache.put(widgetFromServer) ) {
 			Log.warn(this, "Adding Widget '" + widgetFromServer.getWidgetId()
-					+ "' to widget cache.");// replacing entry " + index + ".");
-			this.widgetCache.add(widgetFromServer);
+					+ "' to widget cache.");
 		} else {
 			Log.warn(this, "Widget '" + widgetFromServer.getWidgetId()
-					+ "' already exists in widget cache. Replacing");// replacing entry " + index + ".");
-			this.widgetCache.set(index, widgetFromServer);
+					+ "' already exists in widget cache. Replacing");
 		}
-		this.saveWidgetCacheToLocalStorage();
+		this.widgetCacheFingerprints.put(widgetFromServer.getWidgetId(), widgetFromServer.getFingerprint());
+		this.wholeUploadRequired.remove(widgetFromServer.getWidgetId());
+		this.widgetCacheStorage.put(widgetFromServer, widgetFromServer.getFingerprint());
 		
 		/*
 		 * Remove from to add pool
 		 */
-		for (Widget widgetFromPool : this.toAddWidgetPool) {
-			if (widgetFromPool.getWidgetId().equals(widgetFromServer.getWidgetId())) {
-				this.toAddWidgetPool.remove(widgetFromPool);
-				break;
-			}
-		}
+		this.toAddWidgetPool.remove(widgetFromServer.getWidgetId());
 
 		/*
-		 * Go through all widgets
+		 * Find the local widget
 		 */
 		boolean changed = false;
-		Widget receivedWidget = null;
+		Widget receivedWidget = this.widgetList.get(widgetFromServer.getWidgetId());
 
-		for (Widget widget : this.widgetList) {
-			if (widgetFromServer.getWidgetId().equals(widget.getWidgetId())) {
+		if (null != receivedWidget) {
+			/*
+			 * Index the local options by id
+			 */
+			HashMap<String, WidgetOption> localOptions = new HashMap<String, WidgetOption>();
+			for (WidgetOption option : receivedWidget.getWidgetOptions()) {
+				localOptions.put(option.getWidgetOptionId(), option);
+			}
 
-				receivedWidget = widget;
+			/*
+			 * Go through all the options received
+			 */
+			for (WidgetOption optionFromServer : widgetFromServer.getWidgetOptions()) {
 
 				/*
-				 * Go through all the options received
+				 * Find the matching local widget option
 				 */
-				ArrayList<WidgetOption> options = widgetFromServer.getWidgetOptions();
-				for (WidgetOption optionFromServer : options) {
-
-					/*
-					 * Find the matching local widget option
-					 */
-					for (WidgetOption option : widget.getWidgetOptions()) {
-						if (option.getWidgetOptionId().equals(optionFromServer.getWidgetOptionId())) {
-
-							/*
-							 * If the ref code changed, update the local widget
-							 */
-							if (!optionFromServer.getReferenceCode().equals(
-									option.getReferenceCode())) {
-								option.setReferenceCode(optionFromServer.getReferenceCode());
-
-								changed = true;
-							}
-						}
-					}
+				WidgetOption option = localOptions.get(optionFromServer.getWidgetOptionId());
 
-				}
+				/*
+				 * If the ref code changed, update the local widget
+				 */
+				if (null != option && !optionFromServer.getReferenceCode().equals(
+						option.getReferenceCode())) {
+					option.setReferenceCode(optionFromServer.getReferenceCode());
 
+					changed = true;
+				}
 			}
 		}
 		if (changed) {
@@ -512,23 +637,17 @@ public class WidgetManager {
 		/*
 		 * Remove from to widget cache
 		 */
-		for (Widget widgetFromCache : this.widgetCache) {
-			if (widgetFromCache.getWidgetId().equals(widgetFromServer.getWidgetId())) {
-				this.widgetCache.remove(widgetFromCache);
-				this.saveWidgetCacheToLocalStorage();
-				break;
-			}
+		boolean undecoded = this.undecodedCacheIds.remove(widgetFromServer.getWidgetId());
+		if (null != this.widgetCache.remove(widgetFromServer.getWidgetId()) || undecoded) {
+			this.widgetCacheFingerprints.remove(widgetFromServer.getWidgetId());
+			this.widgetCacheStorage.remove(widgetFromServer.getWidgetId());
 		}
 		
 		/*
-		 * Remove from to add pool
+		 * Remove from to delete pool
 		 */
-		for (Widget widgetFromPool : this.toDeleteWidgetPool) {
-			if (widgetFromPool.getWidgetId().equals(widgetFromServer.getWidgetId())) {
-				this.toDeleteWidgetPool.remove(widgetFromPool);
-				this.saveToDeleteWidgetPoolToLocalStorage();
-				break;
-			}
+		if (null != this.toDeleteWidgetPool.remove(widgetFromServer.getWidgetId())) {
+			this.saveToDeleteWidgetPoolToLocalStorage();
 		}
 
 	}
@@ -572,7 +691,13 @@ public class WidgetManager {
 		/*
 		 * Trigger the input events on the widgets
 		 */
-		ArrayList<WidgetInput> notProcessed = InputEventHelper.triggerWidgetInputEvents(inputList, this.widgetList);
+		this.registerCachedWidgets(inputList);
+		ArrayList<WidgetInput> notProcessed = InputEventHelper.triggerWidgetInputEvents(inputList, this.widgetIndex);
+		if ( !this.inputDispatched && inputList.size() > 0 ) {
+			this.inputDispatched = true;
+			Log.info(this, "First input dispatched " + (System.currentTimeMillis() - this.startTime) 
+					+ " ms after startup.");
+		}
 		this.unprocessedInput.addAll(notProcessed);
 		this.processedInput.removeAll(notProcessed);
 
@@ -601,27 +726,44 @@ public class WidgetManager {
 					@Override
 					public void onFailure(Throwable caught) {
 						Log.warn(WidgetManager.this, "Could not get input from server.");
-						WidgetManager.this.currentInputRequestInterval *= 2;
-						Log.debugFinest(this, "Scheduling next input request in "
-								+ (WidgetManager.this.currentInputRequestInterval / 1000)
-								+ " seconds");
-						WidgetManager.this.timerInput
-								.schedule(WidgetManager.this.currentInputRequestInterval);
+						WidgetManager.this.inputPollingPolicy.onRequestFailure(System.currentTimeMillis());
+						WidgetManager.this.scheduleInputRequest();
 					}
 
 					@Override
 					public void onSuccess(ArrayList<WidgetInput> result) {
 						Log.debug(WidgetManager.this, "Reveived first input from server.");
+						WidgetManager.this.inputPollingPolicy.onRequestSuccess(System.currentTimeMillis(), result.size());
 						WidgetManager.this.onWidgetInput(result);
-						Log.debugFinest(this, "Scheduling next input request in "
-								+ (WidgetManager.this.currentInputRequestInterval / 1000)
-								+ " seconds");
-						WidgetManager.this.timerInput
-								.schedule(WidgetManager.this.currentInputRequestInterval);
+						WidgetManager.this.scheduleInputRequest();
 					}
 				});
 
 	}
+	
+	/**
+	 * Schedules the next input request, as decided by the input polling policy. 
+	 */
+	private void scheduleInputRequest() {
+		if ( this.inputPollingPolicy.isPaused() ) {
+			Log.debugFinest(this, "Input polling paused.");
+			this.timerInput.cancel();
+			return;
+		}
+		int interval = this.inputPollingPolicy.getNextInterval(System.currentTimeMillis());
+		Log.debugFinest(this, "Scheduling next input request in " + (interval / 1000) + " seconds");
+		this.timerInput.schedule(interval);
+	}
+	
+	/**
+	 * Sets the policy that decides when to ask the interaction manager for input. The new policy
+	 * is used from the next scheduled request on.
+	 * 
+	 * @param inputPollingPolicy The input polling policy.
+	 */
+	public void setInputPollingPolicy(InputPollingPolicy inputPollingPolicy) {
+		this.inputPollingPolicy = inputPollingPolicy;
+	}
 
 	private void periodicallySendWidgetsToServer() {
 		if (this.toAddWidgetPool.size() == 0 && this.toDeleteWidgetPool.size() == 0) {
@@ -629,6 +771,9 @@ public class WidgetManager {
 			this.timerWidget = null;
 			return;
 		}
+		
+		this.sentWidgetRequestInterval = this.currentWidgetRequestInterval;
+		this.widgetRequestFailed = false;
 
 		if (this.toAddWidgetPool.size() == 0) {
 			this.nextWidgetAction = NextWidgetAction.DELETE;
@@ -646,40 +791,71 @@ public class WidgetManager {
 			while ( it.hasNext() ) {
 				Widget w = it.next();
 				
-				int indexOnCache = this.indexOf(widgetCache, w);
-				if ( indexOnCache >= 0 ) {
-					String newWidget = WidgetJson.create(w).toJsonString();
-					String existingWidget = WidgetJson.create(this.widgetCache.get(indexOnCache)).toJsonString();
-					Log.warn(this, newWidget);
-					Log.warn(this, existingWidget);
-					if ( newWidget.equals(existingWidget) ) {
-						Log.warn(this, "No changes found in widget " + w.getWidgetId() + ". Skipping update on server.");
+				Integer cachedFingerprint = this.getCachedFingerprint(w.getWidgetId());
+				if ( null != cachedFingerprint ) {
+					if ( cachedFingerprint.intValue() == w.getFingerprint() ) {
+						Log.debug(this, "No changes found in widget " + w.getWidgetId() + ". Skipping update on server.");
 						
 						it.remove();
 					} else {
-						Log.warn(this, "Found changes in widget " + w.getWidgetId() + ". Updating server.");
+						Log.debug(this, "Found changes in widget " + w.getWidgetId() + ". Updating server.");
 					}
 				}
 				
 			}
 			
-			if (this.toAddWidgetPool.size() > 0) {
+			/*
+			 * Widgets that the server already has are sent as deltas, the others whole.
+			 */
+			ArrayList<Widget> wholeWidgets = new ArrayList<Widget>();
+			final ArrayList<WidgetDelta> deltas = new ArrayList<WidgetDelta>();
+			for (Widget w : this.toAddWidgetPool) {
+				WidgetDelta delta = this.createDelta(w);
+				if ( null == delta ) {
+					wholeWidgets.add(w);
+				} else {
+					deltas.add(delta);
+				}
+			}
+			
+			if (deltas.size() > 0) {
+				
+				/*
+				 * Send the changes to the server.
+				 */
+				this.communicator.updateWidgetsOnServer(this.placeId, this.applicationId,
+						this.applicationId, deltas,
+						new AsyncCallback<ArrayList<Widget>>() {
+
+							@Override
+							public void onFailure(Throwable caught) {
+								WidgetManager.this.onDeltaFailure(deltas, caught);
+							}
+
+							@Override
+							public void onSuccess(ArrayList<Widget> result) {
+								for (Widget widget : result) {
+									WidgetManager.this.onWidgetAdd(widget);
+								}
+								WidgetManager.this.widgetCacheStorage.flush();
+								WidgetManager.this.onWidgetRequestSuccess();
+							}
+
+						});
+			}
+			
+			if (wholeWidgets.size() > 0) {
 
 				/*
 				 * Send the current set of widgets to the server.
 				 */
 				this.communicator.addWidgetToServer(this.placeId, this.applicationId,
-						this.applicationId, this.toAddWidgetPool,
+						this.applicationId, wholeWidgets,
 						new AsyncCallback<ArrayList<Widget>>() {
 
 							@Override
 							public void onFailure(Throwable caught) {
-								WidgetManager.this.currentWidgetRequestInterval *= 2;
-								timerWidget
-										.schedule(WidgetManager.this.currentWidgetRequestInterval);
-								Log.debugFinest(this, "Scheduling next widget request in "
-										+ (WidgetManager.this.currentWidgetRequestInterval / 1000)
-										+ " seconds");
+								WidgetManager.this.onWidgetRequestFailure();
 							}
 
 							@Override
@@ -687,12 +863,8 @@ public class WidgetManager {
 								for (Widget widget : result) {
 									WidgetManager.this.onWidgetAdd(widget);
 								}
-								WidgetManager.this.currentWidgetRequestInterval = INPUT_REQUEST_INTERVAL;
-								timerWidget
-										.schedule(WidgetManager.this.currentWidgetRequestInterval);
-								Log.debugFinest(this, "Scheduling next widget request in "
-										+ (WidgetManager.this.currentWidgetRequestInterval / 1000)
-										+ " seconds");
+								WidgetManager.this.widgetCacheStorage.flush();
+								WidgetManager.this.onWidgetRequestSuccess();
 							}
 
 						});
@@ -706,17 +878,12 @@ public class WidgetManager {
 				 * Send the current set of widgets to the server.
 				 */
 				this.communicator.removeWidget(this.placeId, this.applicationId,
-						this.applicationId, this.toDeleteWidgetPool,
+						this.applicationId, this.toDeleteWidgetPool.toList(),
 						new AsyncCallback<ArrayList<Widget>>() {
 
 							@Override
 							public void onFailure(Throwable caught) {
-								WidgetManager.this.currentWidgetRequestInterval *= 2;
-								timerWidget
-										.schedule(WidgetManager.this.currentWidgetRequestInterval);
-								Log.debugFinest(this, "Scheduling next widget request in "
-										+ (WidgetManager.this.currentWidgetRequestInterval / 1000)
-										+ " seconds");
+								WidgetManager.this.onWidgetRequestFailure();
 							}
 
 							@Override
@@ -724,6 +891,7 @@ public class WidgetManager {
 								for (Widget widget : result) {
 									WidgetManager.this.onWidgetDelete(widget);
 								}
+								WidgetManager.this.widgetCacheStorage.flush();
 								timerWidget
 										.schedule(WidgetManager.this.currentWidgetRequestInterval);
 								Log.debugFinest(this, "Scheduling next widget request in "
@@ -747,6 +915,98 @@ public class WidgetManager {
 
 	}
 
+	/**
+	 * Handles a failed delta upload. If the server's versions don't match, the widgets are sent
+	 * whole in the next request. If the server doesn't know the delta request (bad request, not 
+	 * found, method not allowed, or not implemented), every widget is sent whole from now on, and
+	 * this is remembered. Other failures (e.g., the server is unreachable) are retried later, as 
+	 * deltas.
+	 */
+	private void onDeltaFailure(ArrayList<WidgetDelta> deltas, Throwable caught) {
+		int status = caught instanceof HttpServerException ? ((HttpServerException) caught).getStatus() : 0;
+		
+		if ( HTTP_CONFLICT == status ) {
+			Log.debug(this, "Server widget versions don't match. Sending " + deltas.size() + " widgets whole.");
+			for (WidgetDelta delta : deltas) {
+				this.wholeUploadRequired.add(delta.getWidgetId());
+			}
+		} else if ( 400 == status || 404 == status || 405 == status || 501 == status ) {
+			Log.info(this, "The interaction manager does not support widget deltas (" + status 
+					+ "). Sending widgets whole.");
+			this.deltasUnsupportedTime = System.currentTimeMillis();
+			this.localStorage.setString(DELTAS_UNSUPPORTED_ITEM, "" + this.deltasUnsupportedTime);
+		} else {
+			this.onWidgetRequestFailure();
+			return;
+		}
+		this.timerWidget.schedule(this.currentWidgetRequestInterval);
+	}
+	
+	/**
+	 * Resets the widget request interval after a successful widget request, unless another 
+	 * request sent together with it failed, and schedules the next widget request.
+	 */
+	private void onWidgetRequestSuccess() {
+		if ( !this.widgetRequestFailed ) {
+			this.currentWidgetRequestInterval = WIDGET_REQUEST_INTERVAL;
+		}
+		this.timerWidget.schedule(this.currentWidgetRequestInterval);
+		Log.debugFinest(this, "Scheduling next widget request in "
+				+ (this.currentWidgetRequestInterval / 1000) + " seconds");
+	}
+	
+	/**
+	 * Doubles the widget request interval after a failed widget request, and schedules the next
+	 * widget request. The interval is doubled from the one the request was sent with, so it is
+	 * doubled once even if other requests sent together with it failed too.
+	 */
+	private void onWidgetRequestFailure() {
+		this.widgetRequestFailed = true;
+		this.currentWidgetRequestInterval = this.sentWidgetRequestInterval * 2;
+		this.timerWidget.schedule(this.currentWidgetRequestInterval);
+		Log.debugFinest(this, "Scheduling next widget request in "
+				+ (this.currentWidgetRequestInterval / 1000) + " seconds");
+	}
+	
+	/**
+	 * Checks if widget deltas may be sent to the interaction manager.
+	 */
+	private boolean isDeltaUploadEnabled() {
+		if ( 0 == this.deltasUnsupportedTime ) {
+			return true;
+		}
+		if ( System.currentTimeMillis() - this.deltasUnsupportedTime > DELTAS_RETRY_PERIOD ) {
+			Log.debug(this, "Trying widget deltas again.");
+			this.deltasUnsupportedTime = 0;
+			this.localStorage.removeItem(DELTAS_UNSUPPORTED_ITEM);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the delta between the version of a widget the server has (the cached widget) and
+	 * the specified widget.
+	 * 
+	 * @param widget The widget to send.
+	 * @return The delta, or null if the widget must be sent whole.
+	 */
+	private WidgetDelta createDelta(Widget widget) {
+		if ( !this.isDeltaUploadEnabled() || this.wholeUploadRequired.contains(widget.getWidgetId()) ) {
+			return null;
+		}
+		Widget cached = this.getCachedWidget(widget.getWidgetId());
+		Integer cachedFingerprint = this.widgetCacheFingerprints.get(widget.getWidgetId());
+		
+		/*
+		 * The cached widget must not have changed since it was received from the server
+		 */
+		if ( null == cached || null == cachedFingerprint || cached.getFingerprint() != cachedFingerprint.intValue() ) {
+			return null;
+		}
+		return WidgetDelta.create(cached, widget);
+	}
+	
 	private void processPendingInput( Widget widget ) {
 		/*
 		 * check if we have pending input
@@ -777,14 +1037,6 @@ public class WidgetManager {
 		}
 		this.localStorage.saveList("WidgetManager-deletePool", widgetsSerialized);
 	}
-	
-	private void saveWidgetCacheToLocalStorage() {
-		ArrayList<String> widgetsSerialized = new ArrayList<String>();
-		for ( Widget widget : this.widgetCache ) {
-			widgetsSerialized.add( WidgetJson.create(widget).toJsonString() );
-		}
-		this.localStorage.saveList("WidgetManager-widgetcache", widgetsSerialized);
-	}
 
 	private void setTimeStamp(long timeStamp) {
 		this.localStorage.setString(TIMESTAMP, "" + timeStamp);
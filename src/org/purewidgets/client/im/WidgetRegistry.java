@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.purewidgets.shared.im.Widget;
+
+/**
+ * A collection of widgets keyed by widget id. Lookup, replace and remove take constant time, and
+ * iteration follows the order in which the widgets were first added (replacing a widget keeps
+ * its position).
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class WidgetRegistry implements Iterable<Widget> {
+
+	private LinkedHashMap<String, Widget> widgets;
+
+	/**
+	 * Creates an empty WidgetRegistry.
+	 */
+	public WidgetRegistry() {
+		this.widgets = new LinkedHashMap<String, Widget>();
+	}
+
+	/**
+	 * Adds a widget, replacing the widget with the same id, if there is one.
+	 *
+	 * @param widget The widget to add.
+	 * @return The widget that was replaced, or null if there was none.
+	 */
+	public Widget put(Widget widget) {
+		return this.widgets.put(widget.getWidgetId(), widget);
+	}
+
+	/**
+	 * Gets the widget with the specified id.
+	 *
+	 * @param widgetId The widget id.
+	 * @return The widget, or null if there is none.
+	 */
+	public Widget get(String widgetId) {
+		return this.widgets.get(widgetId);
+	}
+
+	/**
+	 * Checks if there is a widget with the specified id.
+	 *
+	 * @param widgetId The widget id.
+	 * @return true if there is a widget with the specified id.
+	 */
+	public boolean contains(String widgetId) {
+		return this.widgets.containsKey(widgetId);
+	}
+
+	/**
+	 * Removes the widget with the specified id.
+	 *
+	 * @param widgetId The widget id.
+	 * @return The widget that was removed, or null if there was none.
+	 */
+	public Widget remove(String widgetId) {
+		return this.widgets.remove(widgetId);
+	}
+
+	/**
+	 * Gets the number of widgets.
+	 *
+	 * @return The number of widgets.
+	 */
+	public int size() {
+		return this.widgets.size();
+	}
+
+	/**
+	 * Returns a new list with the widgets, in order.
+	 *
+	 * @return A list with the widgets.
+	 */
+	public ArrayList<Widget> toList() {
+		return new ArrayList<Widget>(this.widgets.values());
+	}
+
+	/**
+	 * Returns an iterator over the widgets, in order. The iterator supports removal.
+	 */
+	@Override
+	public Iterator<Widget> iterator() {
+		return this.widgets.values().iterator();
+	}
+}
@@ -0,0 +1,190 @@
+package org.purewidgets.client.im.json;
+
+import java.util.ArrayList;
+
+import org.purewidgets.shared.im.WidgetInput;
+
+/**
+ * A WidgetInput backed by a WidgetInputJson, whose fields are converted from the JSON object
+ * only when they are first read. Fields that are set are not read from the JSON object.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+class LazyWidgetInput extends WidgetInput {
+
+	private static final int USER_ID = 1;
+
+	private static final int NICKNAME = 1 << 1;
+
+	private static final int TIME_STAMP = 1 << 2;
+
+	private static final int WIDGET_ID = 1 << 3;
+
+	private static final int WIDGET_OPTION_ID = 1 << 4;
+
+	private static final int PARAMETERS = 1 << 5;
+
+	private static final int AGE = 1 << 6;
+
+	private static final int INPUT_MECHANISM = 1 << 7;
+
+	private static final int APPLICATION_ID = 1 << 8;
+
+	private WidgetInputJson json;
+
+	/**
+	 * The fields already converted or set.
+	 */
+	private int loaded;
+
+	LazyWidgetInput(WidgetInputJson json) {
+		this.json = json;
+	}
+
+	private boolean load(int field) {
+		if ( 0 != (this.loaded & field) ) {
+			return false;
+		}
+		this.loaded |= field;
+		return true;
+	}
+
+	@Override
+	public String getUserId() {
+		if ( this.load(USER_ID) ) {
+			super.setUserId(this.json.getUserId());
+		}
+		return super.getUserId();
+	}
+
+	@Override
+	public void setUserId(String userId) {
+		this.loaded |= USER_ID;
+		super.setUserId(userId);
+	}
+
+	@Override
+	public String getNickname() {
+		if ( this.load(NICKNAME) ) {
+			/*
+			 * Anonymous input has no nickname; keep the default
+			 */
+			String nickname = this.json.getNickname();
+			if ( null != nickname ) {
+				super.setNickname(nickname);
+			}
+		}
+		return super.getNickname();
+	}
+
+	@Override
+	public void setNickname(String nickname) {
+		this.loaded |= NICKNAME;
+		super.setNickname(nickname);
+	}
+
+	@Override
+	public String getTimeStamp() {
+		if ( this.load(TIME_STAMP) ) {
+			super.setTimeStamp(this.json.getTimeStamp());
+		}
+		return super.getTimeStamp();
+	}
+
+	@Override
+	public void setTimeStamp(String timeStamp) {
+		this.loaded |= TIME_STAMP;
+		super.setTimeStamp(timeStamp);
+	}
+
+	@Override
+	public String getApplicationId() {
+		if ( this.load(APPLICATION_ID) ) {
+			/*
+			 * Only the input of a whole place has an application id; keep the default otherwise
+			 */
+			String applicationId = this.json.getApplicationId();
+			if ( null != applicationId ) {
+				super.setApplicationId(applicationId);
+			}
+		}
+		return super.getApplicationId();
+	}
+
+	@Override
+	public void setApplicationId(String applicationId) {
+		this.loaded |= APPLICATION_ID;
+		super.setApplicationId(applicationId);
+	}
+
+	@Override
+	public String getWidgetId() {
+		if ( this.load(WIDGET_ID) ) {
+			super.setWidgetId(this.json.getWidgetId());
+		}
+		return super.getWidgetId();
+	}
+
+	@Override
+	public void setWidgetId(String widgetId) {
+		this.loaded |= WIDGET_ID;
+		super.setWidgetId(widgetId);
+	}
+
+	@Override
+	public String getWidgetOptionId() {
+		if ( this.load(WIDGET_OPTION_ID) ) {
+			super.setWidgetOptionId(this.json.getWidgetOptionId());
+		}
+		return super.getWidgetOptionId();
+	}
+
+	@Override
+	public void setWidgetOptionId(String widgetOptionId) {
+		this.loaded |= WIDGET_OPTION_ID;
+		super.setWidgetOptionId(widgetOptionId);
+	}
+
+	@Override
+	public ArrayList<String> getParameters() {
+		if ( this.load(PARAMETERS) ) {
+			super.setParameters(this.json.getParameters());
+		}
+		return super.getParameters();
+	}
+
+	@Override
+	public void setParameters(ArrayList<String> parameters) {
+		this.loaded |= PARAMETERS;
+		super.setParameters(parameters);
+	}
+
+	@Override
+	public int getAge() {
+		if ( this.load(AGE) ) {
+			super.setAge(this.json.getAge());
+		}
+		return super.getAge();
+	}
+
+	@Override
+	public void setAge(int age) {
+		this.loaded |= AGE;
+		super.setAge(age);
+	}
+
+	@Override
+	public String getInputMechanism() {
+		if ( this.load(INPUT_MECHANISM) ) {
+			super.setInputMechanism(this.json.getInputMechanism());
+		}
+		return super.getInputMechanism();
+	}
+
+	@Override
+	public void setInputMechanism(String inputMechanism) {
+		this.loaded |= INPUT_MECHANISM;
+		super.setInputMechanism(inputMechanism);
+	}
+}
@@ -0,0 +1,122 @@
+package org.purewidgets.client.im.json;
+
+import org.purewidgets.client.json.GenericJson;
+import org.purewidgets.shared.im.WidgetDelta;
+import org.purewidgets.shared.im.WidgetOption;
+import org.purewidgets.shared.im.WidgetParameter;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * WidgetDeltaJson is a Json DTO for sending the changes to a widget to the interaction manager server. 
+ * 
+ * @author "Jorge C. S. Cardoso"
+ * @see org.purewidgets.shared.im.WidgetDelta
+ */
+public class WidgetDeltaJson extends GenericJson {
+	
+	// Overlay types always have protected, zero-arg ctors
+	protected WidgetDeltaJson() {
+	}
+	
+	/**
+	 * Creates a WidgetDeltaJson object based on a WidgetDelta object. Empty lists of changes 
+	 * are left out.
+	 * 
+	 * @param delta The WidgetDelta to convert.
+	 * @return The WidgetDeltaJson converted object.
+	 */
+	public static WidgetDeltaJson create(WidgetDelta delta) {
+		WidgetDeltaJson deltaJson = GenericJson.getNew();
+		
+		deltaJson.setWidgetId(delta.getWidgetId());
+		deltaJson.setBaseVersion(delta.getBaseVersion());
+		deltaJson.setVersion(delta.getVersion());
+		
+		if ( delta.isDescriptionsChanged() ) {
+			deltaJson.setDescriptions(delta.getControlType(), delta.getShortDescription(), delta.getLongDescription());
+		}
+		
+		for ( WidgetOption option : delta.getAddedOptions() ) {
+			deltaJson.add("addedOptions", WidgetOptionJson.create(option));
+		}
+		for ( WidgetOption option : delta.getChangedOptions() ) {
+			deltaJson.add("changedOptions", WidgetOptionJson.create(option));
+		}
+		for ( String optionId : delta.getRemovedOptionIds() ) {
+			deltaJson.add("removedOptions", optionId);
+		}
+		
+		for ( WidgetParameter parameter : delta.getAddedParameters() ) {
+			deltaJson.add("addedParameters", WidgetParameterJson.create(parameter));
+		}
+		for ( WidgetParameter parameter : delta.getChangedParameters() ) {
+			deltaJson.add("changedParameters", WidgetParameterJson.create(parameter));
+		}
+		for ( String name : delta.getRemovedParameterNames() ) {
+			deltaJson.add("removedParameters", name);
+		}
+		return deltaJson;
+	}
+	
+	/**
+	 * Adds an element to one of the lists of changes, creating the list if needed.
+	 */
+	private final native void add(String list, JavaScriptObject element) /*-{
+		if (typeof (this[list]) == "undefined") {
+			this[list] = new Array();
+		}
+		this[list].push(element);
+	}-*/;
+	
+	/**
+	 * Adds an element to one of the lists of changes, creating the list if needed.
+	 */
+	private final native void add(String list, String element) /*-{
+		if (typeof (this[list]) == "undefined") {
+			this[list] = new Array();
+		}
+		this[list].push(element);
+	}-*/;
+	
+	/**
+	 * Sets the version of the widget the delta applies to.
+	 * 
+	 * @param baseVersion The version.
+	 */
+	public final native void setBaseVersion(int baseVersion) /*-{
+		this.baseVersion = baseVersion;
+	}-*/;
+	
+	/**
+	 * Sets the new control type and descriptions of the widget.
+	 * 
+	 * @param controlType The control type.
+	 * @param shortDescription The short description.
+	 * @param longDescription The long description.
+	 */
+	public final native void setDescriptions(String controlType, String shortDescription, String longDescription) /*-{
+		this.descriptionsChanged = true;
+		this.controlType = controlType;
+		this.shortDescription = shortDescription;
+		this.longDescription = longDescription;
+	}-*/;
+	
+	/**
+	 * Sets the version of the widget after the delta is applied.
+	 * 
+	 * @param version The version.
+	 */
+	public final native void setVersion(int version) /*-{
+		this.version = version;
+	}-*/;
+	
+	/**
+	 * Sets the id of the widget.
+	 * 
+	 * @param id The id of the widget.
+	 */
+	public final native void setWidgetId(String id) /*-{
+		this.widgetId = id;
+	}-*/;
+}
@@ -0,0 +1,63 @@
+package org.purewidgets.client.im.json;
+
+import java.util.ArrayList;
+
+import org.purewidgets.client.json.GenericJson;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+
+/**
+ * WidgetDeltaListJson is a Json DTO for sending a list of widget deltas to the interaction manager server. 
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class WidgetDeltaListJson extends GenericJson {
+
+	// Overlay types always have protected, zero-arg ctors
+	protected WidgetDeltaListJson() {
+	}
+	
+	/**
+	 * Sets the list of deltas represented by this WidgetDeltaListJson, from an
+	 * ArrayList of deltas.
+	 * 
+	 * @param deltas The list of deltas to set.
+	 */
+	public final void setDeltasFromArrayList(ArrayList<WidgetDeltaJson> deltas) {
+		JsArray<WidgetDeltaJson> jsArray = JavaScriptObject.createArray().cast();
+
+		for (WidgetDeltaJson deltaJson : deltas) {
+			jsArray.push(deltaJson);
+		}
+		this.setDeltas(jsArray);
+	}
+
+	/**
+	 * Sets the id of the application the widgets belong to.
+	 * 
+	 * @param applicationId The id of the application.
+	 */
+	public final native void setApplicationId(String applicationId) /*-{
+		this.applicationId = applicationId;
+	}-*/;
+
+	/**
+	 * Sets the list of deltas from a JsArray.
+	 * 
+	 * @param deltas The list of deltas.
+	 */
+	public final native void setDeltas(JsArray<WidgetDeltaJson> deltas) /*-{
+		this.deltas = deltas;
+	}-*/;
+
+	/**
+	 * Sets the id of the place of the application the widgets belong to.
+	 * 
+	 * @param placeId The id of the place.
+	 */
+	public final native void setPlaceId(String placeId) /*-{
+		this.placeId = placeId;
+	}-*/;
+}
@@ -44,19 +44,13 @@ public class WidgetInputJson extends GenericJson {
 	/**
 	 * Gets the WidgetInput object that this WidgetInputJson object is representing.
 	 * 
+	 * The fields of the returned WidgetInput are converted from this object only when they are
+	 * first read.
+	 * 
 	 * @return The WidgetInput object that this WidgetInputJson object is representing.
 	 */	
 	public final WidgetInput getWidgetInput() {
-		WidgetInput wi = new WidgetInput();
-		wi.setUserId(this.getUserId());
-		wi.setNickname(this.getNickname());
-		wi.setTimeStamp(this.getTimeStamp());
-		wi.setWidgetId(this.getWidgetId());
-		wi.setWidgetOptionId(this.getWidgetOptionId());
-		wi.setParameters(this.getParameters());
-		wi.setAge(this.getAge());
-		wi.setInputMechanism(this.getInputMechanism());
-		return wi;
+		return new LazyWidgetInput(this);
 	}
 
 	
@@ -81,11 +75,15 @@ public class WidgetInputJson extends GenericJson {
 	/**
 	 * Gets an ArrayList with the parameters of this widget input.
 	 * 
-	 * @return An ArrayList with the parameters of this widget input.
+	 * @return An ArrayList with the parameters of this widget input. Empty if the input has no 
+	 * parameters field.
 	 */		
 	public final ArrayList<String> getParameters() {
 		JsArrayString jsonArray = getParametersAsJsArrayString();
 		ArrayList<String> p = new ArrayList<String>();// [jsonArray.length()];
+		if ( null == jsonArray ) {
+			return p;
+		}
 		for (int i = 0; i < jsonArray.length(); i++) {
 			p.add(jsonArray.get(i));
 		}
@@ -131,6 +129,16 @@ public class WidgetInputJson extends GenericJson {
 		return this.timeStamp;
 	}-*/;
 
+	/**
+	 * Gets the id of the application to which this widget input is directed. It is set only in
+	 * the input of a whole place.
+	 * 
+	 * @return The id of the application to which this widget input is directed.
+	 */		
+	public final native String getApplicationId() /*-{
+		return this.applicationId;
+	}-*/;
+	
 	/**
 	 * Gets the id of the widget to which this widget input is directed.
 	 * 
@@ -59,6 +59,25 @@ public class WidgetInputListJson extends GenericJson {
 		return inputs;
 	}
 
+	/**
+	 * Gets the sequence number of this list, when it was pushed through the input channel.
+	 * The interaction manager numbers the lists it pushes to each application consecutively.
+	 * 
+	 * @return The sequence number.
+	 */
+	public final native double getSequence() /*-{
+		return this.sequence;
+	}-*/;
+	
+	/**
+	 * Checks if this list has a sequence number.
+	 * 
+	 * @return true if this list has a sequence number.
+	 */
+	public final native boolean hasSequence() /*-{
+		return typeof (this.sequence) == "number";
+	}-*/;
+	
 	/**
 	 * Gets a JsArray with the list of WidgetInputJson
 	 * 
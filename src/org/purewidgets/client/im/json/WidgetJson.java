@@ -111,6 +111,25 @@ public class WidgetJson extends GenericJson {
 		return this.controlType;
 	}-*/;
 
+	/**
+	 * Gets the content fingerprint stored with this widget (only used in the local widget cache).
+	 * 
+	 * @return The content fingerprint.
+	 * @see org.purewidgets.shared.im.Widget#getFingerprint()
+	 */
+	public final native int getFingerprint() /*-{
+		return this.fingerprint;
+	}-*/;
+	
+	/**
+	 * Checks if this widget has a stored content fingerprint.
+	 * 
+	 * @return true if this widget has a stored content fingerprint.
+	 */
+	public final native boolean hasFingerprint() /*-{
+		return typeof (this.fingerprint) == "number";
+	}-*/;
+
 	/**
 	 * Gets the long description of the widget.
 	 * @return The long description of the widget.
@@ -226,6 +245,15 @@ public class WidgetJson extends GenericJson {
 		this.controlType = type;
 	}-*/;
 
+	/**
+	 * Sets the content fingerprint stored with this widget (only used in the local widget cache).
+	 * 
+	 * @param fingerprint The content fingerprint.
+	 */
+	public final native void setFingerprint(int fingerprint) /*-{
+		this.fingerprint = fingerprint;
+	}-*/;
+
 	/**
 	 * Sets the long description of this widget.
 	 * 
@@ -24,11 +24,14 @@ public abstract class GenericJson extends JavaScriptObject {
 
 	/**
 	 * Convers a JSON string to a JavaScriptObject of the specified class.
+	 * 
+	 * The string is parsed with the browser's native JSON parser, so it must be strict JSON.
+	 * 
 	 * @param json The JSON string.
 	 * @return A JavaScriptObject 
 	 */
 	public final static native <T> T fromJson(String json) /*-{
-		return eval('(' + json + ')');
+		return JSON.parse(json);
 	}-*/;
 
 	/**
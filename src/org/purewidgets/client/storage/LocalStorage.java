@@ -8,6 +8,8 @@ import java.util.List;
 
 import org.purewidgets.shared.logging.Log;
 
+import com.google.gwt.core.client.JsArrayString;
+
 /**
  * 
  * LocalStorage provides an application specific local storage, guaranteeing that there is no name collisions between 
@@ -269,6 +271,41 @@ public class LocalStorage {
 		}
 	}
 	
+	/**
+	 * Gets the keys of the items in this local storage that begin with the specified string.
+	 * 
+	 * @param prefix The string the keys begin with.
+	 * @return The keys, without the local storage id.
+	 */
+	public ArrayList<String> getItems(String prefix) {
+		JsArrayString keys = org.purewidgets.client.storage.js.LocalStorageJs.getKeys(this.storageId+"-"+prefix);
+		
+		ArrayList<String> items = new ArrayList<String>();
+		for ( int i = 0; i < keys.length(); i++ ) {
+			items.add(keys.get(i).substring(this.storageId.length()+1));
+		}
+		return items;
+	}
+	
+	/**
+	 * Adds a listener for the changes made to this local storage by other browser windows, tabs, 
+	 * or frames. Changes made by this browser context are not notified. 
+	 * 
+	 * @param listener The listener.
+	 */
+	public void addListener(final LocalStorageListener listener) {
+		final String prefix = this.storageId+"-";
+		org.purewidgets.client.storage.js.LocalStorageJs.addListener(new LocalStorageListener() {
+
+			@Override
+			public void onItemChanged(String item, String newValue) {
+				if ( item.startsWith(prefix) ) {
+					listener.onItemChanged(item.substring(prefix.length()), newValue);
+				}
+			}
+		});
+	}
+	
 	/**
 	 * Clears the local storage associated with the application.
 	 */
@@ -0,0 +1,22 @@
+/**
+ * 
+ */
+package org.purewidgets.client.storage;
+
+/**
+ * The listener interface for receiving changes made to the local storage by other browser 
+ * windows, tabs, or frames of the same origin.
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public interface LocalStorageListener {
+	
+	/**
+	 * Called when an item of the local storage was changed by another browser context.
+	 * 
+	 * @param item The key of the item.
+	 * @param newValue The new value, or null if the item was removed.
+	 */
+	public void onItemChanged(String item, String newValue);
+}
@@ -1,6 +1,9 @@
 package org.purewidgets.client.storage.js;
 
+import org.purewidgets.client.storage.LocalStorageListener;
+
 import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayString;
 
 /**
  * LocalStorageJs provides an interface to the LocalStorage Javascript object. 
@@ -73,4 +76,35 @@ public class LocalStorageJs extends JavaScriptObject {
 		localStorage.removeItem(item);
 	}-*/;
 
+	/**
+	 * Gets the keys of the localstorage items that begin with a specified string.
+	 * 
+	 * @param prefix The string the keys begin with.
+	 * @return The keys.
+	 */
+	public static native JsArrayString getKeys(String prefix) /*-{
+		var keys = Array();
+		for ( var i = 0, l = localStorage.length; i < l; i++) {
+			var key = localStorage.key(i);
+			if (key.indexOf(prefix) == 0) {
+				keys.push(key);
+			}
+		}
+		return keys;
+	}-*/;
+
+	/**
+	 * Adds a listener for the changes made to the localstorage by other windows (the storage
+	 * event).
+	 * 
+	 * @param listener The listener, which receives the full keys of the items changed.
+	 */
+	public static native void addListener(LocalStorageListener listener) /*-{
+		$wnd.addEventListener("storage", $entry(function(event) {
+			if (event.key != null) {
+				listener.@org.purewidgets.client.storage.LocalStorageListener::onItemChanged(Ljava/lang/String;Ljava/lang/String;)(event.key, event.newValue);
+			}
+		}), false);
+	}-*/;
+
 }
@@ -4,6 +4,10 @@
 package org.purewidgets.server.application;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
@@ -20,6 +24,7 @@ import org.purewidgets.server.storage.ServerStorage;
 import org.purewidgets.shared.application.Constants;
 import org.purewidgets.shared.im.InputEventHelper;
 import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.im.WidgetIndex;
 import org.purewidgets.shared.im.WidgetInput;
 import org.purewidgets.shared.logging.Log;
 
@@ -98,8 +103,50 @@ public class PDApplication {
 	@NotPersistent
 	private ArrayList<Widget> widgets;
 	
+	/**
+	 * The index of the widgets by widget id, used to dispatch input.
+	 */
+	@NotPersistent
+	private WidgetIndex widgetIndex;
+	
+	/**
+	 * The widgets registered on the interaction manager in previous runs, persisted in the 
+	 * datastore.
+	 */
+	@NotPersistent
+	private PersistentWidgetRegistry widgetRegistry;
+	
+	/**
+	 * The ids of the widgets restored from the registry that the application has not added 
+	 * again during this run.
+	 */
+	@NotPersistent
+	private HashSet<String> restoredWidgetIds;
+	
+	/**
+	 * True while widget additions and removals are being buffered, to be sent to the 
+	 * server in batch by {@link #flushWidgets()}.
+	 */
+	@NotPersistent
+	private boolean coalescing;
+	
+	/**
+	 * The buffered widget additions, by widget id.
+	 */
+	@NotPersistent
+	private LinkedHashMap<String, Widget> pendingAdditions;
 	
-	private static PDApplication current;
+	/**
+	 * The buffered widget removals, by widget id.
+	 */
+	@NotPersistent
+	private LinkedHashMap<String, Widget> pendingRemovals;
+	
+	
+	/**
+	 * The application running on the current thread.
+	 */
+	private static final ThreadLocal<PDApplication> current = new ThreadLocal<PDApplication>();
 	
 	protected PDApplication (String placeId, String appId, PersistenceManager pm, PDApplicationLifeCycle acl) {
 		this.placeId = placeId;
@@ -112,35 +159,74 @@ public class PDApplication {
 	private void init() {
 		Log.info(this, "Initing application " + this.appId);
 		PDApplication.setCurrent(this);
-		this.widgets = new ArrayList<Widget>();
+		this.coalescing = false;
+		this.pendingAdditions = new LinkedHashMap<String, Widget>();
+		this.pendingRemovals = new LinkedHashMap<String, Widget>();
 		this.remoteStorage = ServerStorage.get(placeId+"-"+appId);
+		this.remoteStorage.open();
+		
+		/*
+		 * Rebuild the routing index from the widgets registered in previous runs. The application 
+		 * replaces them with its own widgets when it adds them again.
+		 */
+		this.widgetRegistry = PersistentWidgetRegistry.load(this.remoteStorage);
+		this.widgets = this.widgetRegistry.getWidgets();
+		this.widgetIndex = new WidgetIndex(this.widgets);
+		this.restoredWidgetIds = new HashSet<String>();
+		for ( Widget widget : this.widgets ) {
+			this.restoredWidgetIds.add(widget.getWidgetId());
+		}
+		Log.debug(this, "Restored " + this.widgets.size() + " registered widgets.");
 		//WidgetManager.get().setWidgetList(remoteStorage.loadWidgets(this.applicationLifeCycle, persistenceManager));
 		
 		String interactionManager = this.remoteStorage.getString(Constants.INTERACTION_MANAGER_URL_PARAMETER_NAME, Constants.INTERACTIONMANAGER_ADDRESS);
 		Log.info(this, "Using interaction manager: " + interactionManager);
 		serverCommunicator = new InteractionManager(this.remoteStorage, this.placeId, this.appId);
 		serverCommunicator.setInteractionServerUrl(interactionManager);
+		serverCommunicator.setPlaceInput(Boolean.parseBoolean(
+				this.remoteStorage.getString(Constants.PLACE_INPUT_PARAMETER_NAME, "false")));
 
 	}
 	
 	public void run() {
 		Log.info(this, "Running application " + this.appId);
-	    	
-//		Log.debug(this, "Triggering 'start' event");
-//		this.applicationLifeCycle.start();
-//		
-		Log.debug(this, "Asking for input");
-		ArrayList<WidgetInput> inputList = serverCommunicator.askForInputFromServer();
-		Log.debug(this, "Triggering action events");
-		InputEventHelper.triggerWidgetInputEvents(inputList, this.widgets);
-		
-		Log.debug(this, "Triggering 'finish' event");
-		this.applicationLifeCycle.onPDApplicationEnded();
 		
-		PDApplication.setCurrent(null);
-		//remoteStorage.saveWidgets(WidgetManager.get().getWidgetList(), persistenceManager);
-		persistenceManager.makePersistent(this);
-		persistenceManager.close();
+		try {
+			/*
+			 * Make sure the server has the widgets before asking for input
+			 */
+			this.flushWidgets();
+		    	
+//			Log.debug(this, "Triggering 'start' event");
+//			this.applicationLifeCycle.start();
+//			
+			Log.debug(this, "Asking for input");
+			ArrayList<WidgetInput> inputList = serverCommunicator.askForInputFromServer();
+			Log.debug(this, "Triggering action events");
+			InputEventHelper.triggerWidgetInputEvents(inputList, this.widgetIndex);
+			
+			Log.debug(this, "Triggering 'finish' event");
+			this.applicationLifeCycle.onPDApplicationEnded();
+		} finally {
+			this.end();
+		}
+	}
+	
+	/**
+	 * Writes the values changed during this run back to the datastore and releases the 
+	 * application. Runs even if the application failed, so that the deferred writes of the 
+	 * storage session are not lost.
+	 */
+	private void end() {
+		try {
+			this.widgetRegistry.save();
+			this.remoteStorage.close();
+		} finally {
+			PDApplication.setCurrent(null);
+			//remoteStorage.saveWidgets(WidgetManager.get().getWidgetList(), persistenceManager);
+			persistenceManager.makePersistent(this);
+			persistenceManager.close();
+		}
 	}
 
 	public static void load(HttpServletRequest req, PDApplicationLifeCycle acl, String defaultAppId) {
@@ -214,7 +300,19 @@ public class PDApplication {
 	        query.closeAll();
 	    }	    
 	    Log.debug(PDApplication.class.getCanonicalName(), "Triggering 'loaded' event");
-	    acl.onPDApplicationLoaded(application);
+	    
+	    /*
+	     * Widgets added or removed while the application is loading are sent in batch
+	     */
+	    try {
+		    application.beginCoalescing();
+		    acl.onPDApplicationLoaded(application);
+		    application.flushWidgets();
+		    application.dropRestoredWidgets();
+	    } catch (RuntimeException e) {
+	    	application.end();
+	    	throw e;
+	    }
 	    
 	    Log.debug(PDApplication.class.getCanonicalName(), "Running application");
 	    application.run();
@@ -254,24 +352,145 @@ public class PDApplication {
 	
 	public void addWidget(Widget w, boolean propagateToServer) {
 		Log.debug(this, "Adding widget '" + w.getWidgetId() + "' to application.");
-		if ( !this.widgets.contains(w) ) {
+		Widget restored = this.takeRestoredWidget(w.getWidgetId());
+		if ( null != restored ) {
+			this.widgets.set(this.widgets.indexOf(restored), w);
+			this.widgetIndex.replace(restored, w);
+		} else if ( !this.widgets.contains(w) ) {
 			this.widgets.add(w);
+			this.widgetIndex.add(w);
 		}
 		
 		if ( propagateToServer ) {
-			Log.debug(this, "Sending widget '" + w.getWidgetId() + "' to server.");
-			this.serverCommunicator.addWidget(w);
+			if ( this.coalescing ) {
+				this.pendingRemovals.remove(w.getWidgetId());
+				if ( this.widgetRegistry.isRegistered(w) ) {
+					this.pendingAdditions.remove(w.getWidgetId());
+				} else {
+					this.pendingAdditions.put(w.getWidgetId(), w);
+				}
+			} else if ( !this.widgetRegistry.isRegistered(w) ) {
+				Log.debug(this, "Sending widget '" + w.getWidgetId() + "' to server.");
+				this.registered(Collections.singletonList(w), this.serverCommunicator.addWidget(w));
+			}
 		}
 	}
 	
 	public void removeWidget(Widget w, boolean propagateToServer) {
 		Log.debug(this, "Removing widget '" + w.getWidgetId() + "' from application.");
-		this.widgets.remove(w);
+		Widget restored = this.takeRestoredWidget(w.getWidgetId());
+		if ( null != restored ) {
+			this.widgets.remove(restored);
+			this.widgetIndex.remove(restored);
+		}
+		if ( this.widgets.remove(w) ) {
+			this.widgetIndex.remove(w);
+		}
 		
 		if ( propagateToServer ) {
-			Log.debug(this, "Removing widget '" + w.getWidgetId() + "' from server.");
-			this.serverCommunicator.deleteWidget(w);
+			if ( this.coalescing ) {
+				/*
+				 * The widget may exist on the server from a previous run, so it must be 
+				 * deleted even if its addition was still pending
+				 */
+				this.pendingAdditions.remove(w.getWidgetId());
+				this.pendingRemovals.put(w.getWidgetId(), w);
+			} else {
+				Log.debug(this, "Removing widget '" + w.getWidgetId() + "' from server.");
+				this.serverCommunicator.deleteWidget(w);
+				this.widgetRegistry.unregistered(Collections.singletonList(w));
+			}
+		}
+	}
+	
+	/**
+	 * Removes a widget id from the restored widgets, returning the restored widget.
+	 * 
+	 * @param widgetId The widget id.
+	 * @return The widget restored from the registry with the id, or null if there is none.
+	 */
+	private Widget takeRestoredWidget(String widgetId) {
+		if ( !this.restoredWidgetIds.remove(widgetId) ) {
+			return null;
 		}
+		ArrayList<Widget> indexed = this.widgetIndex.get(widgetId);
+		return null == indexed ? null : indexed.get(0);
+	}
+	
+	/**
+	 * Drops the widgets restored from the registry that the application did not add again while 
+	 * loading. They have no listeners in this run, so they are removed from the routing index, and 
+	 * from the registry so that they are sent to the server again if the application adds them later.
+	 */
+	private void dropRestoredWidgets() {
+		if ( this.restoredWidgetIds.isEmpty() ) {
+			return;
+		}
+		Log.debug(this, "Dropping " + this.restoredWidgetIds.size() + " restored widgets that were not added again.");
+		ArrayList<Widget> dropped = new ArrayList<Widget>();
+		for ( String widgetId : new ArrayList<String>(this.restoredWidgetIds) ) {
+			Widget restored = this.takeRestoredWidget(widgetId);
+			if ( null != restored ) {
+				this.widgets.remove(restored);
+				this.widgetIndex.remove(restored);
+				dropped.add(restored);
+			}
+		}
+		this.widgetRegistry.unregistered(dropped);
+	}
+	
+	/**
+	 * Starts buffering the widget additions and removals that are propagated to the server, so that 
+	 * they are sent in batch by {@link #flushWidgets()}.
+	 */
+	public void beginCoalescing() {
+		this.coalescing = true;
+	}
+	
+	/**
+	 * Sends the buffered widget removals and additions to the server, in batch, and stops 
+	 * buffering.
+	 */
+	public void flushWidgets() {
+		this.coalescing = false;
+		
+		if ( this.pendingRemovals.size() > 0 ) {
+			Log.debug(this, "Removing " + this.pendingRemovals.size() + " widgets from server.");
+			this.serverCommunicator.deleteWidgets(this.pendingRemovals.values());
+			this.widgetRegistry.unregistered(this.pendingRemovals.values());
+			this.pendingRemovals.clear();
+		}
+		if ( this.pendingAdditions.size() > 0 ) {
+			Log.debug(this, "Sending " + this.pendingAdditions.size() + " widgets to server.");
+			this.registered(this.pendingAdditions.values(), this.serverCommunicator.addWidgets(this.pendingAdditions.values()));
+			this.pendingAdditions.clear();
+		}
+	}
+
+	/**
+	 * Records in the registry the widgets sent to the server that the server returned as added. 
+	 * The widgets are recorded as they were sent, since their fingerprint is compared with the 
+	 * application's widgets in later runs.
+	 * 
+	 * @param sent The widgets sent to the server.
+	 * @param added The widgets returned by the server.
+	 */
+	private void registered(Collection<Widget> sent, ArrayList<Widget> added) {
+		HashSet<String> addedIds = new HashSet<String>();
+		for ( Widget widget : added ) {
+			addedIds.add(widget.getWidgetId());
+		}
+		ArrayList<Widget> registered = new ArrayList<Widget>();
+		for ( Widget widget : sent ) {
+			if ( addedIds.contains(widget.getWidgetId()) ) {
+				registered.add(widget);
+			}
+		}
+		if ( registered.size() < sent.size() ) {
+			Log.warn(this, (sent.size() - registered.size()) + " of " + sent.size() 
+					+ " widgets were not added by the server. They will be sent again.");
+		}
+		this.widgetRegistry.registered(registered);
 	}
 
 	private void setPersistenceManager(PersistenceManager pm) {
@@ -338,6 +557,8 @@ public class PDApplication {
 	 */
 	public void setWidgets(ArrayList<Widget> widgets) {
 		this.widgets = widgets;
+		this.widgetIndex = new WidgetIndex(widgets);
+		this.restoredWidgetIds.clear();
 	}
 
 
@@ -358,18 +579,22 @@ public class PDApplication {
 
 
 	/**
-	 * @return the current
+	 * @return the application running on the current thread
 	 */
 	public static PDApplication getCurrent() {
-		return current;
+		return current.get();
 	}
 
 
 	/**
-	 * @param current the current to set
+	 * @param current the application running on the current thread
 	 */
 	public static void setCurrent(PDApplication current) {
-		PDApplication.current = current;
+		if ( null == current ) {
+			PDApplication.current.remove();
+		} else {
+			PDApplication.current.set(current);
+		}
 	}
 
 }
@@ -0,0 +1,271 @@
+/**
+ *
+ */
+package org.purewidgets.server.application;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.purewidgets.server.dao.Dao;
+import org.purewidgets.server.dao.RegisteredWidgetDao;
+import org.purewidgets.server.dao.StorageDao;
+import org.purewidgets.server.im.json.RegisteredWidgetJson;
+import org.purewidgets.server.storage.ServerStorage;
+import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.logging.Log;
+
+/**
+ * The widgets an application has registered on the interaction manager, and the content
+ * fingerprint of each one as it was registered, persisted in the application's storage.
+ *
+ * Applications re-create their widgets on every run. With the registry, re-registering a widget
+ * whose fingerprint did not change is a local no-op, so only new or changed widgets are sent to
+ * the interaction manager. A registration is trusted only for {@link #REGISTRATION_TTL}: after 
+ * that the widget is sent again, so widgets the interaction manager lost are eventually restored.
+ * The registered widgets are also used to rebuild the input routing
+ * index when the application is loaded, without asking the interaction manager for them.
+ *
+ * Each widget is saved as an entity of its own, a {@link RegisteredWidgetDao} child of the 
+ * application's storage entity, so the registry does not grow the storage entity (which is read 
+ * and written whole) and saving writes only the widgets that changed.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class PersistentWidgetRegistry {
+
+	/**
+	 * The time, in milliseconds, after which a registered widget is sent to the interaction 
+	 * manager again, even if it did not change.
+	 */
+	public static final long REGISTRATION_TTL = 24 * 60 * 60 * 1000;
+
+	/**
+	 * The number of times a transaction is attempted before giving up.
+	 */
+	private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
+	/**
+	 * The storage key under which the ids of the registered widgets were saved by earlier 
+	 * versions.
+	 */
+	private static final String LEGACY_INDEX_KEY = "purewidgets-registered-widgets";
+
+	/**
+	 * The prefix of the storage key under which each registered widget was saved by earlier 
+	 * versions.
+	 */
+	private static final String LEGACY_WIDGET_KEY_PREFIX = "purewidgets-registered-widget-";
+
+	/**
+	 * The storage key under which the whole registry was saved, as a single value, by earlier
+	 * versions.
+	 */
+	private static final String LEGACY_KEY = "purewidgets-widget-registry";
+
+	/**
+	 * The id of the application's storage, the parent of the registered widget entities.
+	 */
+	private String storageId;
+
+	/**
+	 * The registered widgets, by widget id.
+	 */
+	private LinkedHashMap<String, Widget> widgets;
+
+	/**
+	 * The fingerprint of each registered widget, by widget id.
+	 */
+	private HashMap<String, Integer> fingerprints;
+
+	/**
+	 * The time each widget was registered, by widget id.
+	 */
+	private HashMap<String, Long> registrationTimes;
+
+	/**
+	 * The ids of the widgets registered since the registry was saved.
+	 */
+	private LinkedHashSet<String> changed;
+
+	/**
+	 * The ids of the widgets unregistered since the registry was saved.
+	 */
+	private LinkedHashSet<String> removed;
+
+	private PersistentWidgetRegistry(String storageId) {
+		this.storageId = storageId;
+		this.widgets = new LinkedHashMap<String, Widget>();
+		this.fingerprints = new HashMap<String, Integer>();
+		this.registrationTimes = new HashMap<String, Long>();
+		this.changed = new LinkedHashSet<String>();
+		this.removed = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * Loads the registry of an application.
+	 *
+	 * @param storage The application's storage.
+	 * @return The registry. If none was saved, an empty registry. Widgets that could not be 
+	 * decoded are left out, so they are registered again.
+	 */
+	public static PersistentWidgetRegistry load(ServerStorage storage) {
+		final PersistentWidgetRegistry registry = new PersistentWidgetRegistry(storage.getStorageId());
+
+		discardLegacy(storage);
+
+		List<RegisteredWidgetDao> registeredWidgets = Dao.transact(MAX_TRANSACTION_ATTEMPTS, 
+				new Dao.Work<List<RegisteredWidgetDao>>() {
+			@Override
+			public List<RegisteredWidgetDao> run() {
+				return Dao.getRegisteredWidgets(registry.storageId);
+			}
+		});
+		if ( null == registeredWidgets ) {
+			Log.warn(PersistentWidgetRegistry.class.getName(), "Could not load the widget registry. Widgets will be registered again.");
+			return registry;
+		}
+
+		for ( RegisteredWidgetDao registeredWidget : registeredWidgets ) {
+			String widgetId = registeredWidget.getWidgetId();
+			RegisteredWidgetJson registeredJson = null;
+			if ( null != registeredWidget.getJson() ) {
+				registeredJson = RegisteredWidgetJson.fromJson(RegisteredWidgetJson.class, registeredWidget.getJson());
+			}
+			if ( null == registeredJson || null == registeredJson.getWidget() ) {
+				Log.warn(PersistentWidgetRegistry.class.getName(), "Could not decode registered widget '" + widgetId + "'. It will be registered again.");
+				registry.removed.add(widgetId);
+				continue;
+			}
+			registry.widgets.put(widgetId, registeredJson.getWidget());
+			registry.fingerprints.put(widgetId, registeredJson.getFingerprint());
+			registry.registrationTimes.put(widgetId, registeredJson.getRegistrationTime());
+		}
+		return registry;
+	}
+
+	/**
+	 * Removes the registry saved by earlier versions in the application's storage. 
+	 */
+	private static void discardLegacy(ServerStorage storage) {
+		if ( null != storage.getString(LEGACY_KEY) ) {
+			Log.info(PersistentWidgetRegistry.class.getName(), "Discarding the widget registry saved as a single value. Widgets will be registered again.");
+			storage.remove(LEGACY_KEY);
+		}
+		String index = storage.getString(LEGACY_INDEX_KEY);
+		if ( null != index ) {
+			Log.info(PersistentWidgetRegistry.class.getName(), "Discarding the widget registry saved in the application's storage. Widgets will be registered again.");
+			for ( String widgetId : StorageDao.decode(index) ) {
+				if ( null != widgetId ) {
+					storage.remove(LEGACY_WIDGET_KEY_PREFIX + widgetId);
+				}
+			}
+			storage.remove(LEGACY_INDEX_KEY);
+		}
+	}
+
+	/**
+	 * Saves the widgets registered or unregistered since the registry was loaded, in a single 
+	 * transaction.
+	 */
+	public void save() {
+		if ( this.changed.isEmpty() && this.removed.isEmpty() ) {
+			return;
+		}
+		Log.debug(this, "Saving " + this.changed.size() + " registered and " + this.removed.size() 
+				+ " unregistered widgets, of " + this.widgets.size() + " widgets.");
+		final ArrayList<RegisteredWidgetDao> registeredWidgets = new ArrayList<RegisteredWidgetDao>();
+		for ( String widgetId : this.changed ) {
+			registeredWidgets.add(new RegisteredWidgetDao(this.storageId, widgetId, 
+					RegisteredWidgetJson.create(this.widgets.get(widgetId), this.fingerprints.get(widgetId), 
+							this.registrationTimes.get(widgetId)).toJsonString()));
+		}
+		Boolean saved = Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				if ( !PersistentWidgetRegistry.this.removed.isEmpty() ) {
+					Dao.deleteRegisteredWidgets(PersistentWidgetRegistry.this.storageId, PersistentWidgetRegistry.this.removed);
+				}
+				if ( !registeredWidgets.isEmpty() ) {
+					Dao.put(registeredWidgets);
+				}
+				return Boolean.TRUE;
+			}
+		});
+		if ( null == saved ) {
+			Log.error(this, "Could not save the widget registry. Changed widgets will be registered again.");
+			return;
+		}
+		this.changed.clear();
+		this.removed.clear();
+	}
+
+	/**
+	 * Checks if a widget is registered with its current content.
+	 *
+	 * @param widget The widget.
+	 * @return true if a widget with the same id and fingerprint was registered less than 
+	 * {@link #REGISTRATION_TTL} ago.
+	 */
+	public boolean isRegistered(Widget widget) {
+		Integer fingerprint = this.fingerprints.get(widget.getWidgetId());
+		if ( null == fingerprint || fingerprint.intValue() != widget.getFingerprint() ) {
+			return false;
+		}
+		return System.currentTimeMillis() - this.registrationTimes.get(widget.getWidgetId()) < REGISTRATION_TTL;
+	}
+
+	/**
+	 * Records that widgets were registered on the interaction manager.
+	 *
+	 * @param registered The widgets.
+	 */
+	public void registered(Collection<Widget> registered) {
+		long now = System.currentTimeMillis();
+		for ( Widget widget : registered ) {
+			this.widgets.put(widget.getWidgetId(), widget);
+			this.fingerprints.put(widget.getWidgetId(), widget.getFingerprint());
+			this.registrationTimes.put(widget.getWidgetId(), now);
+			this.changed.add(widget.getWidgetId());
+			this.removed.remove(widget.getWidgetId());
+		}
+	}
+
+	/**
+	 * Records that widgets were removed from the interaction manager.
+	 *
+	 * @param unregistered The widgets.
+	 */
+	public void unregistered(Collection<Widget> unregistered) {
+		for ( Widget widget : unregistered ) {
+			if ( null != this.widgets.remove(widget.getWidgetId()) ) {
+				this.fingerprints.remove(widget.getWidgetId());
+				this.registrationTimes.remove(widget.getWidgetId());
+				this.changed.remove(widget.getWidgetId());
+				this.removed.add(widget.getWidgetId());
+			}
+		}
+	}
+
+	/**
+	 * Gets the registered widgets, as they were last registered.
+	 *
+	 * @return A new list with the registered widgets, in registration order.
+	 */
+	public ArrayList<Widget> getWidgets() {
+		return new ArrayList<Widget>(this.widgets.values());
+	}
+
+	/**
+	 * Gets the number of registered widgets.
+	 *
+	 * @return The number of registered widgets.
+	 */
+	public int size() {
+		return this.widgets.size();
+	}
+}
@@ -0,0 +1,231 @@
+package org.purewidgets.server.cron;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.purewidgets.shared.logging.Log;
+
+/**
+ * Runs the update of several applications at once, inside the current request.
+ *
+ * Each application is updated by invoking its update URL. At most <code>maxConcurrent</code>
+ * applications are updated at the same time, and each application has a deadline: if its update
+ * does not complete within the deadline it is abandoned and reported as a missed deadline.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class ApplicationScheduler {
+
+	/**
+	 * The outcome of the update of one application.
+	 */
+	public static class Result {
+		private String url;
+
+		private long latencyMillis;
+
+		private boolean success;
+
+		private boolean missedDeadline;
+
+		private Result(String url) {
+			this.url = url;
+		}
+
+		/**
+		 * @return the update url of the application
+		 */
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return the time, in milliseconds, the update took (or the deadline, if it was missed)
+		 */
+		public long getLatencyMillis() {
+			return latencyMillis;
+		}
+
+		/**
+		 * @return true if the application was updated successfully within its deadline
+		 */
+		public boolean isSuccess() {
+			return success;
+		}
+
+		/**
+		 * @return true if the update did not complete within the deadline
+		 */
+		public boolean isMissedDeadline() {
+			return missedDeadline;
+		}
+	}
+
+	/**
+	 * The maximum number of applications updated at the same time.
+	 */
+	private int maxConcurrent;
+
+	/**
+	 * The maximum time, in milliseconds, allowed for the update of each application.
+	 */
+	private int deadlineMillis;
+
+	/**
+	 * The factory used to create the worker threads.
+	 */
+	private ThreadFactory threadFactory;
+
+	/**
+	 * Creates a new ApplicationScheduler.
+	 *
+	 * @param maxConcurrent The maximum number of applications updated at the same time.
+	 * @param deadlineMillis The maximum time, in milliseconds, allowed for the update of each application.
+	 * @param threadFactory The factory used to create the worker threads (on App Engine, this must
+	 * create request threads).
+	 */
+	public ApplicationScheduler(int maxConcurrent, int deadlineMillis, ThreadFactory threadFactory) {
+		this.maxConcurrent = maxConcurrent;
+		this.deadlineMillis = deadlineMillis;
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Updates the applications with the specified update URLs and waits for all of them to complete
+	 * or miss their deadline.
+	 *
+	 * @param urls The update URLs of the applications.
+	 * @return The outcome of each update, in the same order as the urls.
+	 */
+	public List<Result> run(List<String> urls) {
+		ArrayList<Result> results = new ArrayList<Result>();
+		if ( urls.size() == 0 ) {
+			return results;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.maxConcurrent, urls.size()), this.threadFactory);
+
+		ArrayList<Future<Long>> futures = new ArrayList<Future<Long>>();
+		for ( final String url : urls ) {
+			results.add(new Result(url));
+			futures.add(executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return update(url);
+				}
+			}));
+		}
+		executor.shutdown();
+
+		/*
+		 * Updates are queued when there are more applications than threads, so the deadline of
+		 * an application cannot be enforced only by waiting on its future: the HTTP timeouts in
+		 * update() enforce it from the moment the application update actually starts. Here we just
+		 * make sure we don't wait forever for the whole batch.
+		 */
+		long batchDeadline = System.currentTimeMillis()
+				+ (long)this.deadlineMillis * ((urls.size() + this.maxConcurrent - 1) / this.maxConcurrent)
+				+ this.deadlineMillis;
+
+		for ( int i = 0; i < futures.size(); i++ ) {
+			Future<Long> future = futures.get(i);
+			Result result = results.get(i);
+			try {
+				long wait = Math.max(0, batchDeadline - System.currentTimeMillis());
+				result.latencyMillis = future.get(wait, TimeUnit.MILLISECONDS).longValue();
+				result.missedDeadline = result.latencyMillis > this.deadlineMillis;
+				result.success = !result.missedDeadline;
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				result.latencyMillis = this.deadlineMillis;
+				result.missedDeadline = true;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				result.missedDeadline = cause instanceof java.net.SocketTimeoutException;
+				result.latencyMillis = this.deadlineMillis;
+				Log.warn(this, "Could not update " + result.url + ": " + cause.getMessage());
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		executor.shutdownNow();
+
+		this.report(results);
+		return results;
+	}
+
+	/**
+	 * Invokes the update URL of an application.
+	 *
+	 * @param urlString The update URL.
+	 * @return The time, in milliseconds, the update took.
+	 * @throws IOException If the application could not be updated.
+	 */
+	private long update(String urlString) throws IOException {
+		long start = System.currentTimeMillis();
+
+		HttpURLConnection con = (HttpURLConnection) new java.net.URL(urlString).openConnection();
+		con.setConnectTimeout(this.deadlineMillis);
+		con.setReadTimeout(this.deadlineMillis);
+		con.setUseCaches(false);
+		try {
+			int code = con.getResponseCode();
+
+			/*
+			 * Drain the response so that the connection can be reused
+			 */
+			InputStream in = code < 400 ? con.getInputStream() : con.getErrorStream();
+			if ( null != in ) {
+				byte [] buffer = new byte[1024];
+				while ( in.read(buffer) != -1 ) {
+					// discard
+				}
+				in.close();
+			}
+			if ( code != 200 ) {
+				throw new IOException(code + " : " + con.getResponseMessage());
+			}
+		} finally {
+			con.disconnect();
+		}
+
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Logs the latency of each application and the number of missed deadlines.
+	 *
+	 * @param results The results to report.
+	 */
+	private void report(List<Result> results) {
+		int missed = 0;
+		int failed = 0;
+		long maxLatency = 0;
+		for ( Result result : results ) {
+			Log.info(this, "Updated " + result.url + " in " + result.latencyMillis + "ms"
+					+ (result.missedDeadline ? " (missed deadline)" : (result.success ? "" : " (failed)")));
+			if ( result.missedDeadline ) {
+				missed++;
+			} else if ( !result.success ) {
+				failed++;
+			}
+			maxLatency = Math.max(maxLatency, result.latencyMillis);
+		}
+		Log.info(this, "Updated " + results.size() + " applications. Missed deadlines: " + missed
+				+ ", failed: " + failed + ", maximum latency: " + maxLatency + "ms.");
+	}
+}
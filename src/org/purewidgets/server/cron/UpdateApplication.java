@@ -4,6 +4,8 @@ import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.jdo.PersistenceManager;
 import javax.jdo.Query;
@@ -15,11 +17,24 @@ import org.purewidgets.server.PMF;
 import org.purewidgets.server.application.PDApplication;
 import org.purewidgets.shared.logging.Log;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions.Method;
 
+/**
+ * Cron servlet that triggers the update of every server-side application.
+ * 
+ * By default, one task per application is added to the default task queue, all at once; the
+ * queue's max-concurrent-requests bounds how many applications are updated at the same time. 
+ * If the request has a <code>mode=inline</code> parameter, the applications are instead updated 
+ * inside this request by an {@link ApplicationScheduler}, which reports the latency of each 
+ * application and the deadlines missed.
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
 public class UpdateApplication  extends HttpServlet{
 
 	/**
@@ -27,6 +42,26 @@ public class UpdateApplication  extends HttpServlet{
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * The URL query string parameter name that selects the scheduling mode.
+	 */
+	public static final String MODE_PARAMETER = "mode";
+	
+	/**
+	 * The scheduling mode that updates the applications inside the cron request.
+	 */
+	public static final String MODE_INLINE = "inline";
+	
+	/**
+	 * The maximum number of applications updated at the same time, in inline mode.
+	 */
+	private static final int MAX_CONCURRENT_UPDATES = 10;
+	
+	/**
+	 * The maximum time allowed for the update of one application, in inline mode (milliseconds).
+	 */
+	private static final int UPDATE_DEADLINE = 1000*30;
+
 	@Override
 	public void doGet(HttpServletRequest req, HttpServletResponse resp) {
 		PersistenceManager pm = PMF.get().getPersistenceManager();
@@ -48,13 +83,22 @@ public class UpdateApplication  extends HttpServlet{
 		
 		String servlet = req.getServletPath().replace("update", "application");
 		
+		if ( MODE_INLINE.equals(req.getParameter(MODE_PARAMETER)) ) {
+			String base = req.getScheme() + "://" + req.getServerName() + ":" + req.getServerPort() + req.getContextPath();
+			
+			ArrayList<String> urls = new ArrayList<String>();
+			for ( String urlParam : urlParameters ) {
+				urls.add(base + servlet + urlParam);
+			}
+			new ApplicationScheduler(MAX_CONCURRENT_UPDATES, UPDATE_DEADLINE, getThreadFactory()).run(urls);
+			return;
+		}
 		
 		try {
 			Queue queue = QueueFactory.getDefaultQueue();
-			int time = 1000*60;
 			for ( String urlParam : urlParameters ) {
 				Log.info(this, "Adding task: " + servlet+urlParam);
-				queue.add(withUrl(servlet+urlParam).countdownMillis(time+=1000*60).method(Method.GET));
+				queue.add(withUrl(servlet+urlParam).method(Method.GET));
 			}
 		} catch (TaskAlreadyExistsException taee) {
 			
@@ -62,4 +106,22 @@ public class UpdateApplication  extends HttpServlet{
 			Log.error(this, "Could not submit task: " + e.getMessage());
 		}
 	}
+	
+	/**
+	 * Gets a factory for threads that can run inside the current request. 
+	 * 
+	 * Outside App Engine (or in runtimes that don't support request threads) falls back to the
+	 * default thread factory.
+	 */
+	private ThreadFactory getThreadFactory() {
+		try {
+			ThreadFactory factory = ThreadManager.currentRequestThreadFactory();
+			if ( null != factory ) {
+				return factory;
+			}
+		} catch (Throwable t) {
+			Log.warn(this, "Request threads not available, using default threads: " + t.getMessage());
+		}
+		return Executors.defaultThreadFactory();
+	}
 }
@@ -3,40 +3,93 @@
  */
 package org.purewidgets.server.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
 import org.purewidgets.shared.logging.Log;
 
 
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.util.DAOBase;
 
 /**
+ * Provides access to the datastore entities.
+ * 
+ * The current transaction is confined to the calling thread, so concurrent requests on the
+ * same instance each have their own transaction. Code should either bracket its operations 
+ * with {@link #beginTransaction()} and {@link #commitOrRollbackTransaction()} on the same 
+ * thread, or pass a {@link Work} unit to {@link #transact(int, Work)}.
+ * 
  * @author "Jorge C. S. Cardoso"
  * 
  */
 
 public class Dao extends DAOBase {
-	private static Objectify ofy;
+	
+	/**
+	 * A unit of work executed inside a transaction.
+	 *
+	 * @param <T> The type of the result of the work.
+	 */
+	public interface Work<T> {
+		/**
+		 * Runs the work. Datastore operations made through the Dao will be part of the 
+		 * current transaction.
+		 * 
+		 * @return The result of the work.
+		 */
+		T run();
+	}
+	
+	/**
+	 * The transaction of the current thread.
+	 */
+	private static final ThreadLocal<Objectify> ofy = new ThreadLocal<Objectify>();
+
+	/**
+	 * Counts the datastore operations (gets, puts, deletes and commits) issued through this Dao
+	 * by the current thread. Used to instrument the number of round trips made by higher level 
+	 * operations, without counting the operations of concurrent requests.
+	 */
+	private static final ThreadLocal<long[]> operationCount = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
 
 	static {
 		ObjectifyService.register(StorageDao.class);
+		ObjectifyService.register(RegisteredWidgetDao.class);
 	}
 
 	public static void beginTransaction() {
-		ofy = ObjectifyService.beginTransaction();
+		if ( null != ofy.get() ) {
+			Log.warn(Dao.class.getName(), "Beginning a transaction while another is in progress on this thread.");
+		}
+		ofy.set(ObjectifyService.beginTransaction());
 	}
 
 	public static boolean commitOrRollbackTransaction() {
+		Objectify current = current();
 		boolean success = false;
 		try {
-			ofy.getTxn().commit();
+			countOperation();
+			current.getTxn().commit();
 			success = true;
 		} catch (Exception e) {
 			Log.warn(Dao.class.getName(), "Could not commit transaction: " + e.getMessage());
 		} finally {
-			if (ofy.getTxn().isActive()) {
+			ofy.remove();
+			if (current.getTxn().isActive()) {
 				try {
-					ofy.getTxn().rollback();
+					current.getTxn().rollback();
 				} catch (Exception e) {
 					Log.warn(Dao.class.getName(), "Problem rolling back:" + e.getMessage());
 				}
@@ -45,29 +98,144 @@ public class Dao extends DAOBase {
 
 		return success;
 	}
+	
+	/**
+	 * Rolls back the transaction of the current thread.
+	 */
+	public static void rollbackTransaction() {
+		Objectify current = current();
+		ofy.remove();
+		try {
+			if (current.getTxn().isActive()) {
+				current.getTxn().rollback();
+			}
+		} catch (Exception e) {
+			Log.warn(Dao.class.getName(), "Problem rolling back:" + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Runs a unit of work inside a transaction and commits it. If the commit fails (usually 
+	 * because of a concurrent update), or the work fails because of a concurrent update or a
+	 * datastore failure, the transaction is rolled back and the work is run again in a new 
+	 * transaction, up to the specified number of attempts. Any other exception thrown by the work
+	 * rolls back the transaction and is rethrown.
+	 * 
+	 * @param attempts The maximum number of attempts.
+	 * @param work The unit of work.
+	 * @return The result of the last successful run of the work, or null if all attempts failed.
+	 */
+	public static <T> T transact(int attempts, Work<T> work) {
+		for ( int attempt = 0; attempt < attempts; attempt++ ) {
+			beginTransaction();
+			T result;
+			try {
+				result = work.run();
+			} catch (RuntimeException e) {
+				rollbackTransaction();
+				if ( !isRetryable(e) ) {
+					throw e;
+				}
+				Log.warn(Dao.class.getName(), "Transaction work failed: " + e.getMessage());
+				continue;
+			}
+			if ( commitOrRollbackTransaction() ) {
+				return result;
+			}
+		}
+		Log.error(Dao.class.getName(), "Giving up transaction after " + attempts + " attempts.");
+		return null;
+	}
 
+	/**
+	 * Checks if a transaction that failed with the specified exception may succeed if retried.
+	 * 
+	 * @param e The exception.
+	 * @return true for concurrent updates and datastore failures.
+	 */
+	private static boolean isRetryable(RuntimeException e) {
+		return e instanceof ConcurrentModificationException || e instanceof DatastoreFailureException
+				|| e instanceof DatastoreTimeoutException;
+	}
 	
 	public static void delete(java.lang.Iterable<?> keysOrEntities) {
-		ofy.delete(keysOrEntities);
+		countOperation();
+		current().delete(keysOrEntities);
 	}
 	
 	
 	public static void delete(Object o) {
-		ofy.delete(o);
+		countOperation();
+		current().delete(o);
 	}
 
 
 	public static StorageDao getStorage(String storageId) {
-		return ofy.find(StorageDao.class, storageId);
+		countOperation();
+		return current().find(StorageDao.class, storageId);
 	}
 
+	/**
+	 * Gets the widgets registered by an application.
+	 * 
+	 * @param storageId The id of the application's storage.
+	 * @return The registered widgets.
+	 */
+	public static List<RegisteredWidgetDao> getRegisteredWidgets(String storageId) {
+		countOperation();
+		return current().query(RegisteredWidgetDao.class).ancestor(StorageDao.key(storageId)).list();
+	}
+	
+	/**
+	 * Deletes widgets registered by an application.
+	 * 
+	 * @param storageId The id of the application's storage.
+	 * @param widgetIds The ids of the widgets to delete.
+	 */
+	public static void deleteRegisteredWidgets(String storageId, Collection<String> widgetIds) {
+		ArrayList<Key<RegisteredWidgetDao>> keys = new ArrayList<Key<RegisteredWidgetDao>>();
+		for ( String widgetId : widgetIds ) {
+			keys.add(RegisteredWidgetDao.key(storageId, widgetId));
+		}
+		delete(keys);
+	}
 	
 	public static void put(java.lang.Iterable<?> objs) {
-		ofy.put(objs);
+		countOperation();
+		current().put(objs);
 	}
 
 	public static void put(Object o) {
-		ofy.put(o);
+		countOperation();
+		current().put(o);
+	}
+
+	/**
+	 * Gets the transaction of the current thread.
+	 * 
+	 * @return The transaction of the current thread.
+	 * @throws IllegalStateException If no transaction was begun on the current thread.
+	 */
+	private static Objectify current() {
+		Objectify current = ofy.get();
+		if ( null == current ) {
+			throw new IllegalStateException("No transaction in progress on this thread.");
+		}
+		return current;
+	}
+
+	/**
+	 * Gets the number of datastore operations issued through this Dao by the current thread. 
+	 * Callers measure an operation by the difference between two readings on the same thread.
+	 * 
+	 * @return The number of datastore operations of the current thread.
+	 */
+	public static long getOperationCount() {
+		return operationCount.get()[0];
+	}
+	
+	private static void countOperation() {
+		operationCount.get()[0]++;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package org.purewidgets.server.dao;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * A widget registered by an application on the interaction manager.
+ *
+ * Each registered widget is an entity of its own, child of the application's storage entity, so
+ * that the registry does not grow the storage entity and saving it writes only the widgets that
+ * changed. Being in the same entity group as the storage, the registered widgets of an
+ * application can be read in a transaction with a single ancestor query.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+@Unindexed
+public class RegisteredWidgetDao {
+
+	@Id
+	private String widgetId;
+
+	@Parent
+	@SuppressWarnings(value = { "unused" })
+	private Key<StorageDao> storage;
+
+	/**
+	 * The registered widget, as JSON. Long values are stored by the datastore as Text.
+	 */
+	private String json;
+
+	@SuppressWarnings(value = { "unused" })
+	private RegisteredWidgetDao() {
+	}
+
+	/**
+	 * Creates a registered widget.
+	 *
+	 * @param storageId The id of the application's storage.
+	 * @param widgetId The widget id.
+	 * @param json The registered widget, as JSON.
+	 */
+	public RegisteredWidgetDao(String storageId, String widgetId, String json) {
+		this.storage = StorageDao.key(storageId);
+		this.widgetId = widgetId;
+		this.json = json;
+	}
+
+	/**
+	 * Gets the key of a registered widget.
+	 *
+	 * @param storageId The id of the application's storage.
+	 * @param widgetId The widget id.
+	 * @return The key.
+	 */
+	public static Key<RegisteredWidgetDao> key(String storageId, String widgetId) {
+		return new Key<RegisteredWidgetDao>(StorageDao.key(storageId), RegisteredWidgetDao.class, widgetId);
+	}
+
+	/**
+	 * @return the widgetId
+	 */
+	public String getWidgetId() {
+		return this.widgetId;
+	}
+
+	/**
+	 * @return the json
+	 */
+	public String getJson() {
+		return this.json;
+	}
+}
@@ -1,11 +1,20 @@
 package org.purewidgets.server.dao;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
 import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.Transient;
 
 import org.purewidgets.shared.logging.Log;
 
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.NotSaved;
 
 /**
@@ -39,6 +48,13 @@ public class StorageDao {
 	 */	
 	private ArrayList<String> values;
 	
+	/**
+	 * In-memory index from a key name to its position in the 'keys' and 'values' lists.
+	 * It is not persisted: it is built lazily and rebuilt once whenever the entity is 
+	 * loaded from the datastore.
+	 */
+	@Transient
+	private HashMap<String, Integer> index;
 	
 
 	private StorageDao() {
@@ -54,6 +70,16 @@ public class StorageDao {
 	}
 	
 	
+	/**
+	 * Gets the key of a storage entity.
+	 * 
+	 * @param storageId The id of the storage.
+	 * @return The key.
+	 */
+	public static Key<StorageDao> key(String storageId) {
+		return new Key<StorageDao>(StorageDao.class, storageId);
+	}
+	
 	public  String getString(String item) {
 		//String name = this.storageId+"-"+item;
 		String value = this.getStringFromStorage(item);
@@ -65,6 +91,98 @@ public class StorageDao {
 		this.setStringInStorage(item, value);
 	}
 
+	/**
+	 * Gets the values of several keys at once.
+	 * 
+	 * @param names The keys to retrieve.
+	 * @return A map, in the order of the requested names, from each name to its value (null if the
+	 * name does not exist).
+	 */
+	public Map<String, String> getMany(Collection<String> names) {
+		LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+		for ( String name : names ) {
+			result.put(name, this.getStringFromStorage(name));
+		}
+		return result;
+	}
+	
+	/**
+	 * Sets several name/value pairs at once. A null value removes the name.
+	 * 
+	 * @param pairs The name/value pairs to store.
+	 */
+	public void setMany(Map<String, String> pairs) {
+		for ( Map.Entry<String, String> pair : pairs.entrySet() ) {
+			if ( null == pair.getValue() ) {
+				this.remove(pair.getKey());
+			} else {
+				this.setStringInStorage(pair.getKey(), pair.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Removes a name/value pair. The last pair is moved to the place of the removed one, so 
+	 * removing is done in constant time but does not keep the order of the names.
+	 * 
+	 * @param name The name to remove.
+	 */
+	public void remove(String name) {
+		Integer position = this.getIndex().remove(name);
+		if ( null == position ) {
+			return;
+		}
+		int last = this.keys.size() - 1;
+		if ( position.intValue() != last ) {
+			String lastName = this.keys.get(last);
+			this.keys.set(position.intValue(), lastName);
+			this.values.set(position.intValue(), this.values.get(last));
+			this.index.put(lastName, position);
+		}
+		this.keys.remove(last);
+		this.values.remove(last);
+	}
+	
+	/**
+	 * Rebuilds the in-memory index after the entity is loaded from the datastore.
+	 */
+	@PostLoad
+	@SuppressWarnings(value = { "unused" })
+	private void onLoad() {
+		this.index = null;
+		this.getIndex();
+	}
+	
+	/**
+	 * Gets the index of names into the 'keys' and 'values' lists, building it if needed.
+	 * 
+	 * @return The index.
+	 */
+	private HashMap<String, Integer> getIndex() {
+		if ( null == this.index ) {
+			this.index = new HashMap<String, Integer>(this.keys.size() * 2);
+			/*
+			 * Entities saved by earlier versions may contain a name more than once. Only the
+			 * first occurrence was ever read (the one indexOf() returns), so the others are 
+			 * dropped and every name is in the lists once.
+			 */
+			int size = 0;
+			for ( int i = 0; i < this.keys.size(); i++ ) {
+				String name = this.keys.get(i);
+				if ( this.index.containsKey(name) ) {
+					continue;
+				}
+				this.keys.set(size, name);
+				this.values.set(size, this.values.get(i));
+				this.index.put(name, size);
+				size++;
+			}
+			this.keys.subList(size, this.keys.size()).clear();
+			this.values.subList(size, this.values.size()).clear();
+		}
+		return this.index;
+	}
+
 /**
  * Saves a name/value pair in the DS. If the name already exists, its value will be
  * replaced by the new one. If not, a new pair is created.
@@ -74,12 +192,13 @@ public class StorageDao {
  */
 private void setStringInStorage(String name, String value) {
 	Log.debug(this, "Saving " + name + " : " + value);
-	if (keys.contains(name)) {
-		int index = keys.indexOf(name);
-		values.set(index, value);
+	Integer position = this.getIndex().get(name);
+	if ( null != position ) {
+		values.set(position, value);
 	} else {
 		keys.add(name);
 		values.add(value);
+		this.index.put(name, keys.size() - 1);
 	}
 	
 }
@@ -91,10 +210,9 @@ private void setStringInStorage(String name, String value) {
  * @return The value associated with the name, or null if the name does not exist.
  */
 private String getStringFromStorage(String name) {
-	if (keys.contains(name)) {
-		int index = keys.indexOf(name);
-		return values.get(index);
-		
+	Integer position = this.getIndex().get(name);
+	if ( null != position ) {
+		return values.get(position);
 	} else {
 		return null;
 	}
@@ -243,14 +361,14 @@ public long getLongFromStorage(String name) {
 	}
 
 	/**
-	 * @return the keys
+	 * @return An unmodifiable view of the keys
 	 */
-	public ArrayList<String> getKeys() {
+	public List<String> getKeys() {
 		//ArrayList<String> keys = new ArrayList<String>();
 		//for ( String completeKey : this.keys ) {
 		//	keys.add(completeKey.substring(this.storageId.length()+1));
 		//}
-		return this.keys;
+		return Collections.unmodifiableList(this.keys);
 	}
 
 	
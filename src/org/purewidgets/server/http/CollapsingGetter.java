@@ -0,0 +1,207 @@
+package org.purewidgets.server.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.purewidgets.shared.exceptions.HttpServerException;
+
+/**
+ * Collapses concurrent identical GET requests into a single upstream request.
+ *
+ * While a GET for a URL is in flight, further GETs for the same URL wait for it and share its
+ * result (or its error) instead of issuing their own upstream request. Optionally, the
+ * responses of the place list and application list URLs (see
+ * {@link org.purewidgets.shared.im.UrlHelper#getPlacesUrl(String)} and
+ * {@link org.purewidgets.shared.im.UrlHelper#getApplicationsUrl(String, String)}) are kept
+ * for a short time and served from memory.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class CollapsingGetter {
+
+	/**
+	 * Issues the upstream request for a URL.
+	 */
+	public interface Loader {
+		/**
+		 * Gets the response body for the specified URL from the upstream server.
+		 *
+		 * @param url The URL to get.
+		 * @return The response body.
+		 * @throws HttpServerException If the request failed.
+		 */
+		String load(String url) throws HttpServerException;
+	}
+
+	/**
+	 * An upstream request in flight, whose result is shared by all the callers that asked for
+	 * the same URL while it was running.
+	 */
+	private static class Call {
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private String result;
+
+		private HttpServerException error;
+	}
+
+	/**
+	 * A cached response body.
+	 */
+	private static class CacheEntry {
+		private final String body;
+
+		private final long expires;
+
+		private CacheEntry(String body, long expires) {
+			this.body = body;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Matches the place list (<code>/place?...</code>) and application list
+	 * (<code>/place/{placeId}/application?...</code>) URLs.
+	 */
+	private static final Pattern LIST_URL = Pattern.compile(".*/place(/[^/?]+/application)?(\\?.*)?$");
+
+	/**
+	 * The time, in milliseconds, that list responses are cached. Zero disables the cache.
+	 */
+	private volatile long listCacheTtl;
+
+	/**
+	 * The upstream requests currently in flight, by URL.
+	 */
+	private final ConcurrentMap<String, Call> inFlight = new ConcurrentHashMap<String, Call>();
+
+	/**
+	 * The cached list responses, by URL.
+	 */
+	private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong collapsed = new AtomicLong();
+
+	/**
+	 * Creates a new CollapsingGetter.
+	 *
+	 * @param listCacheTtl The time, in milliseconds, that list responses are cached.
+	 * Zero disables the cache.
+	 */
+	public CollapsingGetter(long listCacheTtl) {
+		this.listCacheTtl = listCacheTtl;
+	}
+
+	/**
+	 * Gets the response body for the specified URL, from the cache, from an identical request
+	 * already in flight, or from a new upstream request made with the loader.
+	 *
+	 * @param url The URL to get.
+	 * @param loader The loader used to make the upstream request, if needed.
+	 * @return The response body.
+	 * @throws HttpServerException If the upstream request failed.
+	 */
+	public String get(String url, Loader loader) throws HttpServerException {
+		boolean cacheable = this.isCacheable(url);
+		if ( cacheable ) {
+			CacheEntry entry = this.cache.get(url);
+			if ( null != entry ) {
+				if ( entry.expires > System.currentTimeMillis() ) {
+					this.hits.incrementAndGet();
+					return entry.body;
+				}
+				this.cache.remove(url, entry);
+			}
+		}
+
+		Call call = new Call();
+		Call running = this.inFlight.putIfAbsent(url, call);
+		if ( null != running ) {
+			this.collapsed.incrementAndGet();
+			return this.await(running);
+		}
+
+		this.misses.incrementAndGet();
+		try {
+			call.result = loader.load(url);
+			if ( cacheable ) {
+				this.cache.put(url, new CacheEntry(call.result, System.currentTimeMillis() + this.listCacheTtl));
+			}
+			return call.result;
+		} catch (HttpServerException e) {
+			call.error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			call.error = new HttpServerException(e.getMessage());
+			throw e;
+		} finally {
+			/*
+			 * Remove before releasing the waiters so that requests arriving from now on
+			 * go upstream and see fresh data.
+			 */
+			this.inFlight.remove(url, call);
+			call.done.countDown();
+		}
+	}
+
+	/**
+	 * Waits for a call in flight to complete and returns its result.
+	 */
+	private String await(Call call) throws HttpServerException {
+		try {
+			call.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HttpServerException("Interrupted waiting for the response.");
+		}
+		if ( null != call.error ) {
+			throw call.error;
+		}
+		return call.result;
+	}
+
+	private boolean isCacheable(String url) {
+		return this.listCacheTtl > 0 && LIST_URL.matcher(url).matches();
+	}
+
+	/**
+	 * Sets the time that list responses are cached.
+	 *
+	 * @param listCacheTtl The time, in milliseconds. Zero disables the cache.
+	 */
+	public void setListCacheTtl(long listCacheTtl) {
+		this.listCacheTtl = listCacheTtl;
+		if ( listCacheTtl <= 0 ) {
+			this.cache.clear();
+		}
+	}
+
+	/**
+	 * @return the number of requests served from the list cache
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of requests that went upstream
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return the number of requests that shared the result of an identical request in flight
+	 */
+	public long getCollapsed() {
+		return this.collapsed.get();
+	}
+}
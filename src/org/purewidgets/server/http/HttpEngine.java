@@ -0,0 +1,26 @@
+package org.purewidgets.server.http;
+
+import java.io.IOException;
+
+/**
+ * An HttpEngine executes HTTP requests for the {@link HttpServiceImpl} proxy.
+ * 
+ * Implementations are shared by all requests of the instance, so they must be thread safe.
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public interface HttpEngine {
+
+	/**
+	 * Executes an HTTP request. The caller must close the returned response so that the 
+	 * underlying connection can be reused.
+	 * 
+	 * @param method The HTTP method to use.
+	 * @param url The URL to invoke.
+	 * @param data The payload data, or null if the request has no body.
+	 * @return The response.
+	 * @throws IOException If the request could not be executed.
+	 */
+	HttpResponse execute(String method, String url, String data) throws IOException;
+}
@@ -0,0 +1,118 @@
+package org.purewidgets.server.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * The response to a request executed by an {@link HttpEngine}.
+ * 
+ * The body must be consumed through {@link #getBody()} or {@link #readBody()}, and the response
+ * closed, so that the connection is returned to the engine.
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class HttpResponse {
+	
+	/**
+	 * Called when a response is closed.
+	 */
+	interface Releaser {
+		void release();
+	}
+	
+	private int status;
+	
+	private String message;
+	
+	private InputStream body;
+
+	private Releaser releaser;
+	
+	private boolean closed;
+	
+	HttpResponse(int status, String message, InputStream body, Releaser releaser) {
+		this.status = status;
+		this.message = message;
+		this.body = body;
+		this.releaser = releaser;
+	}
+
+	/**
+	 * Gets the HTTP status code.
+	 * 
+	 * @return the status code
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Gets the HTTP status message.
+	 * 
+	 * @return the status message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the stream with the response body. 
+	 * 
+	 * @return the response body stream; may be null if the response has no body.
+	 */
+	public InputStream getBody() {
+		return body;
+	}
+	
+	/**
+	 * Reads the whole response body as a UTF-8 string and closes the response.
+	 * 
+	 * @return The response body.
+	 * @throws IOException If the body could not be read.
+	 */
+	public String readBody() throws IOException {
+		try {
+			if ( null == this.body ) {
+				return "";
+			}
+			StringBuilder builder = new StringBuilder();
+			Reader reader = new InputStreamReader(this.body, "UTF-8");
+			char [] buffer = new char[4096];
+			int read;
+			while ( (read = reader.read(buffer)) != -1 ) {
+				builder.append(buffer, 0, read);
+			}
+			return builder.toString();
+		} finally {
+			this.close();
+		}
+	}
+	
+	/**
+	 * Closes the response. Any unread body is drained so that the connection can be reused.
+	 */
+	public void close() {
+		if ( this.closed ) {
+			return;
+		}
+		this.closed = true;
+		try {
+			if ( null != this.body ) {
+				byte [] buffer = new byte[4096];
+				while ( this.body.read(buffer) != -1 ) {
+					// discard
+				}
+				this.body.close();
+			}
+		} catch (IOException e) {
+			// The connection will not be reused, nothing else to do
+		} finally {
+			if ( null != this.releaser ) {
+				this.releaser.release();
+			}
+		}
+	}
+}
@@ -1,11 +1,8 @@
 package org.purewidgets.server.http;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
+
+import javax.servlet.ServletException;
 
 import org.purewidgets.client.http.HttpService;
 import org.purewidgets.shared.exceptions.HttpServerException;
@@ -21,7 +18,47 @@ import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 @SuppressWarnings("serial")
 public class HttpServiceImpl extends RemoteServiceServlet implements
 		HttpService {
-		
+	
+	/**
+	 * The engine that executes the HTTP requests, shared by all instances so that connections
+	 * are reused across requests.
+	 */
+	private static volatile HttpEngine engine = new PooledHttpEngine();
+	
+	/**
+	 * The default time, in milliseconds, that place and application list responses are cached.
+	 */
+	public static final long DEFAULT_LIST_CACHE_TTL = 1000*5;
+	
+	/**
+	 * The name of the init parameter that overrides the list cache time (milliseconds, 0 disables).
+	 */
+	public static final String LIST_CACHE_TTL_PARAMETER = "listCacheTtl";
+	
+	/**
+	 * Log the collapsing statistics every this number of GET requests.
+	 */
+	private static final int STATISTICS_LOG_INTERVAL = 500;
+	
+	/**
+	 * Collapses identical concurrent GETs (displays at the same place polling the same input url)
+	 * into a single upstream request.
+	 */
+	private final CollapsingGetter getter = new CollapsingGetter(DEFAULT_LIST_CACHE_TTL);
+	
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		String ttl = this.getInitParameter(LIST_CACHE_TTL_PARAMETER);
+		if ( null != ttl ) {
+			try {
+				this.getter.setListCacheTtl(Long.parseLong(ttl.trim()));
+			} catch (NumberFormatException e) {
+				Log.warn(this, "Invalid " + LIST_CACHE_TTL_PARAMETER + ": " + ttl);
+			}
+		}
+	}
+	
 	@Override
 	public String post( String data, String url ) throws HttpServerException  {
 		return doMethod("POST", data, url);		
@@ -34,7 +71,18 @@ public class HttpServiceImpl extends RemoteServiceServlet implements
 	
 	@Override
 	public String get( String url ) throws HttpServerException  {
-		String result = doMethod("GET", null, url);
+		String result = this.getter.get(url, new CollapsingGetter.Loader() {
+			@Override
+			public String load(String url) throws HttpServerException {
+				return doMethod("GET", null, url);
+			}
+		});
+		
+		long total = this.getter.getHits() + this.getter.getMisses() + this.getter.getCollapsed();
+		if ( total % STATISTICS_LOG_INTERVAL == 0 ) {
+			Log.info(this, "GET statistics: " + this.getter.getMisses() + " upstream, " 
+					+ this.getter.getCollapsed() + " collapsed, " + this.getter.getHits() + " cache hits.");
+		}
 		return result;
 	}
 	
@@ -46,9 +94,49 @@ public class HttpServiceImpl extends RemoteServiceServlet implements
 	
 	
 	/**
-	 * Makes a connection to the specified URL and returns the associated 
-	 * InputStream. This method makes sure that the connection does not use 
-	 * cache.
+	 * Sets the HttpEngine used by all HttpServiceImpl instances.
+	 * 
+	 * @param engine The HttpEngine to use.
+	 */
+	public static void setEngine(HttpEngine engine) {
+		HttpServiceImpl.engine = engine;
+	}
+	
+	/**
+	 * Gets the HttpEngine used by all HttpServiceImpl instances.
+	 * 
+	 * @return The HttpEngine in use.
+	 */
+	public static HttpEngine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * Gets the collapser of GET requests, which holds the hit, miss and collapse counters.
+	 * 
+	 * @return The collapser of GET requests.
+	 */
+	public CollapsingGetter getGetter() {
+		return this.getter;
+	}
+	
+	
+	/**
+	 * Makes a GET request to the specified URL and returns the response without reading it,
+	 * so that the body can be decoded directly from the stream. The caller must close the
+	 * response. GETs made this way are not collapsed.
+	 * 
+	 * @param url The URL to invoke.
+	 * @return The server's response, with status 200 Ok.
+	 * @throws HttpServerException In case of a IOException or server response other than 200 Ok.
+	 */
+	public HttpResponse getResponse( String url ) throws HttpServerException {
+		return execute("GET", null, url);
+	}
+	
+	/**
+	 * Makes a connection to the specified URL and returns the server's response.
+	 * This method makes sure that the connection does not use cache.
 	 * 
 	 * @param method The HTTP method to use
 	 * @param data The payload data
@@ -58,66 +146,43 @@ public class HttpServiceImpl extends RemoteServiceServlet implements
 	 * @throws HttpServerException In case of a IOException or server response other than 200 Ok.
 	 */
 	private String doMethod(String method, String data, String urlString) throws HttpServerException {
+		HttpResponse response = execute(method, data, urlString);
+		try {
+			String body = response.readBody();
+			Log.debugFinest(this, "Response Body:" + body );
+			return body;
+		} catch (IOException e) {
+			Log.error(this, "IO Error. ", e);
+			throw new HttpServerException(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Makes a connection to the specified URL and returns the server's response, if the
+	 * server responded with 200 Ok.
+	 * 
+	 * @param method The HTTP method to use
+	 * @param data The payload data
+	 * @param urlString The URL to invoke.
+	 * 
+	 * @return The server's response, whose body has not been read.
+	 * @throws HttpServerException In case of a IOException or server response other than 200 Ok.
+	 */
+	private HttpResponse execute(String method, String data, String urlString) throws HttpServerException {
 		Log.debug(this, "Calling " + method + " " + urlString );
 		Log.debugFinest(this, "Request Body: " + data);
-		System.setProperty("sun.net.http.retryPos", "false");
 		try {
-			java.net.URL url = new java.net.URL(urlString);
-			HttpURLConnection con;
-		
-			con = (HttpURLConnection) url.openConnection();
-			con.setReadTimeout(1000*30);
-			if ( null != method ) {
-				con.setRequestMethod(method);
-			}
-			if ( null != data ) {
-				con.setDoOutput(true);
-			}
-			con.addRequestProperty("Content-type", "application/json");
-			con.setRequestProperty("Accept-Charset", "UTF-8");
-			con.setUseCaches(false);
-			con.setRequestProperty("Cache-control", "max-age=0");
-
-			
-			con.connect();
+			HttpResponse response = engine.execute(method, urlString, data);
 			
-			/*
-			 * Write the data out.
-			 */
-			if ( null != data ) {
-				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(con.getOutputStream(), "UTF-8" ));
-				bw.write(data);
-				bw.flush();
-			}
-			
-			/*
-			 * Read the response.
-			 */
-			BufferedReader bf = new BufferedReader(new InputStreamReader(con.getInputStream(), "UTF-8" ));
-		
-			StringBuilder builder = new StringBuilder();
-			String line;
-			do {
-				line = bf.readLine();
-				if (null != line) {
-					builder.append(line);
-				}
-			} while (null != line);
-	
-
-			
-			if (con.getResponseCode() != 200 ) {
+			if (response.getStatus() != 200 ) {
+				String body = response.readBody();
 				Log.warn(this, "Received response: " );
-				Log.warn(this, "\t Code:" + con.getResponseCode() );
-				Log.warn(this, "\t Message:" + con.getResponseMessage() );
-				Log.warn(this, "\t Body:" + builder.toString() );
-				throw new HttpServerException(con.getResponseCode() + " : " + con.getResponseMessage() + " " + builder.toString()) ;
+				Log.warn(this, "\t Code:" + response.getStatus() );
+				Log.warn(this, "\t Message:" + response.getMessage() );
+				Log.warn(this, "\t Body:" + body );
+				throw new HttpServerException(response.getStatus(), response.getStatus() + " : " + response.getMessage() + " " + body) ;
 			}
-
-			Log.debugFinest(this, "Response Body:" + builder.toString() );
-			return builder.toString();
-			
-		
+			return response;
 		
 		} catch (IOException e) {
 			Log.error(this, "IO Error. ", e);
@@ -0,0 +1,232 @@
+package org.purewidgets.server.http;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link HttpEngine} that reuses persistent (keep-alive) connections.
+ *
+ * Connections are opened with <code>HttpURLConnection</code>, whose keep-alive cache keeps
+ * idle connections open as long as the response streams are fully read and closed (which
+ * {@link HttpResponse#close()} does). The number of simultaneous requests to each host is
+ * limited, and connect and read timeouts are set separately.
+ *
+ * Long polls (GETs with a non-zero <code>wait</code> parameter) are held by the server for
+ * seconds, so they don't take permits from the per-host limit, where they would starve the
+ * regular requests. They have their own limit, shared by all hosts: when it is reached, new long
+ * polls fail at once, and clients fall back to polling.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class PooledHttpEngine implements HttpEngine {
+
+	/**
+	 * The default maximum number of simultaneous connections to the same host.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+
+	/**
+	 * The default maximum number of simultaneous long polls, to all hosts.
+	 */
+	public static final int DEFAULT_MAX_LONG_POLLS = 100;
+
+	/**
+	 * The query parameter that asks the server to hold a request.
+	 */
+	private static final String WAIT_PARAMETER = "wait";
+
+	/**
+	 * The default connect timeout (milliseconds).
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 1000*5;
+
+	/**
+	 * The default read timeout (milliseconds).
+	 */
+	public static final int DEFAULT_READ_TIMEOUT = 1000*30;
+
+	/**
+	 * The maximum number of simultaneous connections to the same host.
+	 */
+	private int maxConnectionsPerHost;
+
+	/**
+	 * The maximum number of simultaneous long polls, to all hosts.
+	 */
+	private int maxLongPolls;
+
+	/**
+	 * The connect timeout (milliseconds).
+	 */
+	private int connectTimeout;
+
+	/**
+	 * The read timeout (milliseconds).
+	 */
+	private int readTimeout;
+
+	/**
+	 * The connection permits of each host.
+	 */
+	private ConcurrentMap<String, Semaphore> hostPermits;
+
+	/**
+	 * The long poll permits, shared by all hosts.
+	 */
+	private Semaphore longPollPermits;
+
+	/**
+	 * Creates a new PooledHttpEngine with the default limits and timeouts.
+	 */
+	public PooledHttpEngine() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_LONG_POLLS, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+	}
+
+	/**
+	 * Creates a new PooledHttpEngine.
+	 *
+	 * @param maxConnectionsPerHost The maximum number of simultaneous connections to the same host.
+	 * @param maxLongPolls The maximum number of simultaneous long polls, to all hosts.
+	 * @param connectTimeout The connect timeout (milliseconds).
+	 * @param readTimeout The read timeout (milliseconds).
+	 */
+	public PooledHttpEngine(int maxConnectionsPerHost, int maxLongPolls, int connectTimeout, int readTimeout) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.maxLongPolls = maxLongPolls;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.hostPermits = new ConcurrentHashMap<String, Semaphore>();
+		this.longPollPermits = new Semaphore(maxLongPolls);
+
+		/*
+		 * These are JVM-wide, so they are set once here instead of on every request.
+		 */
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", Integer.toString(maxConnectionsPerHost + maxLongPolls));
+		System.setProperty("sun.net.http.retryPost", "false");
+	}
+
+	@Override
+	public HttpResponse execute(String method, String urlString, String data) throws IOException {
+		URL url = new URL(urlString);
+
+		final Semaphore permits = this.acquire(method, url);
+
+		try {
+			HttpURLConnection con = (HttpURLConnection) url.openConnection();
+			con.setConnectTimeout(this.connectTimeout);
+			con.setReadTimeout(this.readTimeout);
+			if ( null != method ) {
+				con.setRequestMethod(method);
+			}
+			if ( null != data ) {
+				con.setDoOutput(true);
+			}
+			con.addRequestProperty("Content-type", "application/json");
+			con.setRequestProperty("Accept-Charset", "UTF-8");
+			con.setUseCaches(false);
+			con.setRequestProperty("Cache-control", "max-age=0");
+
+			/*
+			 * Write the data out.
+			 */
+			if ( null != data ) {
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(con.getOutputStream(), "UTF-8" ));
+				bw.write(data);
+				bw.close();
+			}
+
+			int status = con.getResponseCode();
+			InputStream body;
+			if ( status >= 400 ) {
+				body = con.getErrorStream();
+			} else {
+				body = con.getInputStream();
+			}
+
+			return new HttpResponse(status, con.getResponseMessage(), body, new HttpResponse.Releaser() {
+				@Override
+				public void release() {
+					permits.release();
+				}
+			});
+		} catch (IOException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Acquires a permit for a request: a long poll permit, or a permit of the host of the URL.
+	 *
+	 * @return The semaphore the permit must be released to.
+	 * @throws IOException If no permit could be acquired.
+	 */
+	private Semaphore acquire(String method, URL url) throws IOException {
+		if ( isLongPoll(method, url) ) {
+			if ( !this.longPollPermits.tryAcquire() ) {
+				throw new IOException("Too many long polls in progress (" + this.maxLongPolls + ")");
+			}
+			return this.longPollPermits;
+		}
+
+		Semaphore permits = this.getPermits(url);
+		try {
+			if ( !permits.tryAcquire(this.connectTimeout, TimeUnit.MILLISECONDS) ) {
+				throw new IOException("Timed out waiting for a connection to " + url.getHost());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a connection to " + url.getHost());
+		}
+		return permits;
+	}
+
+	/**
+	 * Checks if a request is a long poll: a GET with a non-zero wait parameter.
+	 */
+	static boolean isLongPoll(String method, URL url) {
+		if ( null != method && !"GET".equals(method) ) {
+			return false;
+		}
+		String query = url.getQuery();
+		if ( null == query ) {
+			return false;
+		}
+		for ( String parameter : query.split("&") ) {
+			if ( parameter.startsWith(WAIT_PARAMETER + "=") ) {
+				String value = parameter.substring(WAIT_PARAMETER.length() + 1);
+				return value.length() > 0 && !value.matches("0+");
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the connection permits of the host of the specified URL.
+	 */
+	private Semaphore getPermits(URL url) {
+		String host = url.getHost() + ":" + url.getPort();
+		Semaphore permits = this.hostPermits.get(host);
+		if ( null == permits ) {
+			Semaphore created = new Semaphore(this.maxConnectionsPerHost);
+			permits = this.hostPermits.putIfAbsent(host, created);
+			if ( null == permits ) {
+				permits = created;
+			}
+		}
+		return permits;
+	}
+}
@@ -6,9 +6,12 @@ package org.purewidgets.server.im;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
 
 
 
+import org.purewidgets.server.dao.Dao;
+import org.purewidgets.server.http.HttpResponse;
 import org.purewidgets.server.http.HttpServiceImpl;
 import org.purewidgets.server.im.json.WidgetInputListJson;
 import org.purewidgets.server.im.json.WidgetListJson;
@@ -29,6 +32,11 @@ import org.purewidgets.shared.logging.Log;
 public class InteractionManager  {		
 	private static final String DEFAULT_INTERACTION_SERVER_URL = "http://pw-interactionmanager.appspot.com";
 	
+	/**
+	 * The maximum length of the urls used to delete widgets.
+	 */
+	private static final int MAX_URL_LENGTH = 2000;
+	
 		
 	/**
 	 * The name of the name/value pair that stores the last input time stamp
@@ -53,6 +61,11 @@ public class InteractionManager  {
 	private ServerStorage remoteStorage;
 
 	private UrlHelper urlHelper;
+	
+	/**
+	 * Fetches the input of the whole place, or null if input is requested per application.
+	 */
+	private PlaceInputFetcher placeInputFetcher;
 
 	public InteractionManager(ServerStorage remoteStorage, String placeId, String appId) {
 		this.placeId = placeId;
@@ -70,9 +83,21 @@ public class InteractionManager  {
 	public ArrayList<Widget> addWidget(Widget widget) {
 		ArrayList<Widget> widgets = new ArrayList<Widget>();
 		widgets.add(widget);
+		return this.addWidgets(widgets);
+	}
+	
+	/**
+	 * Adds a list of widgets to the interaction manager, in a single request.
+	 * 
+	 * @param widgets The widgets to add.
+	 * @return The widgets added, as returned by the interaction manager.
+	 */
+	public ArrayList<Widget> addWidgets(Collection<Widget> widgets) {
+		if ( widgets.isEmpty() ) {
+			return new ArrayList<Widget>();
+		}
 		
-		
-		WidgetListJson wl = WidgetListJson.create(this.appId, placeId, widgets);
+		WidgetListJson wl = WidgetListJson.create(this.appId, placeId, new ArrayList<Widget>(widgets));
 	
 		
 		String json = wl.toJsonString();
@@ -100,105 +125,201 @@ public class InteractionManager  {
 	
 	
 	/**
-	 * Checks input from the InteractionManager service
+	 * Checks input from the InteractionManager service.
+	 * 
+	 * The input cursor (the most recent input timestamp) is read once from the storage, advanced 
+	 * in memory while the received input is scanned, and written back once at the end.
+	 * 
+	 * If place input is enabled (see {@link #setPlaceInput(boolean)}), the input is taken from 
+	 * the input fetched for the whole place.
 	 */
 	public ArrayList<WidgetInput> askForInputFromServer() {
+		long operationsBefore = Dao.getOperationCount();
 		
-	
-			String lastTimeStamp = this.getLastTimeStampAsString();
-			if ( null == lastTimeStamp ) {
-				lastTimeStamp = "0";
-			}
-			String url = this.urlHelper.getApplicationInputUrl(this.placeId, this.appId, this.appId, lastTimeStamp);
-			
-			Log.debug(this, "Contacting application server for input..." + url);
-			String response = null;
+		String lastTimeStamp = this.getLastTimeStampAsString();
+		if ( null == lastTimeStamp ) {
+			lastTimeStamp = "0";
+		}
+		
+		ArrayList<WidgetInput> widgetInputs;
+		if ( null != this.placeInputFetcher ) {
+			widgetInputs = this.placeInputFetcher.takeInput(this.appId, lastTimeStamp);
+		} else {
+			widgetInputs = this.getApplicationInput(lastTimeStamp);
+		}
+		
+		if ( null != widgetInputs ) {
 			
-			try {
-				response = interactionService.get(url);
-			} catch (HttpServerException e) {
-				Log.error(this, e.getMessage());
-				e.printStackTrace();
-				return new ArrayList<WidgetInput>();
+			/*
+			 * Update our most recent input timeStamp so that in the next round we ask only
+			 * for newer input
+			 */
+			long initialCursor = toLong(lastTimeStamp);
+			long cursor = initialCursor;
+			for (WidgetInput widgetInput : widgetInputs ) {
+				long timeStamp = toLong(widgetInput.getTimeStamp());
+				if ( timeStamp > cursor ) {
+					cursor = timeStamp;
+				}
 			}
-			Log.debug(this, response);
-			
 			
-
+			/*
+			 * Save the new timeStamp, only once per poll
+			 */
+			if ( cursor > initialCursor ) {
+				this.setTimeStamp(cursor);
+			}
 			
-			WidgetInputListJson inputList = WidgetInputListJson.fromJson(WidgetInputListJson.class, response);
-			if ( null != inputList ) {
-				/*
-				 * Update our most recent input timeStamp so that in the next round we ask only
-				 * for newer input
-				 */
-				for (WidgetInput widgetInput : inputList.getWidgetInputList() ) {
-					/*
-					 * Save the new timeStamp locally
-					 */
-					if (toLong(widgetInput.getTimeStamp()) > this.getLastTimeStampAsLong()) {
-						this.setTimeStamp(toLong(widgetInput.getTimeStamp()));
-					}
-				}
-				
-				return inputList.getWidgetInputList();
-			} else {
+			Log.debug(this, "Processed " + widgetInputs.size() + " inputs with " 
+					+ (Dao.getOperationCount() - operationsBefore) + " datastore operations.");
+			return widgetInputs;
+		} else {
+			return new ArrayList<WidgetInput>();
+		}
+	}
+	
+	/**
+	 * Requests the input of the application from the InteractionManager service.
+	 * 
+	 * @param from The oldest input timestamp to retrieve.
+	 * @return The input, or null if the request failed.
+	 */
+	private ArrayList<WidgetInput> getApplicationInput(String from) {
+		String url = this.urlHelper.getApplicationInputUrl(this.placeId, this.appId, this.appId, from);
 		
-			
-				return new ArrayList<WidgetInput>();
-			}
+		Log.debug(this, "Contacting application server for input..." + url);
+		HttpResponse response = null;
+		
+		try {
+			response = interactionService.getResponse(url);
+		} catch (HttpServerException e) {
+			Log.error(this, e.getMessage());
+			e.printStackTrace();
+			return null;
+		}
+		
+		/*
+		 * Decode the input list directly from the response stream, instead of reading 
+		 * the whole response into a string first
+		 */
+		WidgetInputListJson inputList;
+		try {
+			inputList = WidgetInputListJson.fromJson(WidgetInputListJson.class, response.getBody());
+		} finally {
+			response.close();
+		}
+		if ( null == inputList ) {
+			return null;
+		}
+		return inputList.getWidgetInputList();
 	}
 	
 	
 	
-	public void deleteAllWidgets(boolean volatileOnly) {
-		// TODO Auto-generated method stub
+	/**
+	 * Deletes the widgets of the application from the interaction manager.
+	 * 
+	 * @param volatileOnly If true, deletes only the widgets marked as volatile (see 
+	 * {@link Widget#VOLATILE_PARAMETER_NAME}); otherwise, deletes all widgets.
+	 * @return The deleted widgets.
+	 */
+	public ArrayList<Widget> deleteAllWidgets(boolean volatileOnly) {
+		if ( volatileOnly ) {
+			ArrayList<Widget> volatileWidgets = new ArrayList<Widget>();
+			for ( Widget widget : this.getWidgetsList(this.placeId, this.appId) ) {
+				if ( widget.isVolatile() ) {
+					volatileWidgets.add(widget);
+				}
+			}
+			Log.debug(this, "Removing " + volatileWidgets.size() + " volatile widgets.");
+			return this.deleteWidgets(volatileWidgets);
+		}
 		
+		Log.debug(this, "Removing all widgets.");
+		String response;
+		try {
+			response = interactionService.delete(this.urlHelper.getWidgetsUrl(this.placeId, this.appId, this.appId));
+		} catch (HttpServerException e) {
+			Log.error(this, "",  e );
+			return new ArrayList<Widget>();
+		}
+		
+		WidgetListJson widgetList = WidgetListJson.fromJson(WidgetListJson.class, response);
+		if ( null != widgetList ) {
+			return widgetList.getWidgetList();
+		} else {
+			return new ArrayList<Widget>();
+		}
 	}
 	   
 	   
 	public ArrayList<Widget> deleteWidget(Widget widget) {
-		Log.debug(this, "Removing widget:" + widget.getWidgetId() );
+		ArrayList<Widget> widgets = new ArrayList<Widget>();
+		widgets.add(widget);
+		return this.deleteWidgets(widgets);
+	}
+	
+	/**
+	 * Deletes a list of widgets from the interaction manager. The widget ids are split over as 
+	 * many requests as needed to keep urls under {@link #MAX_URL_LENGTH} characters.
+	 * 
+	 * @param widgets The widgets to delete.
+	 * @return The deleted widgets.
+	 */
+	public ArrayList<Widget> deleteWidgets(Collection<Widget> widgets) {
+		Log.debug(this, "Removing " + widgets.size() + " widgets");
 		
 		/*
-		 * Create the URL for the DELETE method. Widget ids are passed on the 
-		 * 'widget' url parameter
+		 * Create the URLs for the DELETE method. Widget ids are passed on the 
+		 * 'widgets' url parameter
 		 */
-		StringBuilder widgetsUrlParam = new StringBuilder();
-		widgetsUrlParam.append( this.urlHelper.getWidgetsUrl(this.placeId, this.appId, this.appId) ).append("&widgets=");
-		
-		
+		ArrayList<String> widgetIds = new ArrayList<String>();
 		try {
-			widgetsUrlParam.append(URLEncoder.encode(widget.getWidgetId(), "UTF-8"));
+			for ( Widget widget : widgets ) {
+				widgetIds.add(URLEncoder.encode(widget.getWidgetId(), "UTF-8"));
+			}
 		} catch (UnsupportedEncodingException e1) {
 			Log.error(this, "Could not URLencode.",  e1);
 			return new ArrayList<Widget>();
 		}
-			
-		String response;
 		
-		try {
-			response = interactionService.delete(widgetsUrlParam.toString());
-			
-		} catch (Exception e) {
-			Log.error(this, "",  e );
+		ArrayList<Widget> deleted = new ArrayList<Widget>();
+		for ( String url : this.urlHelper.getWidgetsDeleteUrls(this.placeId, this.appId, this.appId, widgetIds, MAX_URL_LENGTH) ) {
+			String response;
 			
-			return new ArrayList<Widget>();
-		}
-		
-	
-		WidgetListJson widgetList = WidgetListJson.fromJson(WidgetListJson.class, response);
+			try {
+				response = interactionService.delete(url);
+				
+			} catch (Exception e) {
+				Log.error(this, "",  e );
+				continue;
+			}
 		
-		if ( null != widgetList ) {
-			return widgetList.getWidgetList();
-		} else {
-			return new ArrayList<Widget>();
+			WidgetListJson widgetList = WidgetListJson.fromJson(WidgetListJson.class, response);
+			if ( null != widgetList ) {
+				deleted.addAll(widgetList.getWidgetList());
+			}
 		}
-
+		return deleted;
 	}
 
 	
 	
+	/**
+	 * Enables or disables place input: fetching the input of all the applications of the place 
+	 * in a single request, shared by the applications (see {@link PlaceInputFetcher}), instead of 
+	 * requesting the input of each application. 
+	 * 
+	 * @param enabled true to enable place input.
+	 */
+	public void setPlaceInput(boolean enabled) {
+		if ( enabled ) {
+			this.placeInputFetcher = new PlaceInputFetcher(this.interactionService, this.urlHelper, this.placeId, this.appId);
+		} else {
+			this.placeInputFetcher = null;
+		}
+	}
+	
 	/**
 	 * Enables or disables the automatic input requests
 	 * @param automatic
@@ -208,15 +329,6 @@ public class InteractionManager  {
 	}
 	
 	
-	private long getLastTimeStampAsLong() {
-		try {
-			return Long.parseLong(getLastTimeStampAsString());
-		} catch (Exception e) {
-			Log.error(this, "Could not parse timestamp: " + e.getMessage());
-		}
-		return 0;
-	}
-	
 	private String getLastTimeStampAsString() {
 		return remoteStorage.getString(TIMESTAMP_NAME);
 	}	
@@ -225,7 +337,7 @@ public class InteractionManager  {
 	private void setTimeStamp(long timeStamp) {
 		Log.debug(this, "Storing timestamp: " + timeStamp);
 		
-		remoteStorage.setString(TIMESTAMP_NAME, ""+timeStamp);
+		remoteStorage.advanceLong(TIMESTAMP_NAME, timeStamp);
 	}
 
 	private long toLong(String value) {
@@ -0,0 +1,442 @@
+/**
+ *
+ */
+package org.purewidgets.server.im;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.purewidgets.server.dao.Dao;
+import org.purewidgets.server.dao.StorageDao;
+import org.purewidgets.server.http.HttpResponse;
+import org.purewidgets.server.http.HttpServiceImpl;
+import org.purewidgets.server.im.json.WidgetInputListJson;
+import org.purewidgets.shared.exceptions.HttpServerException;
+import org.purewidgets.shared.im.UrlHelper;
+import org.purewidgets.shared.im.WidgetInput;
+import org.purewidgets.shared.logging.Log;
+
+/**
+ * Fetches the input of all the server-side applications of a place with a single request to the
+ * interaction manager, instead of one request per application.
+ *
+ * The input received is split by application id and appended to a pending input list in a
+ * storage entity of each application (placeId-applicationId-PuReWidgets-pendingInput), kept apart
+ * from the storage used by the application itself so that the pending input does not grow it.
+ * When an application asks for input, it takes its pending list. A place-wide fetch is made only
+ * if the previous one, made by any application of the place, is older than the fetch interval,
+ * so the number of requests to the interaction manager depends on the number of places, not of
+ * applications.
+ *
+ * The place storage keeps the place input cursor, the time of the last fetch, and the
+ * applications that take input from it: input for other applications of the place (e.g.,
+ * client applications) is discarded. Each application keeps its own cursor, and input not newer
+ * than it is dropped when taken.
+ *
+ * An application that joins the place fetches make a fetch at once, from the older of its own
+ * cursor and the place cursor, so the input it received before joining is not lost. Each
+ * application also keeps the timestamp of the last input appended to its pending list, so input
+ * fetched again by such a fetch is not appended twice to the other applications.
+ *
+ * The pending input of an application is bounded, both in number of inputs and in encoded length, 
+ * so that it stays well below the size limit of a datastore entity. Input that does not fit is not 
+ * appended, and
+ * the place cursor is not advanced past it, so it is fetched again once the application takes its
+ * pending input.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class PlaceInputFetcher {
+
+	/**
+	 * The default minimum interval, in milliseconds, between place-wide fetches.
+	 */
+	public static final long DEFAULT_FETCH_INTERVAL = 5000;
+
+	/**
+	 * The number of times a transaction is attempted before giving up.
+	 */
+	private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
+	/**
+	 * The maximum number of inputs kept pending for an application.
+	 */
+	private static final int MAX_PENDING_INPUTS = 1000;
+
+	/**
+	 * The maximum length, in characters, of the encoded pending input of an application.
+	 */
+	private static final int MAX_PENDING_INPUT_LENGTH = 256 * 1024;
+
+	/**
+	 * The name of the place storage value that holds the place input cursor.
+	 */
+	private static final String TIMESTAMP_NAME = "lastTimeStamp";
+
+	/**
+	 * The name of the place storage value that holds the time of the last fetch.
+	 */
+	private static final String LAST_FETCH_NAME = "lastFetch";
+
+	/**
+	 * The name of the place storage list that holds the applications taking input.
+	 */
+	private static final String APPLICATIONS_NAME = "applications";
+
+	/**
+	 * The name of the pending input storage value that holds the pending input.
+	 */
+	private static final String PENDING_INPUT_NAME = "PuReWidgets-pendingInput";
+
+	/**
+	 * The name of the pending input storage value that holds the timestamp of the last input
+	 * appended to the pending input.
+	 */
+	private static final String APPENDED_CURSOR_NAME = "PuReWidgets-appendedInputCursor";
+
+	/**
+	 * Orders input by timestamp, oldest first.
+	 */
+	private static final Comparator<WidgetInput> TIMESTAMP_ORDER = new Comparator<WidgetInput>() {
+		@Override
+		public int compare(WidgetInput o1, WidgetInput o2) {
+			long t1 = toLong(o1.getTimeStamp());
+			long t2 = toLong(o2.getTimeStamp());
+			return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+		}
+	};
+
+	private HttpServiceImpl interactionService;
+
+	private UrlHelper urlHelper;
+
+	private String placeId;
+
+	private String callingApplicationId;
+
+	private long fetchInterval;
+
+	/**
+	 * Creates a new PlaceInputFetcher.
+	 *
+	 * @param interactionService The service used to make requests to the interaction manager.
+	 * @param urlHelper The UrlHelper of the interaction manager.
+	 * @param placeId The place id.
+	 * @param callingApplicationId The id of the application making the requests.
+	 */
+	public PlaceInputFetcher(HttpServiceImpl interactionService, UrlHelper urlHelper, String placeId,
+			String callingApplicationId) {
+		this.interactionService = interactionService;
+		this.urlHelper = urlHelper;
+		this.placeId = placeId;
+		this.callingApplicationId = callingApplicationId;
+		this.fetchInterval = DEFAULT_FETCH_INTERVAL;
+	}
+
+	/**
+	 * Takes the input pending for an application, fetching the input of the place first if the
+	 * last fetch is older than the fetch interval.
+	 *
+	 * @param applicationId The application id.
+	 * @param from The application's input cursor: only input more recent than it is returned.
+	 * @return The input for the application.
+	 */
+	public ArrayList<WidgetInput> takeInput(String applicationId, String from) {
+		String placeCursor = this.claimFetch(applicationId, from);
+		if ( null != placeCursor ) {
+			this.fetch(placeCursor);
+		}
+
+		ArrayList<WidgetInput> widgetInputs = new ArrayList<WidgetInput>();
+		long cursor = toLong(from);
+		for ( WidgetInput widgetInput : this.takePending(applicationId) ) {
+			if ( toLong(widgetInput.getTimeStamp()) > cursor ) {
+				widgetInputs.add(widgetInput);
+			}
+		}
+		return widgetInputs;
+	}
+
+	/**
+	 * Sets the minimum interval between place-wide fetches.
+	 *
+	 * @param fetchInterval The interval, in milliseconds.
+	 */
+	public void setFetchInterval(long fetchInterval) {
+		this.fetchInterval = fetchInterval;
+	}
+
+	/**
+	 * Registers the application as taking input and, if the last fetch is older than the fetch
+	 * interval, records a new fetch, so that concurrent applications don't fetch too. An
+	 * application that was not registered yet always fetches, from its own cursor if it is older
+	 * than the place cursor.
+	 *
+	 * @return The input cursor to fetch from, or null if no fetch is needed.
+	 */
+	private String claimFetch(final String applicationId, final String from) {
+		final long now = System.currentTimeMillis();
+		return Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<String>() {
+			@Override
+			public String run() {
+				StorageDao storage = PlaceInputFetcher.this.getStorage(PlaceInputFetcher.this.getPlaceStorageId());
+				boolean changed = false;
+				boolean joined = false;
+
+				ArrayList<String> applications = storage.loadList(APPLICATIONS_NAME);
+				if ( !applications.contains(applicationId) ) {
+					applications.add(applicationId);
+					storage.saveList(APPLICATIONS_NAME, applications);
+					changed = true;
+					joined = true;
+				}
+
+				String cursor = null;
+				if ( joined || now - toLong(storage.getString(LAST_FETCH_NAME)) >= PlaceInputFetcher.this.fetchInterval ) {
+					storage.setString(LAST_FETCH_NAME, Long.toString(now));
+					changed = true;
+
+					cursor = storage.getString(TIMESTAMP_NAME);
+					if ( null == cursor || (joined && toLong(from) < toLong(cursor)) ) {
+						cursor = from;
+					}
+				}
+
+				if ( changed ) {
+					Dao.put(storage);
+				}
+				return cursor;
+			}
+		});
+	}
+
+	/**
+	 * Fetches the input of the place, and appends it to the pending input of each application.
+	 */
+	private void fetch(String placeCursor) {
+		String url = this.urlHelper.getPlaceInputUrl(this.placeId, this.callingApplicationId, placeCursor);
+
+		Log.debug(this, "Contacting application server for place input..." + url);
+		WidgetInputListJson inputList;
+		try {
+			HttpResponse response = this.interactionService.getResponse(url);
+			try {
+				inputList = WidgetInputListJson.fromJson(WidgetInputListJson.class, response.getBody());
+			} finally {
+				response.close();
+			}
+		} catch (HttpServerException e) {
+			Log.error(this, e.getMessage());
+			return;
+		}
+		if ( null == inputList ) {
+			return;
+		}
+
+		/*
+		 * Split the input by application
+		 */
+		long cursor = toLong(placeCursor);
+		LinkedHashMap<String, ArrayList<WidgetInput>> inputs = new LinkedHashMap<String, ArrayList<WidgetInput>>();
+		for ( WidgetInput widgetInput : inputList.getWidgetInputList() ) {
+			long timeStamp = toLong(widgetInput.getTimeStamp());
+			if ( timeStamp > cursor ) {
+				cursor = timeStamp;
+			}
+			if ( null == widgetInput.getApplicationId() ) {
+				Log.warn(this, "Discarding input without application id for widget " + widgetInput.getWidgetId());
+				continue;
+			}
+			ArrayList<WidgetInput> applicationInputs = inputs.get(widgetInput.getApplicationId());
+			if ( null == applicationInputs ) {
+				applicationInputs = new ArrayList<WidgetInput>();
+				inputs.put(widgetInput.getApplicationId(), applicationInputs);
+			}
+			applicationInputs.add(widgetInput);
+		}
+
+		ArrayList<String> applications = this.loadApplications();
+		long undelivered = Long.MAX_VALUE;
+		for ( Map.Entry<String, ArrayList<WidgetInput>> entry : inputs.entrySet() ) {
+			if ( applications.contains(entry.getKey()) ) {
+				undelivered = Math.min(undelivered, this.appendPending(entry.getKey(), entry.getValue()));
+			}
+		}
+		Log.debug(this, "Fetched " + inputList.getWidgetInputList().size() + " inputs for " + inputs.size()
+				+ " applications of place " + this.placeId);
+
+		/*
+		 * Don't move the place cursor past input that could not be appended
+		 */
+		if ( undelivered <= cursor ) {
+			cursor = undelivered - 1;
+		}
+		if ( cursor > toLong(placeCursor) ) {
+			this.advanceCursor(cursor);
+		}
+	}
+
+	/**
+	 * Loads the applications that take input from the place fetches.
+	 */
+	private ArrayList<String> loadApplications() {
+		ArrayList<String> applications = Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<ArrayList<String>>() {
+			@Override
+			public ArrayList<String> run() {
+				return PlaceInputFetcher.this.getStorage(PlaceInputFetcher.this.getPlaceStorageId()).loadList(APPLICATIONS_NAME);
+			}
+		});
+		if ( null == applications ) {
+			return new ArrayList<String>();
+		}
+		return applications;
+	}
+
+	/**
+	 * Appends input to the pending input of an application, oldest first. Input not newer than
+	 * the last input appended was already appended by an earlier fetch, and is skipped. Input that
+	 * does not fit in the pending input is left out.
+	 *
+	 * @return The timestamp of the oldest input left out, or Long.MAX_VALUE if none was.
+	 */
+	private long appendPending(String applicationId, ArrayList<WidgetInput> widgetInputs) {
+		final ArrayList<WidgetInput> sorted = new ArrayList<WidgetInput>(widgetInputs);
+		Collections.sort(sorted, TIMESTAMP_ORDER);
+
+		final String storageId = this.getPendingStorageId(applicationId);
+		Long undelivered = Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<Long>() {
+			@Override
+			public Long run() {
+				StorageDao storage = PlaceInputFetcher.this.getStorage(storageId);
+
+				long appended = toLong(storage.getString(APPENDED_CURSOR_NAME));
+				long undelivered = Long.MAX_VALUE;
+				ArrayList<WidgetInput> pending = decode(storage.getString(PENDING_INPUT_NAME));
+				int previous = pending.size();
+				for ( WidgetInput widgetInput : sorted ) {
+					long timeStamp = toLong(widgetInput.getTimeStamp());
+					if ( timeStamp <= appended ) {
+						continue;
+					}
+					if ( pending.size() >= MAX_PENDING_INPUTS ) {
+						undelivered = timeStamp;
+						break;
+					}
+					pending.add(widgetInput);
+				}
+
+				/*
+				 * Leave out the newest of the appended input until the encoded pending input fits
+				 */
+				String json = WidgetInputListJson.create(pending).toJsonString();
+				while ( json.length() > MAX_PENDING_INPUT_LENGTH && pending.size() > previous ) {
+					int keep = previous + (pending.size() - previous) / 2;
+					undelivered = toLong(pending.get(keep).getTimeStamp());
+					pending.subList(keep, pending.size()).clear();
+					json = WidgetInputListJson.create(pending).toJsonString();
+				}
+				if ( pending.size() == previous ) {
+					return undelivered;
+				}
+
+				/*
+				 * Input with the same timestamp as the first left out will be fetched again, and 
+				 * must not be skipped then
+				 */
+				long last = Math.min(toLong(pending.get(pending.size() - 1).getTimeStamp()), undelivered - 1);
+				storage.setString(PENDING_INPUT_NAME, json);
+				storage.setString(APPENDED_CURSOR_NAME, Long.toString(last));
+				Dao.put(storage);
+				return undelivered;
+			}
+		});
+
+		if ( null == undelivered ) {
+			Log.error(this, "Could not append " + sorted.size() + " inputs for application " + applicationId 
+					+ ". They will be fetched again.");
+			return sorted.isEmpty() ? Long.MAX_VALUE : toLong(sorted.get(0).getTimeStamp());
+		}
+		if ( undelivered.longValue() != Long.MAX_VALUE ) {
+			int count = 0;
+			for ( WidgetInput widgetInput : sorted ) {
+				if ( toLong(widgetInput.getTimeStamp()) >= undelivered.longValue() ) {
+					count++;
+				}
+			}
+			Log.warn(this, "The pending input of application " + applicationId + " is full. " + count 
+					+ " inputs were not appended and will be fetched again.");
+		}
+		return undelivered.longValue();
+	}
+
+	private ArrayList<WidgetInput> takePending(String applicationId) {
+		final String storageId = this.getPendingStorageId(applicationId);
+		String pending = Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<String>() {
+			@Override
+			public String run() {
+				StorageDao storage = PlaceInputFetcher.this.getStorage(storageId);
+
+				String value = storage.getString(PENDING_INPUT_NAME);
+				if ( null != value && value.length() > 0 ) {
+					storage.setString(PENDING_INPUT_NAME, "");
+					Dao.put(storage);
+				}
+				return value;
+			}
+		});
+		return decode(pending);
+	}
+
+	private void advanceCursor(final long cursor) {
+		Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<StorageDao>() {
+			@Override
+			public StorageDao run() {
+				StorageDao storage = PlaceInputFetcher.this.getStorage(PlaceInputFetcher.this.getPlaceStorageId());
+				if ( cursor > toLong(storage.getString(TIMESTAMP_NAME)) ) {
+					storage.setString(TIMESTAMP_NAME, Long.toString(cursor));
+					Dao.put(storage);
+				}
+				return storage;
+			}
+		});
+	}
+
+	private StorageDao getStorage(String storageId) {
+		StorageDao storage = Dao.getStorage(storageId);
+		if ( null == storage ) {
+			storage = new StorageDao(storageId);
+		}
+		return storage;
+	}
+
+	private String getPlaceStorageId() {
+		return this.placeId + "-PuReWidgets-placeInput";
+	}
+
+	private String getPendingStorageId(String applicationId) {
+		return this.placeId + "-" + applicationId + "-PuReWidgets-pendingInput";
+	}
+
+	private static ArrayList<WidgetInput> decode(String value) {
+		if ( null == value || value.length() == 0 ) {
+			return new ArrayList<WidgetInput>();
+		}
+		WidgetInputListJson inputList = WidgetInputListJson.fromJson(WidgetInputListJson.class, value);
+		if ( null == inputList ) {
+			return new ArrayList<WidgetInput>();
+		}
+		return inputList.getWidgetInputList();
+	}
+
+	private static long toLong(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+}
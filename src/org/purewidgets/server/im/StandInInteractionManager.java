@@ -0,0 +1,419 @@
+/**
+ *
+ */
+package org.purewidgets.server.im;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.purewidgets.server.im.json.WidgetDeltaListJson;
+import org.purewidgets.server.im.json.WidgetInputJson;
+import org.purewidgets.server.im.json.WidgetInputListJson;
+import org.purewidgets.server.im.json.WidgetListJson;
+import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.im.WidgetDelta;
+import org.purewidgets.shared.im.WidgetInput;
+import org.purewidgets.shared.logging.Log;
+
+/**
+ * An in-memory stand-in for the interaction manager, for developing and testing the input
+ * transports offline. Point an application's interaction manager url to the servlet's path
+ * (e.g., http://localhost:8888/standin) to use it.
+ *
+ * It is not mapped in the deployed web.xml, since anyone could post input through it. To use it,
+ * map it only in the web.xml of a development server:
+ * <pre>
+ * &lt;servlet&gt;
+ *   &lt;servlet-name&gt;standInInteractionManager&lt;/servlet-name&gt;
+ *   &lt;servlet-class&gt;org.purewidgets.server.im.StandInInteractionManager&lt;/servlet-class&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *   &lt;servlet-name&gt;standInInteractionManager&lt;/servlet-name&gt;
+ *   &lt;url-pattern&gt;/standin/*&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;
+ * </pre>
+ *
+ * It supports only what is needed to deliver input:
+ * <ul>
+ * <li>GET .../place/{placeId}/application/{appId}/input?from={timestamp}&amp;wait={seconds} returns
+ * the input more recent than <code>from</code>. If there is none, the request is held for up to
+ * <code>wait</code> seconds until some arrives (long polling). At most {@link #MAX_HELD_REQUESTS}
+ * requests are held at a time; others are answered at once.</li>
+ * <li>GET .../place/{placeId}/input?from={timestamp}&amp;wait={seconds} returns the input of every
+ * application of the place more recent than <code>from</code>, held like the application input.</li>
+ * <li>POST .../place/{placeId}/application/{appId}/widget/{widgetId}/input queues an input.</li>
+ * <li>POST .../place/{placeId}/application/{appId}/widget stores widgets, returning them as sent.</li>
+ * <li>POST .../place/{placeId}/application/{appId}/widget/delta applies widget deltas to the stored
+ * widgets, returning the updated widgets, or answers 409 (conflict), applying none, if a widget is
+ * not stored or is not the version a delta applies to. The bytes received are logged against the
+ * bytes the same updates would take if the widgets were sent whole.</li>
+ * <li>DELETE .../place/{placeId}/application/{appId}/widget accepts widget deletions.</li>
+ * </ul>
+ * Anything else, including channel tokens, is answered with 404, so clients fall back to long
+ * polling. Input is kept only in the memory of the instance that received it.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class StandInInteractionManager extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The maximum number of inputs kept per application.
+	 */
+	private static final int MAX_INPUTS = 1000;
+
+	/**
+	 * The maximum time, in seconds, a request is held.
+	 */
+	private static final int MAX_WAIT = 25;
+
+	/**
+	 * The maximum number of requests held at the same time, so that long polls don't take every
+	 * request thread of the server.
+	 */
+	public static final int MAX_HELD_REQUESTS = 50;
+
+	/**
+	 * The queued input of each application, by "placeId/applicationId". Each queue is also the
+	 * monitor that held requests wait on.
+	 */
+	private final HashMap<String, LinkedList<WidgetInput>> inputs = new HashMap<String, LinkedList<WidgetInput>>();
+
+	/**
+	 * The timestamp of the last input queued. Timestamps are unique and increasing.
+	 */
+	private long lastTimeStamp;
+
+	/**
+	 * The number of requests being held.
+	 */
+	private final AtomicInteger heldRequests = new AtomicInteger();
+
+	/**
+	 * The monitor that held place input requests wait on. It is notified of every input queued.
+	 */
+	private final Object placeInputMonitor = new Object();
+
+	/**
+	 * The stored widgets of each application, by "placeId/applicationId" and widget id. Each map
+	 * is also its own lock.
+	 */
+	private final HashMap<String, LinkedHashMap<String, Widget>> widgets = new HashMap<String, LinkedHashMap<String, Widget>>();
+
+	/**
+	 * The bytes of the widget deltas received.
+	 */
+	private final AtomicLong deltaBytes = new AtomicLong();
+
+	/**
+	 * The bytes the widgets updated by deltas would take if they were sent whole.
+	 */
+	private final AtomicLong deltaWholeBytes = new AtomicLong();
+
+	@Override
+	public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		String pathInfo = req.getPathInfo();
+		if ( null != pathInfo && pathInfo.matches("/place/[^/]+/input") ) {
+			this.getPlaceInput(pathInfo.split("/")[2], toLong(req.getParameter("from")), this.getWait(req), resp);
+			return;
+		}
+		
+		String[] path = this.getPath(req);
+		if ( 5 != path.length || !"input".equals(path[4]) ) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		long from = toLong(req.getParameter("from"));
+		long wait = this.getWait(req);
+		boolean held = wait > 0 && this.hold();
+		if ( !held ) {
+			wait = 0;
+		}
+		long deadline = System.currentTimeMillis() + wait;
+
+		LinkedList<WidgetInput> queue = this.getQueue(path[1], path[3]);
+		ArrayList<WidgetInput> result = new ArrayList<WidgetInput>();
+		try {
+			synchronized ( queue ) {
+				while ( true ) {
+					for ( WidgetInput widgetInput : queue ) {
+						if ( toLong(widgetInput.getTimeStamp()) > from ) {
+							result.add(widgetInput);
+						}
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if ( !result.isEmpty() || remaining <= 0 ) {
+						break;
+					}
+					try {
+						queue.wait(remaining);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+		} finally {
+			if ( held ) {
+				this.heldRequests.decrementAndGet();
+			}
+		}
+
+		this.write(resp, WidgetInputListJson.create(result).toJsonString());
+	}
+
+	@Override
+	public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		String[] path = this.getPath(req);
+
+		if ( 7 == path.length && "widget".equals(path[4]) && "input".equals(path[6]) ) {
+			WidgetInputJson widgetInputJson = WidgetInputJson.fromJson(WidgetInputJson.class, this.read(req));
+			if ( null == widgetInputJson ) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+			WidgetInput widgetInput = widgetInputJson.getWidgetInput();
+			widgetInput.setPlaceId(path[1]);
+			widgetInput.setApplicationId(path[3]);
+			widgetInput.setWidgetId(path[5]);
+			this.queue(widgetInput);
+			this.write(resp, "{}");
+
+		} else if ( 5 == path.length && "widget".equals(path[4]) ) {
+			WidgetListJson widgetListJson = WidgetListJson.fromJson(WidgetListJson.class, this.read(req));
+			if ( null == widgetListJson ) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+			ArrayList<Widget> widgetList = widgetListJson.getWidgetList();
+			LinkedHashMap<String, Widget> applicationWidgets = this.getWidgets(path[1], path[3]);
+			synchronized ( applicationWidgets ) {
+				for ( Widget widget : widgetList ) {
+					widget.setPlaceId(path[1]);
+					widget.setApplicationId(path[3]);
+					applicationWidgets.put(widget.getWidgetId(), widget);
+				}
+			}
+			this.write(resp, WidgetListJson.create(path[3], path[1], widgetList).toJsonString());
+
+		} else if ( 6 == path.length && "widget".equals(path[4]) && "delta".equals(path[5]) ) {
+			this.updateWidgets(path[1], path[3], this.read(req), resp);
+
+		} else {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+	@Override
+	public void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		String[] path = this.getPath(req);
+		if ( 5 != path.length || !"widget".equals(path[4]) ) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		this.write(resp, WidgetListJson.create(path[3], path[1], new ArrayList<Widget>()).toJsonString());
+	}
+
+	private void updateWidgets(String placeId, String applicationId, String body, HttpServletResponse resp)
+			throws IOException {
+		WidgetDeltaListJson deltaListJson = WidgetDeltaListJson.fromJson(WidgetDeltaListJson.class, body);
+		if ( null == deltaListJson ) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		ArrayList<Widget> updated = new ArrayList<Widget>();
+		LinkedHashMap<String, Widget> applicationWidgets = this.getWidgets(placeId, applicationId);
+		synchronized ( applicationWidgets ) {
+			for ( WidgetDelta delta : deltaListJson.getDeltaList() ) {
+				Widget base = applicationWidgets.get(delta.getWidgetId());
+				Widget widget = null == base ? null : delta.apply(base);
+				if ( null == widget ) {
+					Log.debug(this, "Widget delta does not match the stored version of '" + delta.getWidgetId() + "'");
+					resp.sendError(HttpServletResponse.SC_CONFLICT);
+					return;
+				}
+				updated.add(widget);
+			}
+			for ( Widget widget : updated ) {
+				applicationWidgets.put(widget.getWidgetId(), widget);
+			}
+		}
+
+		String json = WidgetListJson.create(applicationId, placeId, updated).toJsonString();
+		long received = this.deltaBytes.addAndGet(body.length());
+		long whole = this.deltaWholeBytes.addAndGet(json.length());
+		Log.info(this, "Widget deltas: " + body.length() + " bytes received for " + updated.size() 
+				+ " widgets (" + json.length() + " bytes whole). Total: " + received + " bytes received, " 
+				+ whole + " bytes whole.");
+		this.write(resp, json);
+	}
+
+	/**
+	 * Gets the time, in milliseconds, a request asked to be held.
+	 */
+	private long getWait(HttpServletRequest req) {
+		return Math.min(MAX_WAIT, Math.max(0, toLong(req.getParameter("wait")))) * 1000;
+	}
+
+	/**
+	 * Reserves a place for a held request.
+	 *
+	 * @return true if the request can be held, false if too many requests are being held.
+	 */
+	private boolean hold() {
+		if ( this.heldRequests.incrementAndGet() > MAX_HELD_REQUESTS ) {
+			this.heldRequests.decrementAndGet();
+			Log.warn(this, "Too many held requests: answering at once.");
+			return false;
+		}
+		return true;
+	}
+
+	private void getPlaceInput(String placeId, long from, long wait, HttpServletResponse resp) throws IOException {
+		boolean held = wait > 0 && this.hold();
+		long deadline = System.currentTimeMillis() + (held ? wait : 0);
+
+		ArrayList<WidgetInput> result;
+		try {
+			synchronized ( this.placeInputMonitor ) {
+				while ( true ) {
+					result = this.collectPlaceInput(placeId, from);
+					long remaining = deadline - System.currentTimeMillis();
+					if ( !result.isEmpty() || remaining <= 0 ) {
+						break;
+					}
+					try {
+						this.placeInputMonitor.wait(remaining);
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+			}
+		} finally {
+			if ( held ) {
+				this.heldRequests.decrementAndGet();
+			}
+		}
+		
+		this.write(resp, WidgetInputListJson.create(result).toJsonString());
+	}
+
+	private ArrayList<WidgetInput> collectPlaceInput(String placeId, long from) {
+		ArrayList<LinkedList<WidgetInput>> queues = new ArrayList<LinkedList<WidgetInput>>();
+		synchronized ( this.inputs ) {
+			for ( String key : this.inputs.keySet() ) {
+				if ( key.startsWith(placeId + "/") ) {
+					queues.add(this.inputs.get(key));
+				}
+			}
+		}
+		
+		ArrayList<WidgetInput> result = new ArrayList<WidgetInput>();
+		for ( LinkedList<WidgetInput> queue : queues ) {
+			synchronized ( queue ) {
+				for ( WidgetInput widgetInput : queue ) {
+					if ( toLong(widgetInput.getTimeStamp()) > from ) {
+						result.add(widgetInput);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private void queue(WidgetInput widgetInput) {
+		synchronized ( this ) {
+			this.lastTimeStamp = Math.max(this.lastTimeStamp + 1, System.currentTimeMillis());
+			widgetInput.setTimeStamp("" + this.lastTimeStamp);
+		}
+
+		LinkedList<WidgetInput> queue = this.getQueue(widgetInput.getPlaceId(), widgetInput.getApplicationId());
+		synchronized ( queue ) {
+			queue.add(widgetInput);
+			if ( queue.size() > MAX_INPUTS ) {
+				queue.removeFirst();
+			}
+			queue.notifyAll();
+		}
+		synchronized ( this.placeInputMonitor ) {
+			this.placeInputMonitor.notifyAll();
+		}
+		Log.debug(this, "Queued input for widget '" + widgetInput.getWidgetId() + "'");
+	}
+
+	private LinkedHashMap<String, Widget> getWidgets(String placeId, String applicationId) {
+		synchronized ( this.widgets ) {
+			LinkedHashMap<String, Widget> applicationWidgets = this.widgets.get(placeId + "/" + applicationId);
+			if ( null == applicationWidgets ) {
+				applicationWidgets = new LinkedHashMap<String, Widget>();
+				this.widgets.put(placeId + "/" + applicationId, applicationWidgets);
+			}
+			return applicationWidgets;
+		}
+	}
+
+	private LinkedList<WidgetInput> getQueue(String placeId, String applicationId) {
+		synchronized ( this.inputs ) {
+			LinkedList<WidgetInput> queue = this.inputs.get(placeId + "/" + applicationId);
+			if ( null == queue ) {
+				queue = new LinkedList<WidgetInput>();
+				this.inputs.put(placeId + "/" + applicationId, queue);
+			}
+			return queue;
+		}
+	}
+
+	/**
+	 * Splits the request path after the servlet path, e.g., "place", placeId, "application",
+	 * applicationId, "input".
+	 */
+	private String[] getPath(HttpServletRequest req) {
+		String pathInfo = req.getPathInfo();
+		if ( null == pathInfo || !pathInfo.startsWith("/place/") ) {
+			return new String[0];
+		}
+		String[] path = pathInfo.substring(1).split("/");
+		if ( path.length < 4 || !"application".equals(path[2]) ) {
+			return new String[0];
+		}
+		return path;
+	}
+
+	private String read(HttpServletRequest req) throws IOException {
+		StringBuilder body = new StringBuilder();
+		BufferedReader reader = req.getReader();
+		char[] buffer = new char[4096];
+		int read;
+		while ( -1 != (read = reader.read(buffer)) ) {
+			body.append(buffer, 0, read);
+		}
+		return body.toString();
+	}
+
+	private void write(HttpServletResponse resp, String json) throws IOException {
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		resp.getWriter().write(json);
+	}
+
+	private static long toLong(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+}
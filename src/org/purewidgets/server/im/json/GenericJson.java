@@ -1,29 +1,45 @@
 package org.purewidgets.server.im.json;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.purewidgets.shared.logging.Log;
 
 
 /**
  * Provides JSON serialization and deserialization using the Jackson JSON processor.
  * 
+ * A single ObjectMapper is shared by all the JSON types, so that Jackson's serializer and
+ * deserializer caches survive across calls. Readers and writers are created once per type;
+ * they are immutable and thread-safe.
+ * 
  * @author "Jorge C. S. Cardoso"
  *
  */
 public class GenericJson {
 	
+	/**
+	 * The shared mapper. It must not be reconfigured after the readers and writers are created.
+	 */
+	private static final ObjectMapper mapper = new ObjectMapper();
+	
+	private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+	
+	private static final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+	
 	public static <T> T fromJson(Class<T> clas, String json) {
-		 ObjectMapper mapper = new ObjectMapper();
-		 
 		 T t = null;
 		 
 		 try {
-			t = mapper.readValue(json, clas);
+			t = getReader(clas).readValue(json);
 		} catch (JsonParseException e) {
 			Log.error(GenericJson.class.getName(), "Error parsing JSON", e);
 		} catch (JsonMappingException e) {
@@ -31,15 +47,41 @@ public class GenericJson {
 		} catch (IOException e) {
 			Log.error(GenericJson.class.getName(), "Error", e);
 		}
-		
+	
 		return t;
 	 }
 	
+	/**
+	 * Decodes an object directly from a stream, without building the whole JSON string in
+	 * memory. The stream is read as UTF-8 and is not closed.
+	 *
+	 * @param clas The class of the object.
+	 * @param json The stream with the JSON representation of the object.
+	 * @return The decoded object, or null if it could not be decoded.
+	 */
+	public static <T> T fromJson(Class<T> clas, InputStream json) {
+		 T t = null;
+		 if ( null == json ) {
+			 return t;
+		 }
+	
+		 try {
+			t = getReader(clas).readValue(json);
+		} catch (JsonParseException e) {
+			Log.error(GenericJson.class.getName(), "Error parsing JSON", e);
+		} catch (JsonMappingException e) {
+			Log.error(GenericJson.class.getName(), "Error in JSON mapping", e);
+		} catch (IOException e) {
+			Log.error(GenericJson.class.getName(), "Error", e);
+		}
+	
+		return t;
+	}
+	
 	public final String toJsonString() {
-		ObjectMapper mapper = new ObjectMapper();
 		String json = null;
 		try {
-			json = mapper.writeValueAsString(this);
+			json = getWriter(this.getClass()).writeValueAsString(this);
 		} catch (JsonGenerationException e) {
 			Log.error(GenericJson.class.getName(), "Error", e);
 		} catch (JsonMappingException e) {
@@ -49,4 +91,22 @@ public class GenericJson {
 		}
 		return json;
 	}
+	
+	private static ObjectReader getReader(Class<?> clas) {
+		ObjectReader reader = readers.get(clas);
+		if ( null == reader ) {
+			reader = mapper.reader(clas);
+			readers.putIfAbsent(clas, reader);
+		}
+		return reader;
+	}
+	
+	private static ObjectWriter getWriter(Class<?> clas) {
+		ObjectWriter writer = writers.get(clas);
+		if ( null == writer ) {
+			writer = mapper.writerWithType(clas);
+			writers.putIfAbsent(clas, writer);
+		}
+		return writer;
+	}
 }
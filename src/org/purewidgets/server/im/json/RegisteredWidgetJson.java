@@ -0,0 +1,79 @@
+package org.purewidgets.server.im.json;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonAutoDetect.Visibility;
+import org.purewidgets.shared.im.Widget;
+
+/**
+ *
+ * The JSON data transfer object for a widget registered by an application on the
+ * interaction manager, together with the content fingerprint of the widget as it was
+ * registered and the time it was registered.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+@JsonAutoDetect(fieldVisibility=Visibility.ANY, getterVisibility=Visibility.NONE, isGetterVisibility=Visibility.NONE)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class RegisteredWidgetJson extends GenericJson {
+
+	private WidgetJson widget;
+
+	private int fingerprint;
+
+	private long registrationTime;
+
+	private RegisteredWidgetJson() {
+
+	}
+
+	/**
+	 * Creates the JSON representation of a registered widget.
+	 *
+	 * @param widget The registered widget.
+	 * @param fingerprint The fingerprint of the widget as it was registered.
+	 * @param registrationTime The time, in milliseconds, the widget was registered.
+	 * @return The JSON data transfer object.
+	 */
+	public static RegisteredWidgetJson create(Widget widget, int fingerprint, long registrationTime) {
+		RegisteredWidgetJson registeredJson = new RegisteredWidgetJson();
+
+		registeredJson.widget = WidgetJson.create(widget);
+		registeredJson.fingerprint = fingerprint;
+		registeredJson.registrationTime = registrationTime;
+
+		return registeredJson;
+	}
+
+	/**
+	 * Gets the registered widget.
+	 *
+	 * @return The registered widget, or null if there is none.
+	 */
+	public Widget getWidget() {
+		if ( null == this.widget ) {
+			return null;
+		}
+		return this.widget.getWidget();
+	}
+
+	/**
+	 * Gets the fingerprint of the widget as it was registered.
+	 *
+	 * @return The fingerprint.
+	 */
+	public int getFingerprint() {
+		return this.fingerprint;
+	}
+
+	/**
+	 * Gets the time the widget was registered.
+	 *
+	 * @return The time, in milliseconds, or 0 if it is unknown.
+	 */
+	public long getRegistrationTime() {
+		return this.registrationTime;
+	}
+
+}
@@ -0,0 +1,92 @@
+package org.purewidgets.server.im.json;
+
+import java.util.ArrayList;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonAutoDetect.Visibility;
+import org.purewidgets.shared.im.WidgetDelta;
+
+/**
+ * 
+ * The JSON data transfer object for WidgetDelta objects. Lists of changes that are empty may be
+ * left out.
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+@JsonAutoDetect(fieldVisibility=Visibility.ANY, getterVisibility=Visibility.NONE, isGetterVisibility=Visibility.NONE)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class WidgetDeltaJson extends GenericJson {
+
+	private String widgetId;
+	
+	private int baseVersion;
+	
+	private int version;
+	
+	private boolean descriptionsChanged;
+	
+	private String controlType;
+	
+	private String shortDescription;
+	
+	private String longDescription;
+	
+	private ArrayList<WidgetOptionJson> addedOptions;
+	
+	private ArrayList<WidgetOptionJson> changedOptions;
+	
+	private ArrayList<String> removedOptions;
+	
+	private ArrayList<WidgetParameterJson> addedParameters;
+	
+	private ArrayList<WidgetParameterJson> changedParameters;
+	
+	private ArrayList<String> removedParameters;
+	
+	private WidgetDeltaJson() {
+		
+	}
+	
+	public WidgetDelta getWidgetDelta() {
+		WidgetDelta delta = new WidgetDelta();
+		
+		delta.setWidgetId(this.widgetId);
+		delta.setBaseVersion(this.baseVersion);
+		delta.setVersion(this.version);
+		if ( this.descriptionsChanged ) {
+			delta.setDescriptions(this.controlType, this.shortDescription, this.longDescription);
+		}
+		
+		if ( null != this.addedOptions ) {
+			for ( WidgetOptionJson optionJson : this.addedOptions ) {
+				delta.getAddedOptions().add(optionJson.getWidgetOption());
+			}
+		}
+		if ( null != this.changedOptions ) {
+			for ( WidgetOptionJson optionJson : this.changedOptions ) {
+				delta.getChangedOptions().add(optionJson.getWidgetOption());
+			}
+		}
+		if ( null != this.removedOptions ) {
+			delta.getRemovedOptionIds().addAll(this.removedOptions);
+		}
+		
+		if ( null != this.addedParameters ) {
+			for ( WidgetParameterJson parameterJson : this.addedParameters ) {
+				delta.getAddedParameters().add(parameterJson.getWidgetParameter());
+			}
+		}
+		if ( null != this.changedParameters ) {
+			for ( WidgetParameterJson parameterJson : this.changedParameters ) {
+				delta.getChangedParameters().add(parameterJson.getWidgetParameter());
+			}
+		}
+		if ( null != this.removedParameters ) {
+			delta.getRemovedParameterNames().addAll(this.removedParameters);
+		}
+		
+		return delta;
+	}
+}
@@ -0,0 +1,44 @@
+package org.purewidgets.server.im.json;
+
+import java.util.ArrayList;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonAutoDetect.Visibility;
+import org.purewidgets.shared.im.WidgetDelta;
+
+/**
+ * 
+ * The JSON data transfer object for ArrayList of WidgetDelta objects.
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+@JsonAutoDetect(fieldVisibility=Visibility.ANY, getterVisibility=Visibility.NONE, isGetterVisibility=Visibility.NONE)
+@JsonIgnoreProperties(ignoreUnknown=true)
+public class WidgetDeltaListJson extends GenericJson {
+	
+	@SuppressWarnings("unused")
+	private String applicationId;
+	
+	@SuppressWarnings("unused")
+	private String placeId;
+	
+	private ArrayList<WidgetDeltaJson> deltas;
+	
+	private WidgetDeltaListJson() {
+		
+	}
+	
+	public ArrayList<WidgetDelta> getDeltaList() {
+		ArrayList<WidgetDelta> deltaList = new ArrayList<WidgetDelta>();
+		
+		if ( null != this.deltas ) {
+			for ( WidgetDeltaJson deltaJson : this.deltas ) {
+				deltaList.add( deltaJson.getWidgetDelta() );
+			}
+		}
+		
+		return deltaList;
+	}
+}
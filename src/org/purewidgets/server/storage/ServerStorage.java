@@ -6,6 +6,7 @@ package org.purewidgets.server.storage;
 
 import org.purewidgets.server.dao.Dao;
 import org.purewidgets.server.dao.StorageDao;
+import org.purewidgets.shared.logging.Log;
 
 
 
@@ -16,9 +17,18 @@ import org.purewidgets.server.dao.StorageDao;
  * @author Jorge C. S. Cardoso
  */
 public class ServerStorage {
-	
+
+	/**
+	 * The number of times a transaction is attempted before giving up.
+	 */
+	private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
 	private String storageId;
-	private StorageDao storage;
+	
+	/**
+	 * The currently open storage session, or null if there is none.
+	 */
+	private StorageSession session;
 	
 	/**
 	 * Creates and empty RemoteStorage object.
@@ -30,13 +40,17 @@ public class ServerStorage {
 		 * Check if exists, if not create
 		 * 
 		 */
-		Dao.beginTransaction();
-		StorageDao storage = Dao.getStorage(this.storageId);
-		if ( null == storage ) {
-			storage = new StorageDao(this.storageId);
-			Dao.put(storage);
-		}
-		Dao.commitOrRollbackTransaction();
+		Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<StorageDao>() {
+			@Override
+			public StorageDao run() {
+				StorageDao storage = Dao.getStorage(ServerStorage.this.storageId);
+				if ( null == storage ) {
+					storage = new StorageDao(ServerStorage.this.storageId);
+					Dao.put(storage);
+				}
+				return storage;
+			}
+		});
 	}
 	
 	public static ServerStorage get(String storageId) {
@@ -46,22 +60,83 @@ public class ServerStorage {
 		return rs;
 	}
 	
+	/**
+	 * Gets the id of the storage entity.
+	 * 
+	 * @return The id of the storage entity.
+	 */
+	public String getStorageId() {
+		return this.storageId;
+	}
+	
+	/**
+	 * Opens a storage session. While the session is open, the storage entity is loaded only 
+	 * once, reads are served from memory and writes are deferred until {@link #close()}.
+	 */
 	public void open() {
-		Dao.beginTransaction();
-		this.storage = Dao.getStorage(storageId);
+		if ( null == this.session ) {
+			this.session = new StorageSession(this.storageId);
+		}
 	}
 	
+	/**
+	 * Closes the current storage session, writing all modified values to the datastore in a 
+	 * single transaction.
+	 */
 	public void close() {
-		Dao.put(this.storage);
-		Dao.commitOrRollbackTransaction();
+		if ( null != this.session ) {
+			this.session.commit();
+			this.session = null;
+		}
 	}
 	
-	public void setString(String name, String value) {
-		Dao.beginTransaction();
-		this.storage = Dao.getStorage(storageId);
-		this.storage.setString(name, value);
-		Dao.put(this.storage);
-		Dao.commitOrRollbackTransaction();
+	/**
+	 * Sets a name/value pair. If a storage session is open, the value is written when the 
+	 * session is closed.
+	 * 
+	 * @param name The name.
+	 * @param value The value. A null value removes the name, as {@link #remove(String)}, with or
+	 * without a storage session.
+	 */
+	public void setString(final String name, final String value) {
+		if ( null == value ) {
+			this.remove(name);
+			return;
+		}
+		if ( null != this.session ) {
+			this.session.setString(name, value);
+			return;
+		}
+		Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<StorageDao>() {
+			@Override
+			public StorageDao run() {
+				StorageDao storage = Dao.getStorage(ServerStorage.this.storageId);
+				storage.setString(name, value);
+				Dao.put(storage);
+				return storage;
+			}
+		});
+	}
+	
+	/**
+	 * Removes a name/value pair.
+	 * 
+	 * @param name The name to remove.
+	 */
+	public void remove(final String name) {
+		if ( null != this.session ) {
+			this.session.remove(name);
+			return;
+		}
+		Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<StorageDao>() {
+			@Override
+			public StorageDao run() {
+				StorageDao storage = Dao.getStorage(ServerStorage.this.storageId);
+				storage.remove(name);
+				Dao.put(storage);
+				return storage;
+			}
+		});
 	}
 	
 	public String getString(String name, String defaultValue) {
@@ -72,12 +147,19 @@ public class ServerStorage {
 		return defaultValue;
 	}
 	public String getString(String name) {
+		if ( null != this.session ) {
+			return this.session.getString(name);
+		}
 		Dao.beginTransaction();
-		this.storage = Dao.getStorage(storageId);
-		
-		String value = this.storage.getString(name);
-		Dao.commitOrRollbackTransaction();
-		return value;
+		try {
+			StorageDao storage = Dao.getStorage(storageId);
+			if ( null == storage ) {
+				return null;
+			}
+			return storage.getString(name);
+		} finally {
+			Dao.commitOrRollbackTransaction();
+		}
 	}
 	
 	
@@ -90,5 +172,53 @@ public class ServerStorage {
 		String value = this.getString(name);
 		return Long.parseLong(value);
 	}
-	
+
+	/**
+	 * Atomically advances a long value: the stored value is replaced only if the new value
+	 * is greater than the one currently stored. The read, compare and write happen in a single
+	 * transaction, which is retried if it fails to commit because of a concurrent update.
+	 * The value is written immediately, even if a storage session is open.
+	 *
+	 * @param name The key.
+	 * @param value The new value.
+	 * @return The value stored after the operation.
+	 */
+	public long advanceLong(final String name, final long value) {
+		Long stored = Dao.transact(MAX_TRANSACTION_ATTEMPTS, new Dao.Work<Long>() {
+			@Override
+			public Long run() {
+				StorageDao storage = Dao.getStorage(ServerStorage.this.storageId);
+
+				long current = toLong(storage.getString(name));
+				if ( value <= current ) {
+					return current;
+				}
+				storage.setString(name, Long.toString(value));
+				Dao.put(storage);
+				return value;
+			}
+		});
+		
+		if ( null == stored ) {
+			Log.error(this, "Could not advance '" + name + "'.");
+			return value;
+		}
+		if ( null != this.session ) {
+			this.session.refresh(name, stored.toString());
+		}
+		return stored.longValue();
+	}
+
+	private long toLong(String value) {
+		if ( null == value ) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			Log.warn(this, "Could not parse long value: " + value);
+		}
+		return 0;
+	}
+
 }
@@ -8,8 +8,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.purewidgets.client.storage.ServerStorageService;
-import org.purewidgets.server.dao.Dao;
-import org.purewidgets.server.dao.StorageDao;
 import org.purewidgets.shared.storage.KeyValue;
 
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
@@ -34,19 +32,12 @@ public class ServerStorageServiceImpl extends RemoteServiceServlet implements Se
 	 */	
 	@Override
 	public KeyValue get(String storageId, String name) {
-		KeyValue keyValue = new KeyValue(name, null);
+		StorageSession session = new StorageSession(storageId);
 		
-		Dao.beginTransaction();
-		
-		StorageDao storageDao = Dao.getStorage(storageId);
-		if ( null == storageDao ) {
+		if ( !session.exists() ) {
 			return null;
 		}
-		String value = storageDao.getString(name);
-		Dao.commitOrRollbackTransaction();
-		keyValue.setValue(value);
-		return keyValue;
-	
+		return new KeyValue(name, session.getString(name));
 	}
 
 	/**
@@ -58,22 +49,19 @@ public class ServerStorageServiceImpl extends RemoteServiceServlet implements Se
 	 */		
 	@Override
 	public KeyValue[] get(String storageId, ArrayList<String> names) {
-		KeyValue[] result = new KeyValue[names.size()];
-		
-		Dao.beginTransaction();
+		StorageSession session = new StorageSession(storageId);
 		
-		StorageDao storageDao = Dao.getStorage(storageId);
-		if ( null == storageDao ) {
+		if ( !session.exists() ) {
 			return null;
 		}
+		
+		KeyValue[] result = new KeyValue[names.size()];
+		Map<String, String> values = session.getMany(names);
 		int i = 0;
 		for ( String name: names ) {
-			String value = storageDao.getString(name);
-			result[i++] = new KeyValue(name, value);
+			result[i++] = new KeyValue(name, values.get(name));
 		}
 		
-		Dao.commitOrRollbackTransaction();
-		
 		return result;
 	}
 	
@@ -87,15 +75,10 @@ public class ServerStorageServiceImpl extends RemoteServiceServlet implements Se
 	 */	
 	@Override
 	public void set(String storageId, String name, String value) {
-		Dao.beginTransaction();
-		StorageDao storageDao = Dao.getStorage(storageId);
+		StorageSession session = new StorageSession(storageId);
 		
-		if ( null == storageDao ) {
-			storageDao = new StorageDao(storageId);
-		}
-		storageDao.setString(name, value);
-		Dao.put(storageDao);
-		Dao.commitOrRollbackTransaction();
+		session.setString(name, value);
+		session.commit();
 	}
 	
 	/**
@@ -106,24 +89,12 @@ public class ServerStorageServiceImpl extends RemoteServiceServlet implements Se
 	 */	
 	@Override
 	public Map<String, String> getAll(String storageId) {
-		HashMap<String, String> map = new HashMap<String, String>();
-		
-		Dao.beginTransaction();
+		StorageSession session = new StorageSession(storageId);
 		
-		StorageDao storageDao = Dao.getStorage(storageId);
-		if ( null == storageDao ) {
+		if ( !session.exists() ) {
 			return null;
 		}
-		ArrayList<String> keys = storageDao.getKeys();
-		
-		for ( String key: keys ) {
-			map.put( key, storageDao.getString(key) );
-		}
-		
-		Dao.commitOrRollbackTransaction();
-		
-		return map;
-		
+		return new HashMap<String, String>(session.getAll());
 	}
 
 }
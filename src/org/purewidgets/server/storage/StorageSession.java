@@ -0,0 +1,232 @@
+/**
+ *
+ */
+package org.purewidgets.server.storage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.purewidgets.server.dao.Dao;
+import org.purewidgets.server.dao.StorageDao;
+import org.purewidgets.shared.logging.Log;
+
+/**
+ * A StorageSession is a request-scoped, write-back cache over a server storage entity.
+ *
+ * The storage entity is loaded once, on first access, and reads are served from memory.
+ * Writes are kept in memory and the modified keys are tracked, so that they can be written
+ * to the datastore in a single transaction when the session is committed. If the commit fails
+ * because of a concurrent update, the entity is re-read and the modified keys are applied again.
+ *
+ * A StorageSession is not thread safe and should not outlive the request that created it.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class StorageSession {
+
+	/**
+	 * The number of times a commit is attempted before giving up.
+	 */
+	private static final int MAX_COMMIT_ATTEMPTS = 3;
+
+	/**
+	 * The id of the storage entity.
+	 */
+	private String storageId;
+
+	/**
+	 * The values read from the datastore, updated with the local modifications.
+	 */
+	private HashMap<String, String> values;
+
+	/**
+	 * The modified key/value pairs that have not been committed yet.
+	 */
+	private LinkedHashMap<String, String> dirty;
+
+	/**
+	 * Whether the storage entity existed in the datastore when the session was loaded.
+	 */
+	private boolean exists;
+
+	/**
+	 * Creates a new StorageSession for the specified storage. Nothing is read from the datastore
+	 * until the first access.
+	 *
+	 * @param storageId The id of the storage.
+	 */
+	public StorageSession(String storageId) {
+		this.storageId = storageId;
+		this.dirty = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Checks if the storage entity exists in the datastore.
+	 *
+	 * @return true if the storage entity existed when this session was loaded.
+	 */
+	public boolean exists() {
+		this.load();
+		return this.exists;
+	}
+
+	/**
+	 * Gets a value.
+	 *
+	 * @param name The key.
+	 * @return The value, or null if the key does not exist.
+	 */
+	public String getString(String name) {
+		this.load();
+		return this.values.get(name);
+	}
+
+	/**
+	 * Gets the values of several keys.
+	 *
+	 * @param names The keys to retrieve.
+	 * @return A map from each requested key to its value (null if the key does not exist).
+	 */
+	public Map<String, String> getMany(Collection<String> names) {
+		this.load();
+		LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
+		for ( String name : names ) {
+			result.put(name, this.values.get(name));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets all key/value pairs.
+	 *
+	 * @return A map with all key/value pairs.
+	 */
+	public Map<String, String> getAll() {
+		this.load();
+		return new HashMap<String, String>(this.values);
+	}
+
+	/**
+	 * Sets a value. The value is written to the datastore only when the session is committed.
+	 * Setting a value does not require the storage entity to be loaded.
+	 *
+	 * @param name The key.
+	 * @param value The value. A null value removes the key, as {@link #remove(String)}.
+	 */
+	public void setString(String name, String value) {
+		if ( null == value ) {
+			this.remove(name);
+			return;
+		}
+		if ( null != this.values ) {
+			this.values.put(name, value);
+		}
+		this.dirty.put(name, value);
+	}
+
+	/**
+	 * Removes a key. The key is removed from the datastore only when the session is committed.
+	 *
+	 * @param name The key.
+	 */
+	public void remove(String name) {
+		if ( null != this.values ) {
+			this.values.remove(name);
+		}
+		this.dirty.put(name, null);
+	}
+
+	/**
+	 * Updates the cached value of a key that was written to the datastore outside this session,
+	 * without marking it as modified.
+	 *
+	 * @param name The key.
+	 * @param value The value.
+	 */
+	void refresh(String name, String value) {
+		if ( null != this.values ) {
+			this.values.put(name, value);
+		}
+	}
+
+	/**
+	 * Checks if there are modified keys that have not been committed.
+	 *
+	 * @return true if there are uncommitted modifications.
+	 */
+	public boolean isDirty() {
+		return this.dirty.size() > 0;
+	}
+
+	/**
+	 * Writes the modified keys to the datastore in a single transaction. If the transaction
+	 * fails, the entity is re-read and the modifications applied again, up to a maximum number
+	 * of attempts.
+	 *
+	 * @return true if the modifications were committed (or there was nothing to commit).
+	 */
+	public boolean commit() {
+		if ( !this.isDirty() ) {
+			return true;
+		}
+
+		StorageDao committed = Dao.transact(MAX_COMMIT_ATTEMPTS, new Dao.Work<StorageDao>() {
+			@Override
+			public StorageDao run() {
+				StorageDao storage = Dao.getStorage(StorageSession.this.storageId);
+				if ( null == storage ) {
+					storage = new StorageDao(StorageSession.this.storageId);
+				}
+				storage.setMany(StorageSession.this.dirty);
+				Dao.put(storage);
+				return storage;
+			}
+		});
+
+		if ( null == committed ) {
+			Log.error(this, "Could not commit storage session for '" + this.storageId + "'.");
+			return false;
+		}
+		this.dirty.clear();
+		this.exists = true;
+		return true;
+	}
+
+	/**
+	 * Loads the storage entity, if it hasn't been loaded yet.
+	 */
+	private void load() {
+		if ( null != this.values ) {
+			return;
+		}
+		HashMap<String, String> loaded = new HashMap<String, String>();
+
+		StorageDao storage;
+		Dao.beginTransaction();
+		try {
+			storage = Dao.getStorage(this.storageId);
+			if ( null != storage ) {
+				loaded.putAll(storage.getMany(storage.getKeys()));
+			}
+		} finally {
+			Dao.commitOrRollbackTransaction();
+		}
+		
+		/*
+		 * Values set or removed before the first read take precedence over the stored ones
+		 */
+		for ( Map.Entry<String, String> entry : this.dirty.entrySet() ) {
+			if ( null == entry.getValue() ) {
+				loaded.remove(entry.getKey());
+			} else {
+				loaded.put(entry.getKey(), entry.getValue());
+			}
+		}
+		this.values = loaded;
+
+		this.exists = null != storage;
+	}
+}
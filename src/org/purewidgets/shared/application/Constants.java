@@ -18,6 +18,12 @@ public interface Constants {
 	public static final String INTERACTIONMANAGER_ADDRESS = "http://pw-interactionmanager-test.appspot.com";
 	
 	
+	/**
+	 * The parameter name used to enable place-level input requests on the server (true/false). 
+	 */
+	public static final String PLACE_INPUT_PARAMETER_NAME = "placeinput";
+	
+	
 	/**
 	 * The URL parameter name used to set the interaction manager address.
 	 */
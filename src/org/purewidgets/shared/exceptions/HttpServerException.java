@@ -16,6 +16,11 @@ public class HttpServerException extends Exception implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * The HTTP status of the server response, or 0 if there was no response.
+	 */
+	private int status;
+
 	/**
 	 * Creates a new HttpServerException without a message.
 	 */
@@ -30,4 +35,23 @@ public class HttpServerException extends Exception implements Serializable {
 	public HttpServerException(String message) {
 		super(message);
 	}
+	
+	/**
+	 * Creates a new HttpServerException for a server response with the specified status.
+	 * @param status The HTTP status of the server response.
+	 * @param message The error message associated with the exception.
+	 */
+	public HttpServerException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+
+	/**
+	 * Gets the HTTP status of the server response.
+	 * 
+	 * @return The HTTP status, or 0 if the exception was not caused by a server response.
+	 */
+	public int getStatus() {
+		return this.status;
+	}
 }
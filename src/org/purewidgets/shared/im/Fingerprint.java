@@ -0,0 +1,32 @@
+/**
+ * 
+ */
+package org.purewidgets.shared.im;
+
+/**
+ * Helper methods for computing content fingerprints (hashes) of widgets and their 
+ * options and parameters. The values depend only on the content, so they can be stored 
+ * and compared across sessions.
+ * 
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+final class Fingerprint {
+	
+	private Fingerprint() {
+	}
+	
+	/**
+	 * Gets the fingerprint of a string, which may be null.
+	 */
+	static int of(String value) {
+		return null == value ? 0 : value.hashCode();
+	}
+	
+	/**
+	 * Combines a fingerprint with another value, in an order dependent way.
+	 */
+	static int combine(int hash, int value) {
+		return 31*hash + value;
+	}
+}
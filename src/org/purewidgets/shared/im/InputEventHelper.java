@@ -22,12 +22,33 @@ public final class InputEventHelper {
 	 * and returns a list of widget inputs that had no matching widgets (the application may not have
 	 * had a chance to create those widgets yet).
 	 * 
+	 * This builds a temporary index of the widget list; callers that process input often should
+	 * keep a {@link WidgetIndex} up to date and use {@link #triggerWidgetInputEvents(ArrayList, WidgetIndex)}.
+	 * 
 	 * @param inputList The list of input to process.
 	 * @param widgetList The list of widgets to check against the input.
 	 * 
 	 * @return A list of widget input that had no target widgets in the specified list.
 	 */
 	public static ArrayList<WidgetInput> triggerWidgetInputEvents(ArrayList<WidgetInput> inputList, ArrayList<Widget>widgetList) {
+		return triggerWidgetInputEvents(inputList, new WidgetIndex(widgetList));
+	}
+	
+	/**
+	 * Triggers widget input events in the widgets that were targeted by the specified widget inputs,
+	 * and returns a list of widget inputs that had no matching widgets (the application may not have
+	 * had a chance to create those widgets yet).
+	 * 
+	 * Target widgets are looked up in the index, and the options of each target widget are indexed
+	 * once per call, so the cost is proportional to the number of inputs plus the number of options
+	 * of the targeted widgets.
+	 * 
+	 * @param inputList The list of input to process.
+	 * @param widgetIndex The index of the widgets to check against the input.
+	 * 
+	 * @return A list of widget input that had no target widgets in the specified index.
+	 */
+	public static ArrayList<WidgetInput> triggerWidgetInputEvents(ArrayList<WidgetInput> inputList, WidgetIndex widgetIndex) {
 		/*
 		 * Widgets that have input will be added to a new List, as well as
 		 * the InputEvent that will later be triggered.
@@ -39,10 +60,12 @@ public final class InputEventHelper {
 		 *  
 		 *  We use a hashmap to associate a list of inputs to each widget
 		 */
-		//ArrayList<Widget> widgets = new ArrayList<Widget>();
-		//ArrayList<InputEvent> events = new ArrayList<InputEvent>();
 		HashMap<Widget, ArrayList<WidgetInputEvent>> widgetsToInputEventsMap = new HashMap<Widget, ArrayList<WidgetInputEvent>>();
 		
+		/*
+		 * The options of each target widget, by option id. Built the first time a widget is targeted.
+		 */
+		HashMap<Widget, HashMap<String, ArrayList<WidgetOption>>> optionsByWidget = new HashMap<Widget, HashMap<String, ArrayList<WidgetOption>>>();
 		
 		/*
 		 * Holds the input which does not have a matching widget.
@@ -53,53 +76,55 @@ public final class InputEventHelper {
 		 * Go through the inputs and save the widgets that have input
 		 */
 		for (WidgetInput input : inputList) {
-			//Log.debug(this, "Processing input: " + input.toDebugString());
-
+			
 			/*
-			 * Go through all widgets and find the one targeted by the input
+			 * Find the widgets targeted by the input
 			 */
-			boolean foundWidget = false;
-			for (Widget widget : widgetList) {
-				if (input.getWidgetId().equals(widget.getWidgetId())) {
+			ArrayList<Widget> targets = widgetIndex.get(input.getWidgetId());
+			if ( null == targets || null == input.getWidgetId() ) {
+				unprocessed.add(input);
+				continue;
+			}
+			
+			for (Widget widget : targets) {
+				/*
+				 * Found widget, match option...
+				 */
+				HashMap<String, ArrayList<WidgetOption>> options = optionsByWidget.get(widget);
+				if ( null == options ) {
+					options = indexOptions(widget);
+					optionsByWidget.put(widget, options);
+				}
+				
+				ArrayList<WidgetOption> matchingOptions = null == input.getWidgetOptionId() ? null : options.get(input.getWidgetOptionId());
+				if ( null == matchingOptions ) {
+					continue;
+				}
+				
+				for (WidgetOption option : matchingOptions) {
 					/*
-					 * Found widget, match option...
+					 * Found option, save widget and inputevent
 					 */
-					foundWidget = true;
-					for (WidgetOption option : widget.getWidgetOptions()) {
-						if (option.getWidgetOptionId().equals(input.getWidgetOptionId())) {
-							/*
-							 * Found option, save widget and inputevent
-							 */
-							WidgetInputEvent ie = new WidgetInputEvent(input,
-									option, input.getParameters());
-							ie.setAge(input.getAge());
-							
-							/*
-							 * Put the event in the hashmap, associated with the target widget
-							 */
-							if (widgetsToInputEventsMap.containsKey(widget)) {
-								widgetsToInputEventsMap.get(widget).add(ie);
-							} else {
-								ArrayList<WidgetInputEvent> events = new ArrayList<WidgetInputEvent>();
-								events.add(ie);
-								widgetsToInputEventsMap.put(widget, events);
-							}
-							
-						}
+					WidgetInputEvent ie = new WidgetInputEvent(input,
+							option, input.getParameters());
+					ie.setAge(input.getAge());
+					
+					/*
+					 * Put the event in the hashmap, associated with the target widget
+					 */
+					ArrayList<WidgetInputEvent> events = widgetsToInputEventsMap.get(widget);
+					if ( null == events ) {
+						events = new ArrayList<WidgetInputEvent>();
+						widgetsToInputEventsMap.put(widget, events);
 					}
+					events.add(ie);
 				}
 			}
-			
-			if ( !foundWidget ) {
-				unprocessed.add(input);
-			}
 		}
 		
 		/*
 		 * Now trigger the input event list for each widget
 		 */
-		//ArrayList<InputEvent> inputEvents = new ArrayList<InputEvent>();
-		
 		for (Widget widget : widgetsToInputEventsMap.keySet()) {
 			Log.debug(InputEventHelper.class.getName(), "Firing input event on widget: " + widget.getWidgetId());
 			widget.onInput(widgetsToInputEventsMap.get(widget));
@@ -107,4 +132,20 @@ public final class InputEventHelper {
 		
 		return unprocessed;
 	}
+	
+	/**
+	 * Indexes the options of a widget by option id, keeping the order of options with the same id.
+	 */
+	private static HashMap<String, ArrayList<WidgetOption>> indexOptions(Widget widget) {
+		HashMap<String, ArrayList<WidgetOption>> options = new HashMap<String, ArrayList<WidgetOption>>();
+		for (WidgetOption option : widget.getWidgetOptions()) {
+			ArrayList<WidgetOption> sameId = options.get(option.getWidgetOptionId());
+			if ( null == sameId ) {
+				sameId = new ArrayList<WidgetOption>(1);
+				options.put(option.getWidgetOptionId(), sameId);
+			}
+			sameId.add(option);
+		}
+		return options;
+	}
 }
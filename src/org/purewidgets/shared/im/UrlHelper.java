@@ -1,5 +1,8 @@
 package org.purewidgets.shared.im;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Provides methods for creating the REST urls for the interaction manager.
  * 
@@ -104,6 +107,56 @@ public class UrlHelper {
 		return interactionServerUrl + "/place/" + placeId + "/application/" + applicationId + "/widget?appid=" +callingApplicationId ;
 	}
 	
+	/**
+	 * Gets the urls for deleting a list of widgets. Widget ids are passed in the <code>widgets</code> 
+	 * url parameter, separated by commas, and split over as many urls as needed so that no url is longer
+	 * than <code>maxLength</code> characters (a url with a single id may be longer, if the id itself 
+	 * does not fit).
+	 * 
+	 * @param placeId The id of the place.
+	 * @param applicationId The id of the application
+	 * @param callingApplicationId The id of the calling application.
+	 * @param escapedWidgetIds The ids of the widgets to delete, already escaped for use in a url.
+	 * @param maxLength The maximum length of each url.
+	 * @return The urls for deleting the widgets.
+	 */
+	public ArrayList<String> getWidgetsDeleteUrls(String placeId, String applicationId, String callingApplicationId,
+			List<String> escapedWidgetIds, int maxLength) {
+		ArrayList<String> urls = new ArrayList<String>();
+		String base = this.getWidgetsUrl(placeId, applicationId, callingApplicationId) + "&widgets=";
+		
+		StringBuilder url = new StringBuilder(base);
+		for ( String widgetId : escapedWidgetIds ) {
+			boolean empty = url.length() == base.length();
+			if ( !empty && url.length() + 1 + widgetId.length() > maxLength ) {
+				urls.add(url.toString());
+				url = new StringBuilder(base);
+				empty = true;
+			}
+			if ( !empty ) {
+				url.append(",");
+			}
+			url.append(widgetId);
+		}
+		if ( url.length() > base.length() ) {
+			urls.add(url.toString());
+		}
+		return urls;
+	}
+	
+	/**
+	 * Gets the url for the widget delta service, which updates existing widgets with
+	 * the changes in a list of widget deltas.
+	 * 
+	 * @param placeId The id of the place.
+	 * @param applicationId The id of the application
+	 * @param callingApplicationId The id of the calling application.
+	 * @return The url for the widget delta service.
+	 */
+	public  String getWidgetDeltasUrl(String placeId, String applicationId, String callingApplicationId) {
+		return interactionServerUrl + "/place/" + placeId + "/application/" + applicationId + "/widget/delta?appid=" +callingApplicationId ;
+	}
+	
 	/**
 	 * Gets the url for the widget input service.
 	 * 
@@ -132,6 +185,68 @@ public class UrlHelper {
 		return interactionServerUrl + "/place/" + placeId + "/application/" + applicationId + "/input?appid=" + callingApplicationId + "&from="+from;
 		
 	}
+	
+	/**
+	 * Gets the url for the place input service, which returns the input of every application
+	 * of the place.
+	 * 
+	 * @param placeId The id of the place.
+	 * @param callingApplicationId The id of the calling application.
+	 * @param from The oldest input timestamp to retrieve.
+	 * 
+	 * @return The url for the place input service.
+	 */
+	public  String getPlaceInputUrl(String placeId, String callingApplicationId, String from) {
+		return interactionServerUrl + "/place/" + placeId + "/input?appid=" + callingApplicationId + "&from="+from;
+	}
+	
+	/**
+	 * Gets the url for the application input service, for the input pushed to the application 
+	 * in a range of sequence numbers.
+	 * 
+	 * @param placeId The id of the place.
+	 * @param applicationId The id of the application
+	 * @param callingApplicationId The id of the calling application.
+	 * @param fromSequence The first sequence number to retrieve.
+	 * @param toSequence The last sequence number to retrieve.
+	 * 
+	 * @return The url for the application input service.
+	 */
+	public  String getApplicationInputSequenceUrl(String placeId, String applicationId, String callingApplicationId, long fromSequence, long toSequence) {
+		return interactionServerUrl + "/place/" + placeId + "/application/" + applicationId + "/input?appid=" + callingApplicationId + 
+				"&fromseq=" + fromSequence + "&toseq=" + toSequence;
+	}
+	
+	/**
+	 * Gets the url for the application input service, asking the server to hold the request
+	 * until there is new input or the wait time expires (long polling).
+	 * 
+	 * @param placeId The id of the place.
+	 * @param applicationId The id of the application
+	 * @param callingApplicationId The id of the calling application.
+	 * @param from The oldest input timestamp to retrieve.
+	 * @param wait The maximum time, in seconds, the server should hold the request.
+	 * 
+	 * @return The url for the application input service.
+	 */
+	public  String getApplicationInputUrl(String placeId, String applicationId, String callingApplicationId, String from, int wait) {
+		return this.getApplicationInputUrl(placeId, applicationId, callingApplicationId, from) + "&wait=" + wait;
+	}
+	
+	/**
+	 * Gets the url for the place input service, asking the server to hold the request until 
+	 * there is new input for any application of the place or the wait time expires.
+	 * 
+	 * @param placeId The id of the place.
+	 * @param callingApplicationId The id of the calling application.
+	 * @param from The oldest input timestamp to retrieve.
+	 * @param wait The maximum time, in seconds, the server should hold the request.
+	 * 
+	 * @return The url for the place input service.
+	 */
+	public  String getPlaceInputUrl(String placeId, String callingApplicationId, String from, int wait) {
+		return this.getPlaceInputUrl(placeId, callingApplicationId, from) + "&wait=" + wait;
+	}
 
 	
 
@@ -82,6 +82,13 @@ public class Widget implements Comparable<Widget> {
 	 */
 	public static String SORT_ORDER_PARAMETER_NAME = "purewidgets-sortorder";
 	
+	/**
+	 * The widget parameter name that marks a widget as volatile: a widget that is only meaningful while
+	 * the application is running, and that can be deleted in bulk by the application (the parameter 
+	 * value must be "true").
+	 */
+	public static String VOLATILE_PARAMETER_NAME = "purewidgets-volatile";
+	
 	/**
 	 * The placeId where the application that has this widget is running.
 	 * Applications don't usually have to deal directly with this.
@@ -131,6 +138,12 @@ public class Widget implements Comparable<Widget> {
 	 */
 	private ArrayList<WidgetParameter> widgetParameters;
 	
+	/**
+	 * The cached fingerprint of the widget's own fields (ids, control type and descriptions), 
+	 * or null if it must be recomputed.
+	 */
+	private Integer ownFingerprint;
+	
 	/**
 	 * The ActionListeners registered to receive high-level events from this
 	 * widget.
@@ -299,6 +312,17 @@ public class Widget implements Comparable<Widget> {
 		return null;
 	}
 	
+	/**
+	 * Checks if this widget is volatile, i.e., if it has the {@link #VOLATILE_PARAMETER_NAME} 
+	 * parameter set to "true".
+	 * 
+	 * @return true if this widget is volatile.
+	 */
+	public boolean isVolatile() {
+		WidgetParameter param = this.getWidgetParameter(VOLATILE_PARAMETER_NAME);
+		return null != param && "true".equals(param.getValue());
+	}
+	
 
 	/**
 	 * A helper method that sends an ActionEvent to all ActionListeners registered in this widget.
@@ -333,6 +357,39 @@ public class Widget implements Comparable<Widget> {
 	}
 
 
+	/**
+	 * Gets a hash of the content of this widget: ids, control type, descriptions, options 
+	 * and parameters. Widgets with the same content have the same fingerprint, so the 
+	 * fingerprint can be used to detect changes without serializing the widget.
+	 * 
+	 * The hash of the widget's own fields, and of each option and parameter, is cached 
+	 * until they are modified, so recomputing the fingerprint of an unchanged widget only
+	 * combines the cached values.
+	 * 
+	 * @return The content fingerprint.
+	 */
+	public int getFingerprint() {
+		if ( null == this.ownFingerprint ) {
+			int hash = Fingerprint.of(this.placeId);
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.applicationId));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.widgetId));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.controlType));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.shortDescription));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.longDescription));
+			this.ownFingerprint = hash;
+		}
+		
+		int hash = this.ownFingerprint;
+		for ( WidgetOption option : this.widgetOptions ) {
+			hash = Fingerprint.combine(hash, option.getFingerprint());
+		}
+		for ( WidgetParameter parameter : this.widgetParameters ) {
+			hash = Fingerprint.combine(hash, parameter.getFingerprint());
+		}
+		return hash;
+	}
+
+
 	/**
 	 * Gets the long description for this widget.
 	 * 
@@ -472,6 +529,7 @@ public class Widget implements Comparable<Widget> {
 	 */
 	public void setApplicationId(String applicationId) {
 		this.applicationId = applicationId;
+		this.ownFingerprint = null;
 	}
 
 
@@ -493,6 +551,7 @@ public class Widget implements Comparable<Widget> {
 	 */
 	public void setLongDescription(String longDescription) {
 		this.longDescription = longDescription;
+		this.ownFingerprint = null;
 	}
 
 
@@ -503,6 +562,7 @@ public class Widget implements Comparable<Widget> {
 	 */
 	public void setPlaceId(String placeId) {
 		this.placeId = placeId;
+		this.ownFingerprint = null;
 	}
 
 
@@ -526,6 +586,7 @@ public class Widget implements Comparable<Widget> {
 	 */
 	public void setShortDescription(String shortDescription) {
 		this.shortDescription = shortDescription;
+		this.ownFingerprint = null;
 	}
 
 
@@ -588,6 +649,7 @@ public class Widget implements Comparable<Widget> {
 		} else {
 			this.widgetId =  id;//com.google.gwt.http.client.URL.decode(id);
 		}
+		this.ownFingerprint = null;
 	}
 
 
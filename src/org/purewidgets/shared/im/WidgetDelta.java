@@ -0,0 +1,361 @@
+/**
+ *
+ */
+package org.purewidgets.shared.im;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A WidgetDelta describes the changes between two versions of the same widget: the options and
+ * parameters that were added, removed or changed, and the new descriptions and control type if
+ * they changed.
+ *
+ * The versions of a widget are its content fingerprints (see {@link Widget#getFingerprint()}). A
+ * delta can only be applied to the widget version it was created from; if the receiver has a
+ * different version, the whole widget must be sent instead.
+ *
+ * Applying a delta removes the removed options and parameters, replaces the changed ones in place,
+ * and appends the added ones. Changes that cannot be expressed this way (e.g., reordering options)
+ * make {@link #create(Widget, Widget)} return null, so the whole widget is sent.
+ *
+ * The code is used in both client and server.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class WidgetDelta {
+
+	private String widgetId;
+
+	/**
+	 * The version of the widget this delta applies to.
+	 */
+	private int baseVersion;
+
+	/**
+	 * The version of the widget after applying this delta.
+	 */
+	private int version;
+
+	/**
+	 * True if the control type and descriptions changed, in which case the new values are
+	 * in this delta.
+	 */
+	private boolean descriptionsChanged;
+
+	private String controlType;
+
+	private String shortDescription;
+
+	private String longDescription;
+
+	private ArrayList<WidgetOption> addedOptions;
+
+	private ArrayList<WidgetOption> changedOptions;
+
+	private ArrayList<String> removedOptionIds;
+
+	private ArrayList<WidgetParameter> addedParameters;
+
+	private ArrayList<WidgetParameter> changedParameters;
+
+	private ArrayList<String> removedParameterNames;
+
+	/**
+	 * Creates an empty WidgetDelta.
+	 */
+	public WidgetDelta() {
+		this.addedOptions = new ArrayList<WidgetOption>();
+		this.changedOptions = new ArrayList<WidgetOption>();
+		this.removedOptionIds = new ArrayList<String>();
+		this.addedParameters = new ArrayList<WidgetParameter>();
+		this.changedParameters = new ArrayList<WidgetParameter>();
+		this.removedParameterNames = new ArrayList<String>();
+	}
+
+	/**
+	 * Creates the delta that transforms a widget into an updated version of it.
+	 *
+	 * @param base The version of the widget known by the receiver.
+	 * @param updated The updated widget.
+	 * @return The delta, or null if the updated widget cannot be expressed as a delta of the base
+	 * widget (in which case the whole widget should be sent).
+	 */
+	public static WidgetDelta create(Widget base, Widget updated) {
+		if ( !base.getWidgetId().equals(updated.getWidgetId()) || !equal(base.getPlaceId(), updated.getPlaceId())
+				|| !equal(base.getApplicationId(), updated.getApplicationId()) ) {
+			return null;
+		}
+
+		WidgetDelta delta = new WidgetDelta();
+		delta.widgetId = updated.getWidgetId();
+		delta.baseVersion = base.getFingerprint();
+		delta.version = updated.getFingerprint();
+
+		if ( !equal(base.getControlType(), updated.getControlType())
+				|| !equal(base.getShortDescription(), updated.getShortDescription())
+				|| !equal(base.getLongDescription(), updated.getLongDescription()) ) {
+			delta.setDescriptions(updated.getControlType(), updated.getShortDescription(), updated.getLongDescription());
+		}
+
+		/*
+		 * Options
+		 */
+		HashMap<String, WidgetOption> baseOptions = new HashMap<String, WidgetOption>();
+		for ( WidgetOption option : base.getWidgetOptions() ) {
+			if ( null != baseOptions.put(option.getWidgetOptionId(), option) ) {
+				return null;
+			}
+		}
+		HashMap<String, WidgetOption> updatedOptions = new HashMap<String, WidgetOption>();
+		for ( WidgetOption option : updated.getWidgetOptions() ) {
+			if ( null != updatedOptions.put(option.getWidgetOptionId(), option) ) {
+				return null;
+			}
+			WidgetOption baseOption = baseOptions.get(option.getWidgetOptionId());
+			if ( null == baseOption ) {
+				delta.addedOptions.add(option);
+			} else if ( baseOption.getFingerprint() != option.getFingerprint() ) {
+				delta.changedOptions.add(option);
+			}
+		}
+		for ( WidgetOption option : base.getWidgetOptions() ) {
+			if ( !updatedOptions.containsKey(option.getWidgetOptionId()) ) {
+				delta.removedOptionIds.add(option.getWidgetOptionId());
+			}
+		}
+
+		/*
+		 * Parameters
+		 */
+		HashMap<String, WidgetParameter> baseParameters = new HashMap<String, WidgetParameter>();
+		for ( WidgetParameter parameter : base.getWidgetParameters() ) {
+			if ( null != baseParameters.put(parameter.getName(), parameter) ) {
+				return null;
+			}
+		}
+		HashMap<String, WidgetParameter> updatedParameters = new HashMap<String, WidgetParameter>();
+		for ( WidgetParameter parameter : updated.getWidgetParameters() ) {
+			if ( null != updatedParameters.put(parameter.getName(), parameter) ) {
+				return null;
+			}
+			WidgetParameter baseParameter = baseParameters.get(parameter.getName());
+			if ( null == baseParameter ) {
+				delta.addedParameters.add(parameter);
+			} else if ( baseParameter.getFingerprint() != parameter.getFingerprint() ) {
+				delta.changedParameters.add(parameter);
+			}
+		}
+		for ( WidgetParameter parameter : base.getWidgetParameters() ) {
+			if ( !updatedParameters.containsKey(parameter.getName()) ) {
+				delta.removedParameterNames.add(parameter.getName());
+			}
+		}
+
+		/*
+		 * Make sure the receiver will end up with exactly the updated widget (this fails if the
+		 * options or parameters were reordered)
+		 */
+		if ( null == delta.apply(base) ) {
+			return null;
+		}
+		return delta;
+	}
+
+	/**
+	 * Applies this delta to a widget.
+	 *
+	 * @param base The widget to apply the delta to. It is not modified.
+	 * @return A new widget with the changes applied, or null if the widget is not the version this
+	 * delta applies to.
+	 */
+	public Widget apply(Widget base) {
+		if ( !base.getWidgetId().equals(this.widgetId) || base.getFingerprint() != this.baseVersion ) {
+			return null;
+		}
+
+		HashMap<String, WidgetOption> changed = new HashMap<String, WidgetOption>();
+		for ( WidgetOption option : this.changedOptions ) {
+			changed.put(option.getWidgetOptionId(), option);
+		}
+		ArrayList<WidgetOption> options = new ArrayList<WidgetOption>();
+		for ( WidgetOption option : base.getWidgetOptions() ) {
+			if ( this.removedOptionIds.contains(option.getWidgetOptionId()) ) {
+				continue;
+			}
+			WidgetOption changedOption = changed.get(option.getWidgetOptionId());
+			options.add(null == changedOption ? option : changedOption);
+		}
+		options.addAll(this.addedOptions);
+
+		HashMap<String, WidgetParameter> changedParams = new HashMap<String, WidgetParameter>();
+		for ( WidgetParameter parameter : this.changedParameters ) {
+			changedParams.put(parameter.getName(), parameter);
+		}
+		ArrayList<WidgetParameter> parameters = new ArrayList<WidgetParameter>();
+		for ( WidgetParameter parameter : base.getWidgetParameters() ) {
+			if ( this.removedParameterNames.contains(parameter.getName()) ) {
+				continue;
+			}
+			WidgetParameter changedParameter = changedParams.get(parameter.getName());
+			parameters.add(null == changedParameter ? parameter : changedParameter);
+		}
+		parameters.addAll(this.addedParameters);
+
+		Widget widget;
+		if ( this.descriptionsChanged ) {
+			widget = new Widget(this.widgetId, this.controlType, this.shortDescription, this.longDescription, options, parameters);
+		} else {
+			widget = new Widget(this.widgetId, base.getControlType(), base.getShortDescription(), base.getLongDescription(), options, parameters);
+		}
+		widget.setPlaceId(base.getPlaceId());
+		widget.setApplicationId(base.getApplicationId());
+
+		if ( widget.getFingerprint() != this.version ) {
+			return null;
+		}
+		return widget;
+	}
+
+	/**
+	 * Checks if this delta has no changes.
+	 *
+	 * @return true if this delta has no changes.
+	 */
+	public boolean isEmpty() {
+		return !this.descriptionsChanged && this.addedOptions.isEmpty() && this.changedOptions.isEmpty()
+				&& this.removedOptionIds.isEmpty() && this.addedParameters.isEmpty()
+				&& this.changedParameters.isEmpty() && this.removedParameterNames.isEmpty();
+	}
+
+	private static boolean equal(String a, String b) {
+		return null == a ? null == b : a.equals(b);
+	}
+
+	/**
+	 * @return the widget id
+	 */
+	public String getWidgetId() {
+		return widgetId;
+	}
+
+	/**
+	 * @param widgetId the widget id to set
+	 */
+	public void setWidgetId(String widgetId) {
+		this.widgetId = widgetId;
+	}
+
+	/**
+	 * @return the version of the widget this delta applies to
+	 */
+	public int getBaseVersion() {
+		return baseVersion;
+	}
+
+	/**
+	 * @param baseVersion the version of the widget this delta applies to
+	 */
+	public void setBaseVersion(int baseVersion) {
+		this.baseVersion = baseVersion;
+	}
+
+	/**
+	 * @return the version of the widget after applying this delta
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param version the version of the widget after applying this delta
+	 */
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return true if the control type and descriptions changed
+	 */
+	public boolean isDescriptionsChanged() {
+		return descriptionsChanged;
+	}
+
+	/**
+	 * Sets the new control type and descriptions.
+	 *
+	 * @param controlType The new control type.
+	 * @param shortDescription The new short description.
+	 * @param longDescription The new long description.
+	 */
+	public void setDescriptions(String controlType, String shortDescription, String longDescription) {
+		this.descriptionsChanged = true;
+		this.controlType = controlType;
+		this.shortDescription = shortDescription;
+		this.longDescription = longDescription;
+	}
+
+	/**
+	 * @return the new control type, if the descriptions changed
+	 */
+	public String getControlType() {
+		return controlType;
+	}
+
+	/**
+	 * @return the new short description, if the descriptions changed
+	 */
+	public String getShortDescription() {
+		return shortDescription;
+	}
+
+	/**
+	 * @return the new long description, if the descriptions changed
+	 */
+	public String getLongDescription() {
+		return longDescription;
+	}
+
+	/**
+	 * @return the added options
+	 */
+	public ArrayList<WidgetOption> getAddedOptions() {
+		return addedOptions;
+	}
+
+	/**
+	 * @return the changed options
+	 */
+	public ArrayList<WidgetOption> getChangedOptions() {
+		return changedOptions;
+	}
+
+	/**
+	 * @return the ids of the removed options
+	 */
+	public ArrayList<String> getRemovedOptionIds() {
+		return removedOptionIds;
+	}
+
+	/**
+	 * @return the added parameters
+	 */
+	public ArrayList<WidgetParameter> getAddedParameters() {
+		return addedParameters;
+	}
+
+	/**
+	 * @return the changed parameters
+	 */
+	public ArrayList<WidgetParameter> getChangedParameters() {
+		return changedParameters;
+	}
+
+	/**
+	 * @return the names of the removed parameters
+	 */
+	public ArrayList<String> getRemovedParameterNames() {
+		return removedParameterNames;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package org.purewidgets.shared.im;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * An index of widgets by widget id, used to find the targets of widget input without scanning
+ * every widget. The index must be kept up to date by calling {@link #add(Widget)},
+ * {@link #remove(Widget)} and {@link #replace(Widget, Widget)} whenever the indexed
+ * widget list changes. The code is used in both client and server.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class WidgetIndex {
+
+	/**
+	 * The widgets with each widget id, in the order they were added.
+	 */
+	private HashMap<String, ArrayList<Widget>> widgetsById;
+
+	/**
+	 * Creates an empty WidgetIndex.
+	 */
+	public WidgetIndex() {
+		this.widgetsById = new HashMap<String, ArrayList<Widget>>();
+	}
+
+	/**
+	 * Creates a WidgetIndex with the specified widgets.
+	 *
+	 * @param widgets The widgets to index.
+	 */
+	public WidgetIndex(Collection<Widget> widgets) {
+		this();
+		for ( Widget widget : widgets ) {
+			this.add(widget);
+		}
+	}
+
+	/**
+	 * Adds a widget to the index.
+	 *
+	 * @param widget The widget to add.
+	 */
+	public void add(Widget widget) {
+		ArrayList<Widget> widgets = this.widgetsById.get(widget.getWidgetId());
+		if ( null == widgets ) {
+			widgets = new ArrayList<Widget>(1);
+			this.widgetsById.put(widget.getWidgetId(), widgets);
+		}
+		widgets.add(widget);
+	}
+
+	/**
+	 * Removes a widget from the index.
+	 *
+	 * @param widget The widget to remove.
+	 */
+	public void remove(Widget widget) {
+		ArrayList<Widget> widgets = this.widgetsById.get(widget.getWidgetId());
+		if ( null != widgets ) {
+			widgets.remove(widget);
+			if ( widgets.isEmpty() ) {
+				this.widgetsById.remove(widget.getWidgetId());
+			}
+		}
+	}
+
+	/**
+	 * Replaces a widget in the index by another with the same widget id, keeping its position.
+	 *
+	 * @param oldWidget The widget to replace.
+	 * @param newWidget The new widget.
+	 */
+	public void replace(Widget oldWidget, Widget newWidget) {
+		ArrayList<Widget> widgets = this.widgetsById.get(oldWidget.getWidgetId());
+		int index = null == widgets ? -1 : widgets.indexOf(oldWidget);
+		if ( -1 == index || !oldWidget.getWidgetId().equals(newWidget.getWidgetId()) ) {
+			this.remove(oldWidget);
+			this.add(newWidget);
+		} else {
+			widgets.set(index, newWidget);
+		}
+	}
+
+	/**
+	 * Removes all widgets from the index.
+	 */
+	public void clear() {
+		this.widgetsById.clear();
+	}
+
+	/**
+	 * Gets the widgets with the specified widget id.
+	 *
+	 * @param widgetId The widget id.
+	 * @return The widgets with the widget id, in the order they were added, or null if there are none.
+	 * The returned list must not be modified.
+	 */
+	public ArrayList<Widget> get(String widgetId) {
+		return this.widgetsById.get(widgetId);
+	}
+}
@@ -64,12 +64,30 @@ public class WidgetInput {
 		
 		WidgetInput otherWI = (WidgetInput)other;
 		
-		if ( !this.timeStamp.equals(otherWI.getTimeStamp()) || !this.placeId.equals(otherWI.getPlaceId()) 
-				|| !this.applicationId.equals(otherWI.getApplicationId()) || !this.userId.equals(otherWI.getUserId())) {
+		if ( !equal(this.getTimeStamp(), otherWI.getTimeStamp()) || !equal(this.getPlaceId(), otherWI.getPlaceId()) 
+				|| !equal(this.getApplicationId(), otherWI.getApplicationId()) || !equal(this.getUserId(), otherWI.getUserId())) {
 			return false;
 		}
 		return true;
 	}
+	
+	private static boolean equal(String a, String b) {
+		return null == a ? null == b : a.equals(b);
+	}
+	
+	/**
+	 * Returns a hash code consistent with {@link #equals(Object)}: it depends only on the timestamp,
+	 * place id, application id, and user id.
+	 */
+	@Override
+	public int hashCode() {
+		int hash = 17;
+		hash = 31*hash + (null == this.getTimeStamp() ? 0 : this.getTimeStamp().hashCode());
+		hash = 31*hash + (null == this.getPlaceId() ? 0 : this.getPlaceId().hashCode());
+		hash = 31*hash + (null == this.getApplicationId() ? 0 : this.getApplicationId().hashCode());
+		hash = 31*hash + (null == this.getUserId() ? 0 : this.getUserId().hashCode());
+		return hash;
+	}
 
 
 	/**
@@ -49,6 +49,11 @@ public class WidgetOption  {
 	
 	private String iconUrl;
 	
+	/**
+	 * The cached content fingerprint, or null if it must be recomputed.
+	 */
+	private Integer fingerprint;
+	
 	/**
 	 * Created a default WidgetOption.
 	 */
@@ -154,6 +159,7 @@ public class WidgetOption  {
 	 */
 	public void setIconUrl(String iconUrl) {
 		this.iconUrl = iconUrl;
+		this.fingerprint = null;
 	}
 
 	/**
@@ -163,6 +169,7 @@ public class WidgetOption  {
 	 */
 	public void setLongDescription(String longDescription) {
 		this.longDescription = longDescription;
+		this.fingerprint = null;
 	}
 
 	/**
@@ -172,6 +179,7 @@ public class WidgetOption  {
 	 */
 	public void setReferenceCode(String referenceCode) {
 		this.referenceCode = referenceCode;
+		this.fingerprint = null;
 	}
 
 	/**
@@ -181,6 +189,7 @@ public class WidgetOption  {
 	 */
 	public void setShortDescription(String shortDescription) {
 		this.shortDescription = shortDescription;
+		this.fingerprint = null;
 	}
 
 	/**
@@ -190,6 +199,7 @@ public class WidgetOption  {
 	 */
 	public void setSuggestedReferenceCode(String suggestedReferenceCode) {
 		this.suggestedReferenceCode = suggestedReferenceCode;
+		this.fingerprint = null;
 	}
 
 	/**
@@ -198,6 +208,27 @@ public class WidgetOption  {
 	 */
 	public void setWidgetOptionId(String optionID) {
 		this.widgetOptionId = optionID;
+		this.fingerprint = null;
+	}
+	
+	/**
+	 * Gets a hash of the content of this widget option (id, reference codes, descriptions and icon).
+	 * Options with the same content have the same fingerprint. The value is cached until 
+	 * the option is modified.
+	 * 
+	 * @return The content fingerprint.
+	 */
+	public int getFingerprint() {
+		if ( null == this.fingerprint ) {
+			int hash = Fingerprint.of(this.widgetOptionId);
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.suggestedReferenceCode));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.referenceCode));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.longDescription));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.shortDescription));
+			hash = Fingerprint.combine(hash, Fingerprint.of(this.iconUrl));
+			this.fingerprint = hash;
+		}
+		return this.fingerprint;
 	}
 
 //	/**
@@ -17,6 +17,11 @@ public class WidgetParameter {
 	
 	private String value;
 	
+	/**
+	 * The cached content fingerprint, or null if it must be recomputed.
+	 */
+	private Integer fingerprint;
+	
 	/**
 	 * Creates a new WidgetParameter with the given name and value.
 	 * @param name The name for the parameter.
@@ -54,6 +59,7 @@ public class WidgetParameter {
 	 */
 	public void setName(String name) {
 		this.name = name;
+		this.fingerprint = null;
 	}
 
 
@@ -64,6 +70,20 @@ public class WidgetParameter {
 	 */
 	public void setValue(String value) {
 		this.value = value;
+		this.fingerprint = null;
+	}
+	
+	/**
+	 * Gets a hash of the name and value of this parameter. The value is cached until 
+	 * the parameter is modified.
+	 * 
+	 * @return The content fingerprint.
+	 */
+	public int getFingerprint() {
+		if ( null == this.fingerprint ) {
+			this.fingerprint = Fingerprint.combine(Fingerprint.of(this.name), Fingerprint.of(this.value));
+		}
+		return this.fingerprint;
 	}
 	
 }
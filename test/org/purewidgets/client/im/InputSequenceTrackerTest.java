@@ -0,0 +1,89 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Tests the duplicate and gap detection of the input sequence tracker.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class InputSequenceTrackerTest {
+
+	@Test
+	public void duplicatesAreRejected() {
+		InputSequenceTracker tracker = new InputSequenceTracker(10);
+		assertTrue(tracker.accept(5));
+		assertTrue(tracker.accept(6));
+		assertFalse(tracker.accept(6));
+		assertFalse(tracker.accept(4));
+		assertEquals(6, tracker.getContiguous());
+	}
+
+	@Test
+	public void gapIsReportedOnce() {
+		InputSequenceTracker tracker = new InputSequenceTracker(10);
+		tracker.accept(1);
+		tracker.accept(4);
+
+		ArrayList<long[]> gaps = tracker.takeGaps();
+		assertEquals(1, gaps.size());
+		assertEquals(2, gaps.get(0)[0]);
+		assertEquals(3, gaps.get(0)[1]);
+		assertEquals(0, tracker.takeGaps().size());
+	}
+
+	@Test
+	public void backfilledGapAdvancesTheContiguousSequence() {
+		InputSequenceTracker tracker = new InputSequenceTracker(10);
+		tracker.accept(1);
+		tracker.accept(4);
+		tracker.takeGaps();
+
+		tracker.backfilled(2, 3);
+		assertEquals(4, tracker.getContiguous());
+		assertFalse(tracker.accept(3));
+	}
+
+	@Test
+	public void failedBackfillIsReportedAgain() {
+		InputSequenceTracker tracker = new InputSequenceTracker(10);
+		tracker.accept(1);
+		tracker.accept(4);
+		tracker.takeGaps();
+
+		tracker.backfillFailed(2, 3);
+		assertEquals(1, tracker.takeGaps().size());
+	}
+
+	@Test
+	public void lateListFillsGap() {
+		InputSequenceTracker tracker = new InputSequenceTracker(10);
+		tracker.accept(1);
+		tracker.accept(3);
+		assertTrue(tracker.accept(2));
+		assertEquals(3, tracker.getContiguous());
+		assertEquals(0, tracker.takeGaps().size());
+	}
+
+	@Test
+	public void largeJumpRestartsTheSequence() {
+		InputSequenceTracker tracker = new InputSequenceTracker(5);
+		tracker.accept(1);
+		assertTrue(tracker.accept(100));
+		assertEquals(100, tracker.getContiguous());
+		assertEquals(0, tracker.takeGaps().size());
+
+		assertTrue(tracker.accept(1));
+		assertEquals(1, tracker.getContiguous());
+	}
+}
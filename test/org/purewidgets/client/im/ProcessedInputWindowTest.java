@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.purewidgets.shared.im.WidgetInput;
+
+/**
+ * Tests the bounds of the processed input window.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class ProcessedInputWindowTest {
+
+	private static final long LONG_AGE = 60 * 60 * 1000;
+
+	@Test
+	public void addedInputIsContained() {
+		ProcessedInputWindow window = new ProcessedInputWindow(10, LONG_AGE);
+		window.add(createInput(1));
+		assertTrue(window.contains(createInput(1)));
+		assertFalse(window.contains(createInput(2)));
+	}
+
+	@Test
+	public void oldestInputIsEvictedWhenFull() {
+		ProcessedInputWindow window = new ProcessedInputWindow(3, LONG_AGE);
+		for ( int i = 1; i <= 4; i++ ) {
+			window.add(createInput(i));
+		}
+		assertFalse(window.contains(createInput(1)));
+		assertTrue(window.contains(createInput(2)));
+		assertTrue(window.contains(createInput(4)));
+		assertEquals(3, window.size());
+	}
+
+	@Test
+	public void duplicateIsKeptUntilItsLastSlotIsEvicted() {
+		ProcessedInputWindow window = new ProcessedInputWindow(2, LONG_AGE);
+		window.add(createInput(1));
+		window.add(createInput(1));
+		window.add(createInput(2));
+		assertTrue(window.contains(createInput(1)));
+
+		window.add(createInput(3));
+		assertFalse(window.contains(createInput(1)));
+	}
+
+	@Test
+	public void removedInputIsNotContained() {
+		ProcessedInputWindow window = new ProcessedInputWindow(3, LONG_AGE);
+		window.add(createInput(1));
+		window.add(createInput(2));
+		window.removeAll(Collections.singletonList(createInput(1)));
+		assertFalse(window.contains(createInput(1)));
+		assertEquals(1, window.size());
+
+		/*
+		 * The slot of the removed input is the first evicted, so no other input is forgotten
+		 */
+		window.add(createInput(3));
+		window.add(createInput(4));
+		assertTrue(window.contains(createInput(2)));
+	}
+
+	@Test
+	public void inputWithoutApplicationIdIsCompared() {
+		ProcessedInputWindow window = new ProcessedInputWindow(10, LONG_AGE);
+		WidgetInput input = createInput(1);
+		input.setApplicationId(null);
+		window.add(input);
+
+		WidgetInput duplicate = createInput(1);
+		duplicate.setApplicationId(null);
+		assertTrue(window.contains(duplicate));
+		assertFalse(window.contains(createInput(1)));
+	}
+
+	@Test
+	public void oldInputExpires() throws InterruptedException {
+		ProcessedInputWindow window = new ProcessedInputWindow(10, 10);
+		window.add(createInput(1));
+		Thread.sleep(50);
+		assertFalse(window.contains(createInput(1)));
+		assertEquals(0, window.size());
+	}
+
+	private static WidgetInput createInput(int timeStamp) {
+		WidgetInput input = new WidgetInput();
+		input.setTimeStamp(Integer.toString(timeStamp));
+		input.setPlaceId("place");
+		input.setApplicationId("application");
+		input.setUserId("user");
+		return input;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package org.purewidgets.client.im;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the reopening delay of failed input transports.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class TransportBackoffTest {
+
+	private static final long INITIAL_DELAY = 100;
+
+	private static final long MAX_DELAY = 1000;
+
+	private static final long RECOVERY_TIME = 5000;
+
+	@Test
+	public void newTransportIsDueAndWorking() {
+		TransportBackoff backoff = new TransportBackoff(INITIAL_DELAY, MAX_DELAY, RECOVERY_TIME);
+		assertTrue(backoff.isDue(0));
+		assertTrue(backoff.isWorking(0));
+	}
+
+	@Test
+	public void delayDoublesUpToTheMaximum() {
+		TransportBackoff backoff = new TransportBackoff(INITIAL_DELAY, MAX_DELAY, RECOVERY_TIME);
+		long[] expected = {100, 200, 400, 800, 1000, 1000};
+		for ( long delay : expected ) {
+			backoff.failed(0);
+			assertEquals(delay, backoff.getDelay(0));
+		}
+		assertFalse(backoff.isDue(999));
+		assertTrue(backoff.isDue(1000));
+	}
+
+	@Test
+	public void failedTransportIsNotWorkingUntilItDeliversInput() {
+		TransportBackoff backoff = new TransportBackoff(INITIAL_DELAY, MAX_DELAY, RECOVERY_TIME);
+		backoff.failed(0);
+		backoff.opened(100);
+		assertFalse(backoff.isWorking(200));
+
+		backoff.delivered();
+		assertTrue(backoff.isWorking(200));
+
+		backoff.failed(300);
+		assertEquals(INITIAL_DELAY, backoff.getDelay(300));
+	}
+
+	@Test
+	public void failedTransportRecoversAfterStayingOpen() {
+		TransportBackoff backoff = new TransportBackoff(INITIAL_DELAY, MAX_DELAY, RECOVERY_TIME);
+		backoff.failed(0);
+		backoff.failed(0);
+		backoff.opened(1000);
+		assertFalse(backoff.isWorking(1000 + RECOVERY_TIME - 1));
+		assertTrue(backoff.isWorking(1000 + RECOVERY_TIME));
+	}
+}
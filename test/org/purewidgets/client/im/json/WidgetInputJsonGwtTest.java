@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.purewidgets.client.im.json;
+
+import org.purewidgets.client.json.GenericJson;
+import org.purewidgets.shared.im.WidgetInput;
+
+import com.google.gwt.core.client.JavaScriptException;
+import com.google.gwt.junit.client.GWTTestCase;
+
+/**
+ * Tests the native JSON parsing of GenericJson and the lazy conversion of widget input. These
+ * tests run in a browser, with the test.dev and test.prod targets.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class WidgetInputJsonGwtTest extends GWTTestCase {
+
+	private static final String JSON = "{\"userId\":\"u\",\"nickname\":\"n\",\"timeStamp\":\"10\","
+			+ "\"applicationId\":\"a\",\"widgetId\":\"w\",\"widgetOptionId\":\"o\",\"parameters\":[\"p1\",\"p2\"],"
+			+ "\"age\":5,\"inputMechanism\":\"SMS\"}";
+
+	@Override
+	public String getModuleName() {
+		return "org.purewidgets.PuReWidgets";
+	}
+
+	public void testFieldsAreConvertedFromJson() {
+		WidgetInputJson json = GenericJson.fromJson(JSON);
+		WidgetInput input = json.getWidgetInput();
+
+		assertEquals("u", input.getUserId());
+		assertEquals("n", input.getNickname());
+		assertEquals("10", input.getTimeStamp());
+		assertEquals("a", input.getApplicationId());
+		assertEquals("w", input.getWidgetId());
+		assertEquals("o", input.getWidgetOptionId());
+		assertEquals(2, input.getParameters().size());
+		assertEquals("p2", input.getParameters().get(1));
+		assertEquals(5, input.getAge());
+		assertEquals("SMS", input.getInputMechanism());
+	}
+
+	public void testMissingApplicationIdKeepsTheDefault() {
+		WidgetInput input = ((WidgetInputJson) GenericJson.fromJson(
+				"{\"userId\":\"u\",\"timeStamp\":\"10\",\"widgetId\":\"w\",\"widgetOptionId\":\"o\",\"parameters\":[],\"age\":0}"))
+				.getWidgetInput();
+		assertEquals("", input.getApplicationId());
+
+		WidgetInput same = new WidgetInput();
+		same.setUserId("u");
+		same.setTimeStamp("10");
+		assertTrue(same.equals(input));
+		assertTrue(input.equals(same));
+		assertEquals(same.hashCode(), input.hashCode());
+	}
+
+	public void testMissingParametersGiveAnEmptyList() {
+		WidgetInputJson json = GenericJson.fromJson(
+				"{\"userId\":\"u\",\"timeStamp\":\"10\",\"widgetId\":\"w\",\"widgetOptionId\":\"o\",\"age\":0}");
+		assertEquals(0, json.getParameters().size());
+
+		WidgetInput input = json.getWidgetInput();
+		assertEquals(0, input.getParameters().size());
+		assertEquals("w", input.getWidgetId());
+	}
+
+	public void testMissingNicknameKeepsTheDefault() {
+		WidgetInput input = ((WidgetInputJson) GenericJson.fromJson(
+				"{\"userId\":\"u\",\"timeStamp\":\"10\",\"widgetId\":\"w\",\"widgetOptionId\":\"o\",\"parameters\":[],\"age\":0}"))
+				.getWidgetInput();
+		assertEquals("", input.getNickname());
+		assertEquals("u", input.getUserId());
+	}
+
+	public void testSetFieldIsNotReadFromJson() {
+		WidgetInputJson json = GenericJson.fromJson(JSON);
+		WidgetInput input = json.getWidgetInput();
+
+		input.setWidgetId("other");
+		json.setWidgetId("changed");
+		assertEquals("other", input.getWidgetId());
+	}
+
+	public void testConvertedFieldIsNotReadAgain() {
+		WidgetInputJson json = GenericJson.fromJson(JSON);
+		WidgetInput input = json.getWidgetInput();
+
+		assertEquals("10", input.getTimeStamp());
+		json.setTimeStamp("20");
+		assertEquals("10", input.getTimeStamp());
+	}
+
+	public void testInputRoundTripsThroughJson() {
+		WidgetInput input = ((WidgetInputJson) GenericJson.fromJson(JSON)).getWidgetInput();
+		WidgetInputJson json = WidgetInputJson.create(input);
+		WidgetInputJson parsed = GenericJson.fromJson(json.toJsonString());
+
+		assertEquals("w", parsed.getWidgetId());
+		assertEquals("o", parsed.getWidgetOptionId());
+		assertEquals(2, parsed.getParameters().size());
+	}
+
+	public void testNonStrictJsonIsRejected() {
+		try {
+			GenericJson.fromJson("{widgetId:'w'}");
+			fail("Non-strict JSON was parsed.");
+		} catch (JavaScriptException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.purewidgets.server.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.purewidgets.server.dao.Dao;
+import org.purewidgets.server.dao.StorageDao;
+import org.purewidgets.server.storage.ServerStorage;
+import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.im.WidgetOption;
+import org.purewidgets.shared.im.WidgetParameter;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+
+/**
+ * Tests that the widget registry is saved outside the application's storage entity, against the
+ * local datastore.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class PersistentWidgetRegistryTest {
+
+	private static final String STORAGE_ID = "place-application";
+
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+	@Before
+	public void setUp() {
+		this.helper.setUp();
+	}
+
+	@After
+	public void tearDown() {
+		this.helper.tearDown();
+	}
+
+	@Test
+	public void registeredWidgetsAreReloaded() {
+		PersistentWidgetRegistry registry = PersistentWidgetRegistry.load(ServerStorage.get(STORAGE_ID));
+		registry.registered(Arrays.asList(createWidget("a"), createWidget("b")));
+		registry.save();
+
+		PersistentWidgetRegistry loaded = PersistentWidgetRegistry.load(ServerStorage.get(STORAGE_ID));
+		assertEquals(2, loaded.size());
+		assertTrue(loaded.isRegistered(createWidget("a")));
+		assertTrue(loaded.isRegistered(createWidget("b")));
+
+		Widget changed = createWidget("a");
+		changed.setShortDescription("changed");
+		assertFalse(loaded.isRegistered(changed));
+	}
+
+	@Test
+	public void registryIsNotSavedInTheStorageEntity() {
+		PersistentWidgetRegistry registry = PersistentWidgetRegistry.load(ServerStorage.get(STORAGE_ID));
+		registry.registered(Arrays.asList(createWidget("a"), createWidget("b")));
+		registry.save();
+
+		assertEquals(Collections.emptyList(), this.getStorage().getKeys());
+	}
+
+	@Test
+	public void unregisteredWidgetsAreDeleted() {
+		PersistentWidgetRegistry registry = PersistentWidgetRegistry.load(ServerStorage.get(STORAGE_ID));
+		registry.registered(Arrays.asList(createWidget("a"), createWidget("b")));
+		registry.save();
+
+		registry = PersistentWidgetRegistry.load(ServerStorage.get(STORAGE_ID));
+		registry.unregistered(Arrays.asList(createWidget("a")));
+		registry.save();
+
+		PersistentWidgetRegistry loaded = PersistentWidgetRegistry.load(ServerStorage.get(STORAGE_ID));
+		assertEquals(1, loaded.size());
+		assertEquals("b", loaded.getWidgets().get(0).getWidgetId());
+	}
+
+	@Test
+	public void registriesOfOtherApplicationsAreSeparate() {
+		PersistentWidgetRegistry registry = PersistentWidgetRegistry.load(ServerStorage.get(STORAGE_ID));
+		registry.registered(Arrays.asList(createWidget("a")));
+		registry.save();
+
+		assertEquals(0, PersistentWidgetRegistry.load(ServerStorage.get("place-other")).size());
+	}
+
+	@Test
+	public void registrySavedInTheStorageEntityIsDiscarded() {
+		ServerStorage storage = ServerStorage.get(STORAGE_ID);
+		storage.setString("purewidgets-widget-registry", "{}");
+		storage.setString("purewidgets-registered-widgets", StorageDao.encode(Arrays.asList("a")));
+		storage.setString("purewidgets-registered-widget-a", "{}");
+
+		assertEquals(0, PersistentWidgetRegistry.load(storage).size());
+
+		StorageDao stored = this.getStorage();
+		assertNull(stored.getString("purewidgets-widget-registry"));
+		assertNull(stored.getString("purewidgets-registered-widgets"));
+		assertNull(stored.getString("purewidgets-registered-widget-a"));
+	}
+
+	private StorageDao getStorage() {
+		Dao.beginTransaction();
+		try {
+			return Dao.getStorage(STORAGE_ID);
+		} finally {
+			Dao.commitOrRollbackTransaction();
+		}
+	}
+
+	private static Widget createWidget(String widgetId) {
+		ArrayList<WidgetOption> options = new ArrayList<WidgetOption>();
+		options.add(new WidgetOption("option"));
+		return new Widget(widgetId, Widget.CONTROL_TYPE_IMPERATIVE_SELECTION, "short", "long", options,
+				new ArrayList<WidgetParameter>());
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ *
+ */
+package org.purewidgets.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+
+/**
+ * Stress tests the thread confinement of the Dao transactions, against the local datastore.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class DaoConcurrencyTest {
+
+	private static final int THREADS = 8;
+
+	private static final int INCREMENTS = 25;
+
+	private static final int ATTEMPTS = 10;
+
+	private static final String STORAGE_ID = "DaoConcurrencyTest";
+
+	private static final String COUNTER_NAME = "counter";
+
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+	@Before
+	public void setUp() {
+		this.helper.setUp();
+	}
+
+	@After
+	public void tearDown() {
+		this.helper.tearDown();
+	}
+
+	/**
+	 * Several threads increment the same storage value concurrently: every increment reported as
+	 * committed must be in the final value, and no thread may see another thread's transaction.
+	 */
+	@Test
+	public void concurrentIncrementsAreNotLost() throws InterruptedException {
+		final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+		final AtomicInteger committed = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+
+		Thread[] threads = new Thread[THREADS];
+		for ( int i = 0; i < THREADS; i++ ) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+					try {
+						start.await();
+						for ( int j = 0; j < INCREMENTS; j++ ) {
+							if ( null != Dao.transact(ATTEMPTS, new IncrementWork()) ) {
+								committed.incrementAndGet();
+							}
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					} finally {
+						ApiProxy.clearEnvironmentForCurrentThread();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+
+		assertNull(failure.get());
+		assertTrue(committed.get() > 0);
+		assertEquals(committed.get(), this.readCounter());
+	}
+
+	/**
+	 * A failure that is not a concurrent update is rethrown at once, and leaves no transaction
+	 * open on the thread.
+	 */
+	@Test
+	public void nonRetryableFailureIsRethrown() {
+		final AtomicInteger runs = new AtomicInteger();
+		try {
+			Dao.transact(ATTEMPTS, new Dao.Work<String>() {
+				@Override
+				public String run() {
+					runs.incrementAndGet();
+					throw new IllegalArgumentException("not retryable");
+				}
+			});
+			fail("The exception was not rethrown.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, runs.get());
+
+		try {
+			Dao.getStorage(STORAGE_ID);
+			fail("The transaction was left open.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * A concurrent update thrown by the work is retried in a new transaction.
+	 */
+	@Test
+	public void concurrentModificationIsRetried() {
+		final AtomicInteger runs = new AtomicInteger();
+		String result = Dao.transact(ATTEMPTS, new Dao.Work<String>() {
+			@Override
+			public String run() {
+				if ( runs.incrementAndGet() == 1 ) {
+					throw new ConcurrentModificationException();
+				}
+				return "done";
+			}
+		});
+		assertEquals("done", result);
+		assertEquals(2, runs.get());
+	}
+
+	/**
+	 * The operations of other threads are not counted in the operation count of a thread.
+	 */
+	@Test
+	public void operationCountIsPerThread() throws InterruptedException {
+		final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+		long before = Dao.getOperationCount();
+
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ApiProxy.setEnvironmentForCurrentThread(environment);
+				try {
+					Dao.transact(ATTEMPTS, new IncrementWork());
+				} finally {
+					ApiProxy.clearEnvironmentForCurrentThread();
+				}
+			}
+		});
+		other.start();
+		other.join();
+		assertEquals(before, Dao.getOperationCount());
+
+		Dao.transact(ATTEMPTS, new IncrementWork());
+		/*
+		 * A get, a put and a commit
+		 */
+		assertEquals(before + 3, Dao.getOperationCount());
+	}
+
+	private long readCounter() {
+		return Dao.transact(ATTEMPTS, new Dao.Work<Long>() {
+			@Override
+			public Long run() {
+				StorageDao storage = Dao.getStorage(STORAGE_ID);
+				if ( null == storage ) {
+					return Long.valueOf(0);
+				}
+				return Long.valueOf(storage.getString(COUNTER_NAME));
+			}
+		}).longValue();
+	}
+
+	private static class IncrementWork implements Dao.Work<StorageDao> {
+		@Override
+		public StorageDao run() {
+			StorageDao storage = Dao.getStorage(STORAGE_ID);
+			if ( null == storage ) {
+				storage = new StorageDao(STORAGE_ID);
+			}
+			String value = storage.getString(COUNTER_NAME);
+			long counter = null == value ? 0 : Long.parseLong(value);
+			storage.setString(COUNTER_NAME, Long.toString(counter + 1));
+			Dao.put(storage);
+			return storage;
+		}
+	}
+}
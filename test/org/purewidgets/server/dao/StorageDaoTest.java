@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.purewidgets.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the indexed name/value store of StorageDao, without a datastore.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class StorageDaoTest {
+
+	@Test
+	public void valuesAreSetAndReplaced() {
+		StorageDao storage = new StorageDao("test");
+		storage.setString("a", "1");
+		storage.setString("b", "2");
+		storage.setString("a", "3");
+
+		assertEquals("3", storage.getString("a"));
+		assertEquals("2", storage.getString("b"));
+		assertNull(storage.getString("c"));
+		assertEquals(Arrays.asList("a", "b"), storage.getKeys());
+	}
+
+	@Test
+	public void manyValuesAreReadInRequestOrder() {
+		StorageDao storage = new StorageDao("test");
+		LinkedHashMap<String, String> pairs = new LinkedHashMap<String, String>();
+		pairs.put("a", "1");
+		pairs.put("b", "2");
+		storage.setMany(pairs);
+
+		Map<String, String> values = storage.getMany(Arrays.asList("b", "missing", "a"));
+		assertEquals(Arrays.asList("b", "missing", "a"), new ArrayList<String>(values.keySet()));
+		assertEquals("2", values.get("b"));
+		assertNull(values.get("missing"));
+		assertEquals("1", values.get("a"));
+	}
+
+	@Test
+	public void removedValueIsGoneAndOthersKeepTheirValues() {
+		StorageDao storage = new StorageDao("test");
+		storage.setString("a", "1");
+		storage.setString("b", "2");
+		storage.setString("c", "3");
+
+		storage.remove("b");
+		assertNull(storage.getString("b"));
+		assertEquals("1", storage.getString("a"));
+		assertEquals("3", storage.getString("c"));
+
+		LinkedHashMap<String, String> pairs = new LinkedHashMap<String, String>();
+		pairs.put("a", null);
+		pairs.put("d", "4");
+		storage.setMany(pairs);
+		assertEquals(new HashSet<String>(Arrays.asList("c", "d")), new HashSet<String>(storage.getKeys()));
+		assertEquals("4", storage.getString("d"));
+	}
+
+	@Test
+	public void indexIsKeptAcrossManyRemovals() {
+		StorageDao storage = new StorageDao("test");
+		for ( int i = 0; i < 100; i++ ) {
+			storage.setString("k" + i, "v" + i);
+		}
+		LinkedHashMap<String, String> pairs = new LinkedHashMap<String, String>();
+		for ( int i = 0; i < 100; i += 3 ) {
+			pairs.put("k" + i, null);
+		}
+		storage.setMany(pairs);
+		storage.remove("missing");
+
+		for ( int i = 0; i < 100; i++ ) {
+			if ( i % 3 == 0 ) {
+				assertNull(storage.getString("k" + i));
+			} else {
+				assertEquals("v" + i, storage.getString("k" + i));
+			}
+		}
+		assertEquals(66, storage.getKeys().size());
+
+		storage.setString("k0", "again");
+		assertEquals("again", storage.getString("k0"));
+		assertEquals(67, storage.getKeys().size());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void keysCannotBeModified() {
+		StorageDao storage = new StorageDao("test");
+		storage.setString("a", "1");
+		storage.getKeys().clear();
+	}
+
+	@Test
+	public void listsRoundTrip() {
+		ArrayList<String> list = new ArrayList<String>(Arrays.asList("one", "with:colon", null, "last"));
+		assertEquals(list, StorageDao.decode(StorageDao.encode(list)));
+		assertEquals(0, StorageDao.decode(StorageDao.encode(new ArrayList<String>())).size());
+		assertEquals(0, StorageDao.decode("not a list").size());
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package org.purewidgets.server.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.purewidgets.shared.exceptions.HttpServerException;
+
+/**
+ * Tests the collapsing of concurrent GETs and the list cache of the CollapsingGetter.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class CollapsingGetterTest {
+
+	private static final String LIST_URL = "http://im/place/p/application?appid=a";
+
+	private static final String INPUT_URL = "http://im/place/p/application/a/input?appid=a&from=0";
+
+	@Test
+	public void concurrentGetsShareOneUpstreamRequest() throws Exception {
+		final CollapsingGetter getter = new CollapsingGetter(0);
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final CollapsingGetter.Loader loader = new CollapsingGetter.Loader() {
+			@Override
+			public String load(String url) throws HttpServerException {
+				loads.incrementAndGet();
+				loading.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new HttpServerException("Interrupted");
+				}
+				return "body";
+			}
+		};
+
+		final AtomicReference<String> first = new AtomicReference<String>();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					first.set(getter.get(INPUT_URL, loader));
+				} catch (HttpServerException e) {
+					first.set(e.getMessage());
+				}
+			}
+		});
+		thread.start();
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+		final AtomicReference<String> second = new AtomicReference<String>();
+		Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					second.set(getter.get(INPUT_URL, loader));
+				} catch (HttpServerException e) {
+					second.set(e.getMessage());
+				}
+			}
+		});
+		waiter.start();
+		while ( getter.getCollapsed() == 0 && waiter.isAlive() ) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+		thread.join();
+		waiter.join();
+
+		assertEquals(1, loads.get());
+		assertEquals("body", first.get());
+		assertEquals("body", second.get());
+		assertEquals(1, getter.getMisses());
+		assertEquals(1, getter.getCollapsed());
+	}
+
+	@Test
+	public void sequentialGetsGoUpstream() throws HttpServerException {
+		CollapsingGetter getter = new CollapsingGetter(60000);
+		CountingLoader loader = new CountingLoader();
+		getter.get(INPUT_URL, loader);
+		getter.get(INPUT_URL, loader);
+		assertEquals(2, loader.loads);
+		assertEquals(0, getter.getHits());
+	}
+
+	@Test
+	public void listResponsesAreCached() throws HttpServerException {
+		CollapsingGetter getter = new CollapsingGetter(60000);
+		CountingLoader loader = new CountingLoader();
+		String body = getter.get(LIST_URL, loader);
+		assertSame(body, getter.get(LIST_URL, loader));
+		assertEquals(1, loader.loads);
+		assertEquals(1, getter.getHits());
+
+		getter.get("http://im/place?appid=a", loader);
+		assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void disablingTheCacheClearsIt() throws HttpServerException {
+		CollapsingGetter getter = new CollapsingGetter(60000);
+		CountingLoader loader = new CountingLoader();
+		getter.get(LIST_URL, loader);
+		getter.setListCacheTtl(0);
+		getter.get(LIST_URL, loader);
+		assertEquals(2, loader.loads);
+	}
+
+	@Test
+	public void failureIsNotCached() throws HttpServerException {
+		CollapsingGetter getter = new CollapsingGetter(60000);
+		CollapsingGetter.Loader failing = new CollapsingGetter.Loader() {
+			@Override
+			public String load(String url) throws HttpServerException {
+				throw new HttpServerException("failed");
+			}
+		};
+		try {
+			getter.get(LIST_URL, failing);
+			fail("The failure was not rethrown.");
+		} catch (HttpServerException e) {
+			assertEquals("failed", e.getMessage());
+		}
+
+		CountingLoader loader = new CountingLoader();
+		getter.get(LIST_URL, loader);
+		assertEquals(1, loader.loads);
+		assertEquals(0, getter.getHits());
+	}
+
+	/**
+	 * A loader that returns a new body on each request, and counts the requests.
+	 */
+	private static class CountingLoader implements CollapsingGetter.Loader {
+		private int loads;
+
+		@Override
+		public String load(String url) throws HttpServerException {
+			this.loads++;
+			return new String("body " + this.loads);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package org.purewidgets.server.http;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.Test;
+
+/**
+ * Tests the long poll detection and the connection limits of the PooledHttpEngine. The limits are
+ * checked before connecting, so no server is needed.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class PooledHttpEngineTest {
+
+	private static final String URL_BASE = "http://localhost:1/place/p/application/a/input?appid=a&from=0";
+
+	@Test
+	public void getWithWaitIsLongPoll() throws IOException {
+		assertTrue(PooledHttpEngine.isLongPoll("GET", new URL(URL_BASE + "&wait=30")));
+		assertTrue(PooledHttpEngine.isLongPoll(null, new URL(URL_BASE + "&wait=30")));
+	}
+
+	@Test
+	public void zeroOrMissingWaitIsNotLongPoll() throws IOException {
+		assertFalse(PooledHttpEngine.isLongPoll("GET", new URL(URL_BASE)));
+		assertFalse(PooledHttpEngine.isLongPoll("GET", new URL(URL_BASE + "&wait=0")));
+		assertFalse(PooledHttpEngine.isLongPoll("GET", new URL(URL_BASE + "&wait=")));
+		assertFalse(PooledHttpEngine.isLongPoll("GET", new URL("http://localhost:1/place")));
+	}
+
+	@Test
+	public void postIsNotLongPoll() throws IOException {
+		assertFalse(PooledHttpEngine.isLongPoll("POST", new URL(URL_BASE + "&wait=30")));
+	}
+
+	@Test
+	public void longPollsOverTheLimitAreRefused() {
+		PooledHttpEngine engine = new PooledHttpEngine(1, 0, 1000, 1000);
+		try {
+			engine.execute("GET", URL_BASE + "&wait=30", null);
+			fail("The long poll was not refused.");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Too many long polls"));
+		}
+	}
+
+	@Test
+	public void requestsOverTheHostLimitTimeOut() {
+		PooledHttpEngine engine = new PooledHttpEngine(0, 1, 10, 1000);
+		try {
+			engine.execute("GET", URL_BASE, null);
+			fail("The request did not time out.");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Timed out waiting for a connection"));
+		}
+	}
+}
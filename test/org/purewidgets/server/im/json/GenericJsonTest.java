@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package org.purewidgets.server.im.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.purewidgets.shared.im.Widget;
+import org.purewidgets.shared.im.WidgetOption;
+
+/**
+ * Tests the shared-mapper JSON encoding and decoding of GenericJson.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class GenericJsonTest {
+
+	private static final int THREADS = 8;
+
+	private static final int DECODES = 200;
+
+	@Test
+	public void widgetListRoundTripsThroughString() {
+		String json = createWidgetList().toJsonString();
+		WidgetListJson decoded = GenericJson.fromJson(WidgetListJson.class, json);
+		assertWidgets(decoded);
+	}
+
+	@Test
+	public void widgetListIsDecodedFromStream() throws UnsupportedEncodingException {
+		String json = createWidgetList().toJsonString();
+		WidgetListJson decoded = GenericJson.fromJson(WidgetListJson.class, new ByteArrayInputStream(json.getBytes("UTF-8")));
+		assertWidgets(decoded);
+	}
+
+	@Test
+	public void invalidJsonGivesNull() {
+		assertNull(GenericJson.fromJson(WidgetListJson.class, "{not json"));
+		assertNull(GenericJson.fromJson(WidgetListJson.class, (InputStream) null));
+	}
+
+	@Test
+	public void concurrentDecodesAgree() throws InterruptedException {
+		final String json = createWidgetList().toJsonString();
+		final AtomicInteger failures = new AtomicInteger();
+
+		Thread[] threads = new Thread[THREADS];
+		for ( int i = 0; i < THREADS; i++ ) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for ( int j = 0; j < DECODES; j++ ) {
+						WidgetListJson decoded = GenericJson.fromJson(WidgetListJson.class, json);
+						if ( null == decoded || !json.equals(decoded.toJsonString()) ) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+	}
+
+	private static WidgetListJson createWidgetList() {
+		ArrayList<Widget> widgets = new ArrayList<Widget>();
+		for ( int i = 0; i < 3; i++ ) {
+			ArrayList<WidgetOption> options = new ArrayList<WidgetOption>();
+			options.add(new WidgetOption("option" + i, "ref" + i));
+			widgets.add(new Widget("widget" + i, "short" + i, "long" + i, options));
+		}
+		return WidgetListJson.create("application", "place", widgets);
+	}
+
+	private static void assertWidgets(WidgetListJson decoded) {
+		ArrayList<Widget> widgets = decoded.getWidgetList();
+		assertEquals(3, widgets.size());
+		for ( int i = 0; i < 3; i++ ) {
+			assertEquals("widget" + i, widgets.get(i).getWidgetId());
+			assertEquals("long" + i, widgets.get(i).getLongDescription());
+			assertEquals("option" + i, widgets.get(i).getWidgetOptions().get(0).getWidgetOptionId());
+		}
+	}
+}
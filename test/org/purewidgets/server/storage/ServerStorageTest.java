@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package org.purewidgets.server.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.purewidgets.server.dao.Dao;
+import org.purewidgets.server.dao.StorageDao;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+
+/**
+ * Tests that the server storage has the same semantics with and without a storage session,
+ * against the local datastore.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class ServerStorageTest {
+
+	private static final String STORAGE_ID = "ServerStorageTest";
+
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+	@Before
+	public void setUp() {
+		this.helper.setUp();
+	}
+
+	@After
+	public void tearDown() {
+		this.helper.tearDown();
+	}
+
+	@Test
+	public void valuesAreWrittenWhenTheSessionIsClosed() {
+		ServerStorage storage = ServerStorage.get(STORAGE_ID);
+		storage.open();
+		storage.setString("a", "1");
+		assertEquals("1", storage.getString("a"));
+		assertNull(this.getStorage().getString("a"));
+
+		storage.close();
+		assertEquals("1", this.getStorage().getString("a"));
+	}
+
+	@Test
+	public void nullValueRemovesTheNameWithoutASession() {
+		ServerStorage storage = ServerStorage.get(STORAGE_ID);
+		storage.setString("a", "1");
+		storage.setString("a", null);
+
+		assertNull(storage.getString("a"));
+		assertFalse(this.getStorage().getKeys().contains("a"));
+	}
+
+	@Test
+	public void nullValueRemovesTheNameInASession() {
+		ServerStorage storage = ServerStorage.get(STORAGE_ID);
+		storage.setString("a", "1");
+
+		storage.open();
+		storage.setString("a", null);
+		assertNull(storage.getString("a"));
+		storage.close();
+
+		assertNull(storage.getString("a"));
+		assertFalse(this.getStorage().getKeys().contains("a"));
+	}
+
+	private StorageDao getStorage() {
+		Dao.beginTransaction();
+		try {
+			return Dao.getStorage(STORAGE_ID);
+		} finally {
+			Dao.commitOrRollbackTransaction();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package org.purewidgets.shared.im;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Tests the content fingerprints of widgets, options and parameters.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class FingerprintTest {
+
+	@Test
+	public void nullStringHasZeroFingerprint() {
+		assertEquals(0, Fingerprint.of(null));
+		assertEquals("abc".hashCode(), Fingerprint.of("abc"));
+	}
+
+	@Test
+	public void combineDependsOnOrder() {
+		int ab = Fingerprint.combine(Fingerprint.combine(0, 1), 2);
+		int ba = Fingerprint.combine(Fingerprint.combine(0, 2), 1);
+		assertTrue(ab != ba);
+	}
+
+	@Test
+	public void widgetsWithSameContentHaveSameFingerprint() {
+		assertEquals(createWidget("w", "a", "b").getFingerprint(), createWidget("w", "a", "b").getFingerprint());
+	}
+
+	@Test
+	public void optionOrderChangesFingerprint() {
+		assertTrue(createWidget("w", "a", "b").getFingerprint() != createWidget("w", "b", "a").getFingerprint());
+	}
+
+	@Test
+	public void settersInvalidateCachedFingerprint() {
+		Widget widget = createWidget("w", "a", "b");
+		int before = widget.getFingerprint();
+
+		widget.setShortDescription("changed");
+		int changed = widget.getFingerprint();
+		assertTrue(before != changed);
+
+		widget.getWidgetOptions().get(0).setShortDescription("changed");
+		assertTrue(changed != widget.getFingerprint());
+	}
+
+	@Test
+	public void parameterValueChangesFingerprint() {
+		Widget widget = createWidget("w", "a");
+		widget.getWidgetParameters().add(new WidgetParameter("name", "1"));
+		int before = widget.getFingerprint();
+
+		widget.getWidgetParameters().get(0).setValue("2");
+		assertTrue(before != widget.getFingerprint());
+	}
+
+	private static Widget createWidget(String widgetId, String... optionIds) {
+		ArrayList<WidgetOption> options = new ArrayList<WidgetOption>();
+		for ( String optionId : optionIds ) {
+			options.add(new WidgetOption(optionId));
+		}
+		return new Widget(widgetId, Widget.CONTROL_TYPE_IMPERATIVE_SELECTION, "short", "long", options,
+				new ArrayList<WidgetParameter>());
+	}
+}
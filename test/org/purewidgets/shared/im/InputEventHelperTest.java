@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.purewidgets.shared.im;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.purewidgets.shared.events.WidgetInputEvent;
+import org.purewidgets.shared.events.WidgetInputListener;
+
+/**
+ * Tests the indexed dispatch of widget input.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class InputEventHelperTest {
+
+	@Test
+	public void inputIsDispatchedToTheMatchingOption() {
+		Widget widget = createWidget("w", "a", "b");
+		RecordingListener listener = listen(widget);
+
+		ArrayList<WidgetInput> unprocessed = InputEventHelper.triggerWidgetInputEvents(
+				inputs(createInput("w", "b"), createInput("w", "a")), new WidgetIndex(Arrays.asList(widget)));
+
+		assertEquals(0, unprocessed.size());
+		assertEquals(2, listener.events.size());
+		assertEquals("b", listener.events.get(0).getWidgetOption().getWidgetOptionId());
+		assertEquals("a", listener.events.get(1).getWidgetOption().getWidgetOptionId());
+	}
+
+	@Test
+	public void inputIsDispatchedToEveryWidgetWithTheId() {
+		Widget first = createWidget("w", "a");
+		Widget second = createWidget("w", "a");
+		RecordingListener firstListener = listen(first);
+		RecordingListener secondListener = listen(second);
+
+		InputEventHelper.triggerWidgetInputEvents(inputs(createInput("w", "a")), new WidgetIndex(Arrays.asList(first, second)));
+
+		assertEquals(1, firstListener.events.size());
+		assertEquals(1, secondListener.events.size());
+	}
+
+	@Test
+	public void inputForUnknownWidgetIsReturned() {
+		Widget widget = createWidget("w", "a");
+		RecordingListener listener = listen(widget);
+		WidgetInput unknown = createInput("other", "a");
+
+		ArrayList<WidgetInput> unprocessed = InputEventHelper.triggerWidgetInputEvents(inputs(unknown),
+				new WidgetIndex(Arrays.asList(widget)));
+
+		assertEquals(1, unprocessed.size());
+		assertSame(unknown, unprocessed.get(0));
+		assertEquals(0, listener.events.size());
+	}
+
+	@Test
+	public void inputForUnknownOptionIsDropped() {
+		Widget widget = createWidget("w", "a");
+		RecordingListener listener = listen(widget);
+
+		ArrayList<WidgetInput> unprocessed = InputEventHelper.triggerWidgetInputEvents(inputs(createInput("w", "z")),
+				new WidgetIndex(Arrays.asList(widget)));
+
+		assertEquals(0, unprocessed.size());
+		assertEquals(0, listener.events.size());
+	}
+
+	@Test
+	public void indexReplaceKeepsPositionAndRemoveDropsEmptyIds() {
+		Widget first = createWidget("w", "a");
+		Widget second = createWidget("w", "a");
+		Widget replacement = createWidget("w", "a");
+		WidgetIndex index = new WidgetIndex(Arrays.asList(first, second));
+
+		index.replace(first, replacement);
+		assertSame(replacement, index.get("w").get(0));
+		assertSame(second, index.get("w").get(1));
+
+		index.remove(replacement);
+		index.remove(second);
+		assertNull(index.get("w"));
+	}
+
+	private static RecordingListener listen(Widget widget) {
+		RecordingListener listener = new RecordingListener();
+		widget.setInputListener(listener);
+		return listener;
+	}
+
+	private static ArrayList<WidgetInput> inputs(WidgetInput... inputs) {
+		return new ArrayList<WidgetInput>(Arrays.asList(inputs));
+	}
+
+	private static Widget createWidget(String widgetId, String... optionIds) {
+		ArrayList<WidgetOption> options = new ArrayList<WidgetOption>();
+		for ( String optionId : optionIds ) {
+			options.add(new WidgetOption(optionId));
+		}
+		return new Widget(widgetId, "short", "long", options);
+	}
+
+	private static WidgetInput createInput(String widgetId, String optionId) {
+		WidgetInput input = new WidgetInput();
+		input.setWidgetId(widgetId);
+		input.setWidgetOptionId(optionId);
+		input.setParameters(new ArrayList<String>());
+		return input;
+	}
+
+	/**
+	 * Records the input events received by a widget.
+	 */
+	private static class RecordingListener implements WidgetInputListener {
+		private ArrayList<WidgetInputEvent> events = new ArrayList<WidgetInputEvent>();
+
+		@Override
+		public void onInput(ArrayList<WidgetInputEvent> ie) {
+			this.events.addAll(ie);
+		}
+	}
+}
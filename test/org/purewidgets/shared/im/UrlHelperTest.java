@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.purewidgets.shared.im;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests the splitting of widget delete requests over several urls.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class UrlHelperTest {
+
+	private UrlHelper urlHelper = new UrlHelper("http://im");
+
+	private String base = this.urlHelper.getWidgetsUrl("p", "a", "a") + "&widgets=";
+
+	@Test
+	public void idsThatFitGoInOneUrl() {
+		ArrayList<String> urls = this.urlHelper.getWidgetsDeleteUrls("p", "a", "a", Arrays.asList("w1", "w2", "w3"), 255);
+		assertEquals(1, urls.size());
+		assertEquals(this.base + "w1,w2,w3", urls.get(0));
+	}
+
+	@Test
+	public void idsAreSplitWithoutLosingAny() {
+		ArrayList<String> ids = new ArrayList<String>();
+		for ( int i = 0; i < 100; i++ ) {
+			ids.add("widget" + i);
+		}
+		int maxLength = this.base.length() + 40;
+		ArrayList<String> urls = this.urlHelper.getWidgetsDeleteUrls("p", "a", "a", ids, maxLength);
+		assertTrue(urls.size() > 1);
+
+		ArrayList<String> sent = new ArrayList<String>();
+		for ( String url : urls ) {
+			assertTrue(url.length() <= maxLength);
+			assertTrue(url.startsWith(this.base));
+			sent.addAll(Arrays.asList(url.substring(this.base.length()).split(",")));
+		}
+		assertEquals(ids, sent);
+	}
+
+	@Test
+	public void longIdGoesInItsOwnUrl() {
+		String longId = "a-widget-id-longer-than-the-maximum-length";
+		ArrayList<String> urls = this.urlHelper.getWidgetsDeleteUrls("p", "a", "a", Arrays.asList("w1", longId, "w2"),
+				this.base.length() + 10);
+		assertEquals(3, urls.size());
+		assertEquals(this.base + "w1", urls.get(0));
+		assertEquals(this.base + longId, urls.get(1));
+		assertEquals(this.base + "w2", urls.get(2));
+	}
+
+	@Test
+	public void noIdsGiveNoUrls() {
+		assertEquals(0, this.urlHelper.getWidgetsDeleteUrls("p", "a", "a", new ArrayList<String>(), 255).size());
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package org.purewidgets.shared.im;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Tests the creation and application of widget deltas.
+ *
+ * @author "Jorge C. S. Cardoso"
+ *
+ */
+public class WidgetDeltaTest {
+
+	@Test
+	public void unchangedWidgetGivesEmptyDelta() {
+		WidgetDelta delta = WidgetDelta.create(createWidget("a", "b"), createWidget("a", "b"));
+		assertNotNull(delta);
+		assertTrue(delta.isEmpty());
+	}
+
+	@Test
+	public void addedChangedAndRemovedOptionsAreApplied() {
+		Widget base = createWidget("a", "b", "c");
+		Widget updated = createWidget("a", "c", "d");
+		updated.getWidgetOptions().get(1).setShortDescription("changed");
+
+		WidgetDelta delta = WidgetDelta.create(base, updated);
+		assertNotNull(delta);
+		assertEquals(1, delta.getAddedOptions().size());
+		assertEquals(1, delta.getChangedOptions().size());
+		assertEquals(1, delta.getRemovedOptionIds().size());
+		assertEquals("b", delta.getRemovedOptionIds().get(0));
+
+		Widget applied = delta.apply(base);
+		assertNotNull(applied);
+		assertEquals(updated.getFingerprint(), applied.getFingerprint());
+	}
+
+	@Test
+	public void parametersAndDescriptionsAreApplied() {
+		Widget base = createWidget("a");
+		base.getWidgetParameters().add(new WidgetParameter("kept", "1"));
+		base.getWidgetParameters().add(new WidgetParameter("removed", "1"));
+		Widget updated = createWidget("a");
+		updated.setLongDescription("changed");
+		updated.getWidgetParameters().add(new WidgetParameter("kept", "2"));
+		updated.getWidgetParameters().add(new WidgetParameter("added", "1"));
+
+		WidgetDelta delta = WidgetDelta.create(base, updated);
+		assertNotNull(delta);
+		assertTrue(delta.isDescriptionsChanged());
+		assertEquals("changed", delta.getLongDescription());
+		assertEquals(1, delta.getChangedParameters().size());
+		assertEquals(1, delta.getAddedParameters().size());
+		assertEquals(1, delta.getRemovedParameterNames().size());
+
+		Widget applied = delta.apply(base);
+		assertNotNull(applied);
+		assertEquals(updated.getFingerprint(), applied.getFingerprint());
+	}
+
+	@Test
+	public void reorderedOptionsCannotBeExpressed() {
+		assertNull(WidgetDelta.create(createWidget("a", "b"), createWidget("b", "a")));
+	}
+
+	@Test
+	public void widgetsOfDifferentApplicationsCannotBeExpressed() {
+		Widget other = createWidget("a");
+		other.setApplicationId("other");
+		assertNull(WidgetDelta.create(createWidget("a"), other));
+	}
+
+	@Test
+	public void deltaIsNotAppliedToAnotherVersion() {
+		Widget base = createWidget("a");
+		WidgetDelta delta = WidgetDelta.create(base, createWidget("a", "b"));
+		assertNotNull(delta);
+
+		Widget otherVersion = createWidget("a");
+		otherVersion.setShortDescription("other");
+		assertNull(delta.apply(otherVersion));
+	}
+
+	private static Widget createWidget(String... optionIds) {
+		ArrayList<WidgetOption> options = new ArrayList<WidgetOption>();
+		for ( String optionId : optionIds ) {
+			options.add(new WidgetOption(optionId));
+		}
+		return new Widget("widget", Widget.CONTROL_TYPE_IMPERATIVE_SELECTION, "short", "long", options,
+				new ArrayList<WidgetParameter>());
+	}
+}